@@ -0,0 +1,337 @@
+package healthABM;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.concurrent.ForkJoinPool;
+
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Runs several policy scenarios that share the same history until the policy starts. The shared part (prefix) is run once and saved
+ * with a {@link Checkpoint}; each scenario (branch) restores this state and continues with its own parameters and its own output
+ * ({@link RunOutput}, run = number of the branch).<br>
+ * By default the branch tick is the last tick before the first {@link InsuranceCompany#stepAdaptHIOffer()} at or after the smallest
+ * <i>policy1tick</i> of all branches, i.e. the last tick that does not depend on the policy parameters. It can also be set with branchTick=N.
+ * Since the shared part is run once, the branches may only change the policy parameters (policy*); any other parameter of a branch must
+ * have the value of the base parameters.<br>
+ * The state of the model is static (see {@link Model}), hence one JVM runs one branch at a time, using all <i>numThreads</i> threads. With
+ * processes=N (N &gt; 1), N branches run at the same time, each in its own JVM (same java and classpath) that restores the saved state;
+ * the console output of branch <i>run</i> goes to <i>folder</i>/branch_<i>run</i>.log.<br>
+ * Usage: <code>java healthABM.BranchRunner [parameters.xml] [output=folder] [branchTick=N] [processes=N] [name=value ...] branch=name=value;name=value ...</code><br>
+ * Example: <code>branch=policy1tick=15000 branch=policy1tick=785;policy1minDeductible=500 branch=policy1tick=785;policy1minDeductible=1500</code>
+ */
+public class BranchRunner {
+
+	/** Base parameters (shared part) */
+	private final Parameters params;
+
+	/** Output folder */
+	private final String output;
+
+	/** Assignments of each branch (name=value) */
+	private final ArrayList<String[]> branches = new ArrayList<String[]>();
+
+	/** Last tick of the shared part (-1: computed from policy1tick) */
+	private int branchTick = -1;
+
+	/** Number of branches run at the same time in separate JVMs (1: all branches in this JVM, one after the other) */
+	private int processes = 1;
+
+	/** Arguments of {@link #main(String[])}, passed on to the JVMs of the branches (null if the runner was not started from the command line) */
+	private String[] commandLine;
+
+
+	/**
+	 * @param params Base parameters (not changed by the runner)
+	 * @param output output folder (created if it does not exist)
+	 */
+	public BranchRunner(Parameters params, String output) {
+		this.params = params;
+		this.output = output;
+		new File(output).mkdirs();
+	}
+
+	/**
+	 * Adds a branch
+	 * @param assignments parameter values of the branch (name=value)
+	 */
+	public void addBranch(String[] assignments) {
+		this.branches.add(assignments);
+	}
+
+	/**
+	 * Sets the last tick of the shared part
+	 * @param tick last tick executed before the branches start
+	 */
+	public void setBranchTick(int tick) {
+		this.branchTick = tick;
+	}
+
+	/**
+	 * Sets the number of branches run at the same time, each in its own JVM (requires {@link #setCommandLine(String[])})
+	 * @param processes number of JVMs (1: all branches in this JVM)
+	 */
+	public void setProcesses(int processes) {
+		this.processes = Math.max(1, processes);
+	}
+
+	/**
+	 * Sets the arguments the runner was started with, passed on to the JVMs of the branches
+	 * @param args arguments of {@link #main(String[])}
+	 */
+	public void setCommandLine(String[] args) {
+		this.commandLine = args;
+	}
+
+	/** Runs the shared part and all branches */
+	public void runAll() {
+		if(this.branches.isEmpty()) {
+			System.out.println("ERROR: no branch defined (use branch=name=value;name=value)");
+			System.exit(1);
+		}
+		if(this.processes>1 && this.commandLine==null) {
+			System.out.println("ERROR: branches in separate JVMs (processes > 1) require the command line of the runner (see setCommandLine)");
+			System.exit(1);
+		}
+
+		// PARAMETERS OF ALL BRANCHES
+		ArrayList<Parameters> branchParams = new ArrayList<Parameters>();
+		int firstPolicyTick = Integer.MAX_VALUE;
+		for(String[] b: this.branches) {
+			branchParams.add(this.branchParameters(b));
+			firstPolicyTick = Math.min(firstPolicyTick, branchParams.get(branchParams.size()-1).getInteger("policy1tick"));
+		}
+		int tick = this.branchTick>=0 ? this.branchTick : BranchRunner.lastTickBefore(firstPolicyTick);
+		int stopTick = TickEngine.getStopTick(this.params);
+		if(tick>=stopTick) {
+			System.out.printf("ERROR: the branch tick (%s) is not before the end of the run (%s)\n", tick, stopTick);
+			System.exit(1);
+		}
+		if(tick>BranchRunner.lastTickBefore(firstPolicyTick)) {
+			System.out.printf("ERROR: the branch tick (%s) is after the first tick in which a policy is applied (%s): the shared part would "
+					+ "depend on the policy parameters\n", tick, BranchRunner.lastTickBefore(firstPolicyTick)+1);
+			System.exit(1);
+		}
+
+		int threads = TickEngine.getNumThreads(this.params);
+		ForkJoinPool pool = threads>1 ? new ForkJoinPool(threads) : null;
+
+		// SHARED PART
+		String state = this.output+"/branch_"+tick+".gz";
+		Parameters prefix = (Parameters) this.params.clone();
+		prefix.setValue("policy1tick", firstPolicyTick);
+		prefix.setValue("checkpointTick", -1);
+		ClaimsLog.setRun(prefix, 0);
+		System.out.printf("Shared part: ticks 0 to %s\n", tick);
+		TickEngine engine = new TickEngine(prefix, pool);
+		engine.build();
+		engine.run(tick);
+		Checkpoint.save(state, engine.getContext(), tick);
+		engine.finish();
+
+		// BRANCHES
+		Formatter runs = null;
+		try {
+			runs = new Formatter(new FileOutputStream(this.output+"/runs.txt"));
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("FileNotFound Exception: could not create [%s/runs.txt]\n", this.output);
+			System.exit(1);
+		}
+		runs.format("run,branchTick,parameters\n");
+		if(this.processes>1) {
+			this.runProcesses(state, tick);
+		}
+		for(int i = 0; i < this.branches.size(); i++) {
+			int run = i+1;
+			if(this.processes<=1) {
+				this.runBranch(run, branchParams.get(i), state, tick, pool);
+			}
+			runs.format("%s,%s,\"%s\"\n", run, tick, String.join(";", this.branches.get(i)));
+			runs.flush();
+		}
+		runs.close();
+		if(pool!=null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the parameters of a branch: the base parameters with the assignments of the branch. Stops the program if the branch
+	 * changes a parameter other than a policy parameter (policy*), since the shared part only uses the base parameters.
+	 * @param assignments parameter values of the branch (name=value)
+	 * @return Parameters of the branch
+	 */
+	private Parameters branchParameters(String[] assignments) {
+		Parameters p = (Parameters) this.params.clone();
+		for(String assignment: assignments) {
+			TickEngine.setParameter(p, assignment);
+			String name = assignment.split("=", 2)[0];
+			Object base = this.params.getValue(name);
+			if(!name.startsWith("policy") && (base==null ? p.getValue(name)!=null : !base.equals(p.getValue(name)))) {
+				System.out.printf("ERROR: the branch [%s] changes the parameter %s (%s instead of %s). Branches may only change the policy "
+						+ "parameters (policy*), since the shared part is run once with the base parameters\n", String.join(";", assignments), name,
+						p.getValue(name), base);
+				System.exit(1);
+			}
+		}
+		p.setValue("checkpointTick", -1);
+		return p;
+	}
+
+	/**
+	 * Runs a branch in this JVM: restores the saved state and continues until the end of the run
+	 * @param run number of the branch (1, 2, ...)
+	 * @param p Parameters of the branch
+	 * @param state file with the state after the shared part
+	 * @param tick last tick of the shared part
+	 * @param pool fork/join pool (null: one thread)
+	 */
+	private void runBranch(int run, Parameters p, String state, int tick, ForkJoinPool pool) {
+		int stopTick = TickEngine.getStopTick(p);
+		p.setValue("initialState", state);
+		ClaimsLog.setRun(p, run);
+		System.out.printf("Branch %s [%s]: ticks %s to %s\n", run, String.join(";", this.branches.get(run-1)), tick+1, stopTick);
+		TickEngine engine = new TickEngine(p, pool);
+		engine.build();
+		RunOutput out = new RunOutput(this.output, run);
+		engine.addObserver(out);
+		engine.run(stopTick);
+		engine.finish();
+		out.close();
+	}
+
+	/**
+	 * Runs all branches in separate JVMs, {@link #processes} at a time, and waits until they are done. Each JVM is started with the
+	 * command line of this runner plus branchRun=<i>run</i>, branchState and branchTick, and runs this branch only (see {@link #main(String[])}).
+	 * @param state file with the state after the shared part
+	 * @param tick last tick of the shared part
+	 */
+	private void runProcesses(String state, int tick) {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process[] running = new Process[this.branches.size()];
+		int next = 0, done = 0;
+		try {
+			while(done<this.branches.size()) {
+				// Start branches until processes JVMs are running
+				while(next<this.branches.size() && next-done<this.processes) {
+					int run = next+1;
+					ArrayList<String> command = new ArrayList<String>();
+					command.add(java);
+					command.add("-cp");
+					command.add(System.getProperty("java.class.path"));
+					command.add(BranchRunner.class.getName());
+					command.addAll(Arrays.asList(this.commandLine));
+					command.add("branchRun="+run);
+					command.add("branchState="+state);
+					command.add("branchTick="+tick);
+					File log = new File(this.output, "branch_"+run+".log");
+					System.out.printf("Branch %s [%s]: started in a separate JVM (output in [%s])\n", run, String.join(";", this.branches.get(next)), log);
+					running[next] = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+					next++;
+				}
+				// Wait for the oldest running branch
+				int exit = running[done].waitFor();
+				if(exit!=0) {
+					System.out.printf("ERROR: branch %s stopped with exit code %s (see [%s/branch_%s.log])\n", done+1, exit, this.output, done+1);
+					for(int i = done+1; i < next; i++) {
+						running[i].destroy();
+					}
+					System.exit(1);
+				}
+				done++;
+			}
+		}
+		catch (IOException e) {
+			System.out.printf("Sorry, I could not start the JVM of branch %s [%s]\n", next+1, java);
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			System.out.println("ERROR: interrupted while waiting for the branches");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns the last tick before the first adaptation of the insurance offers ({@link InsuranceCompany#stepAdaptHIOffer()}) in which a
+	 * policy starting at the given tick is applied
+	 * @param policyTick first tick of the policy (parameter policy1tick)
+	 * @return last tick that does not depend on the policy
+	 */
+	static int lastTickBefore(int policyTick) {
+		try {
+			ScheduledMethod adapt = InsuranceCompany.class.getMethod("stepAdaptHIOffer").getAnnotation(ScheduledMethod.class);
+			double t = Math.max(adapt.start(), policyTick);
+			if(adapt.interval()>0) {
+				t = adapt.start() + Math.ceil((t-adapt.start())/adapt.interval())*adapt.interval();
+			}
+			return (int) t - 1;
+		}
+		catch (NoSuchMethodException e) {
+			System.out.println("ERROR: InsuranceCompany.stepAdaptHIOffer() not found");
+			System.exit(1);
+			return -1;
+		}
+	}
+
+	public static void main(String[] args) {
+		String file = args.length>0 ? args[0] : "HealthABM.rs/parameters.xml";
+		Parameters params = TickEngine.loadParameters(file);
+		String output = "outputdata";
+		ArrayList<String[]> branches = new ArrayList<String[]>();
+		int branchTick = -1;
+		int processes = 1;
+		int branchRun = 0;
+		String branchState = null;
+
+		for(int i = 1; i < args.length; i++) {
+			String[] kv = args[i].split("=", 2);
+			if(kv.length==2 && kv[0].equals("output")) {
+				output = kv[1];
+			}
+			else if(kv.length==2 && kv[0].equals("branchTick")) {
+				branchTick = Integer.parseInt(kv[1]);
+			}
+			else if(kv.length==2 && kv[0].equals("branch")) {
+				branches.add(kv[1].split(";"));
+			}
+			else if(kv.length==2 && kv[0].equals("processes")) {
+				processes = Integer.parseInt(kv[1]);
+			}
+			else if(kv.length==2 && kv[0].equals("branchRun")) {		// JVM of one branch (see runProcesses)
+				branchRun = Integer.parseInt(kv[1]);
+			}
+			else if(kv.length==2 && kv[0].equals("branchState")) {
+				branchState = kv[1];
+			}
+			else {
+				TickEngine.setParameter(params, args[i]);
+			}
+		}
+
+		BranchRunner runner = new BranchRunner(params, output);
+		for(String[] b: branches) {
+			runner.addBranch(b);
+		}
+		runner.setBranchTick(branchTick);
+		runner.setProcesses(processes);
+		runner.setCommandLine(args);
+		if(branchRun>0) {
+			int threads = TickEngine.getNumThreads(params);
+			ForkJoinPool pool = threads>1 ? new ForkJoinPool(threads) : null;
+			runner.runBranch(branchRun, runner.branchParameters(branches.get(branchRun-1)), branchState, branchTick, pool);
+			if(pool!=null) {
+				pool.shutdown();
+			}
+		}
+		else {
+			runner.runAll();
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package healthABM;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import repast.simphony.context.Context;
+
+/**
+ * Read-only input data of the model, imported once per input folder (parameter <i>inputfolder</i>) and shared by all runs in the same JVM
+ * (e.g. the replications of the {@link ReplicationRunner}):
+ * <ul>
+ * 	<li>illnesses and treatments, incidence and initial prevalence (illnesses.xlsx, see {@link ImporterIllness})</li>
+ * 	<li>expected health care expenditures by age and gender (expHCE.csv)</li>
+ * 	<li>insurance companies and health insurance plans (hi.xlsx)</li>
+ * </ul>
+ * Illnesses and treatments are shared between runs (their only mutable value, {@link Illness#currentCost}, is reset in every tick). Insurance
+ * companies and plans change during a run, hence only their initial values are stored and new objects are created for every run
+ * ({@link #createInsuranceCompanies(Context, double)}).<br>
+ * Changes of the input files are not seen by a running JVM, use {@link #clear()} to import them again.
+ */
+public class Catalogue {
+
+	/** All catalogues imported so far (key: input folder) */
+	private static final LinkedHashMap<String, Catalogue> catalogues = new LinkedHashMap<String, Catalogue>();
+
+	/** Input folder */
+	private final String inputfolder;
+
+	/** Imported illnesses (with treatments)*/
+	private ArrayList<Illness> illnesses;
+
+	/** Weekly incidence of the illnesses by gender and age group (see {@link Model#illnessProbability})*/
+	private LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> illnessProbability;
+
+	/** Prevalence of the illnesses by gender and age group (see {@link Model#initialiserPrevalence})*/
+	private LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> initialiserPrevalence;
+
+	/** Weekly incidence and prevalence by gender and age (see {@link Model#incidenceRates})*/
+	private IllnessRates incidenceRates;
+	private IllnessRates prevalenceRates;
+
+	/** Expected health care expenditures by age (see {@link Model#expHCE})*/
+	private LinkedHashMap<Integer, Double[]> expHCE;
+
+	/** Initial values of the insurance companies: id, capital, profit target */
+	private ArrayList<double[]> insurers = new ArrayList<double[]>();
+
+	/** Initial values of the health insurance plans */
+	private ArrayList<PlanTemplate> plans = new ArrayList<PlanTemplate>();
+
+
+	/**
+	 * Returns the catalogue of the input folder, importing it if this was not done before
+	 * @param inputfolder input folder (parameter <i>inputfolder</i>)
+	 * @return Catalogue
+	 */
+	public static synchronized Catalogue get(String inputfolder) {
+		Catalogue catalogue = catalogues.get(inputfolder);
+		if(catalogue==null) {
+			catalogue = new Catalogue(inputfolder);
+			catalogues.put(inputfolder, catalogue);
+		}
+		return catalogue;
+	}
+
+	/** Drops all imported catalogues (the next run imports the input files again) */
+	public static synchronized void clear() {
+		catalogues.clear();
+	}
+
+	private Catalogue(String inputfolder) {
+		this.inputfolder = inputfolder;
+
+		ImporterIllness importer = new ImporterIllness(inputfolder+"/illnesses.xlsx");
+		this.illnesses 				= importer.getIllnesses();
+		this.illnessProbability 	= importer.getIllnessProbability();
+		this.initialiserPrevalence 	= importer.getInitialiserPrevalence();
+		this.incidenceRates 		= importer.getIncidenceRates();
+		this.prevalenceRates 		= importer.getPrevalenceRates();
+
+		this.expHCE = Model.loadDataExpectedHCE(inputfolder);
+
+		this.loadHealthInsurance(inputfolder+"/hi.xlsx");
+	}
+
+	/**
+	 * Makes the illnesses, incidence, prevalence and expected health care expenditures available to the model (static variables of {@link Model}).
+	 * To be called by the constructor of the {@link Model}.
+	 */
+	public void install() {
+		Model.listIllnesses 		= new ArrayList<Illness>(this.illnesses);
+		Model.illnessProbability 	= this.illnessProbability;
+		Model.initialiserPrevalence = this.initialiserPrevalence;
+		Model.incidenceRates 		= this.incidenceRates;
+		Model.prevalenceRates 		= this.prevalenceRates;
+		Model.expHCE 				= this.expHCE;
+		Model.counterIllness.set(this.illnesses.size()+1);
+	}
+
+	/**
+	 * Creates new insurance companies and health insurance plans with the initial values of hi.xlsx and adds them to the context
+	 * @param context Context of the run
+	 * @param premiumsScalingFactor factor applied to all premiums (parameter <i>premiumsScalingFactor</i>)
+	 */
+	public void createInsuranceCompanies(Context<Object> context, double premiumsScalingFactor) {
+		LinkedHashMap<Integer, InsuranceCompany> allInsuranceCompanies = new LinkedHashMap<Integer, InsuranceCompany>();
+		for(double[] i: this.insurers) {
+			// Create the company
+			InsuranceCompany company = new InsuranceCompany((int) i[0], i[1], i[2]);
+			// Add it to the context
+			context.add(company);
+			// Add it to a HashMap in order to be able to link the HIplans (below) to the companies
+			allInsuranceCompanies.put((int) i[0], company);
+		}
+
+		for(PlanTemplate p: this.plans) {
+			InsuranceCompany insurer = allInsuranceCompanies.get(p.idInsurer);
+			if (insurer != null) {
+				double premium = p.premium*premiumsScalingFactor;
+				HIPlan plan = new HIPlan(p.id,insurer, p.deductible, p.copaymentRate, p.stopLoss, p.stopClaim, p.minAge, p.maxAge,
+						premium, p.women, p.men);
+				// Add it to the context
+				System.out.printf("\nNew HI Plan with insurer:%s, deduct:%s, copay:%s, premium:%s", insurer, p.deductible,
+						p.copaymentRate, premium);
+				context.add(plan);
+			} else {
+				System.out.printf("WARNING: HIPlan with ID=%s has an invalid insurer. It was ignored\n", p.id);
+			}
+		}
+	}
+
+	/** @return the input folder of this catalogue */
+	public String getInputfolder() {
+		return this.inputfolder;
+	}
+
+	/**
+	 * Imports the insurance companies and plans from the excel file (sheets 'insurers' and 'hiplans')
+	 * @param fileHi path of hi.xlsx
+	 */
+	private void loadHealthInsurance(String fileHi) {
+		try {
+			// Define the file to be imported
+			FileInputStream excelFile = new FileInputStream(new File(fileHi));
+			XSSFWorkbook workbook = new XSSFWorkbook(excelFile);
+
+			// INSURANCE COMPANIES
+			Sheet sheetInsurers = workbook.getSheet("insurers");
+			Iterator<Row> rowIterator = sheetInsurers.iterator(); // define the iterator
+
+			// READ THE FIRST LINE (variable names) - companies
+			ArrayList<String> varNames = readNames(rowIterator.next());
+
+			// Read the actual data
+			while (rowIterator.hasNext()) {
+				Row thisRow = rowIterator.next(); // Take only one row at a time
+
+				double capital = thisRow.getCell(varNames.indexOf("capital")).getNumericCellValue();
+				double profitTarget = thisRow.getCell(varNames.indexOf("profitTarget")).getNumericCellValue();
+				int id = (int) thisRow.getCell(varNames.indexOf("id")).getNumericCellValue();
+
+				this.insurers.add(new double[] {id, capital, profitTarget});
+			} // end loop over all insurance companies
+
+			// Health insurance plans
+			Sheet sheetHiPlans = workbook.getSheet("hiplans");
+			rowIterator = sheetHiPlans.iterator(); // define the iterator
+
+			// READ THE FIRST LINE (variable names) - plans
+			varNames = readNames(rowIterator.next());
+
+			// Read the actual data
+			while (rowIterator.hasNext()) {
+				Row thisRow = rowIterator.next(); // Take only one row at a time
+
+				PlanTemplate p = new PlanTemplate();
+				p.idInsurer = (int) thisRow.getCell(varNames.indexOf("insurer")).getNumericCellValue();
+				p.id = (int) thisRow.getCell(varNames.indexOf("id")).getNumericCellValue();
+				p.premium = thisRow.getCell(varNames.indexOf("prime")).getNumericCellValue();
+				p.minAge = (int) thisRow.getCell(varNames.indexOf("minAge")).getNumericCellValue();
+				p.maxAge = (int) thisRow.getCell(varNames.indexOf("maxAge")).getNumericCellValue();
+				p.deductible = thisRow.getCell(varNames.indexOf("deductible")).getNumericCellValue();
+				p.copaymentRate = thisRow.getCell(varNames.indexOf("copaymentRate")).getNumericCellValue();
+				p.stopLoss = (int) thisRow.getCell(varNames.indexOf("stopLoss")).getNumericCellValue();
+				p.stopClaim = (int) thisRow.getCell(varNames.indexOf("stopClaim")).getNumericCellValue();
+				String gender = thisRow.getCell(varNames.indexOf("gender")).getStringCellValue().toLowerCase();
+
+				// By default all insurance plans are for both gender
+				p.women = true;
+				p.men = true;
+
+				// If women (or woman) is indicated, then the insurance plan is not available to men
+				if (gender.equals("woman") || gender.equals("women")) {
+					p.men = false;
+				}
+				// If men (or man) is indicated, then the insurance plan is not available to women
+				if (gender.equals("men") || gender.equals("man")) {
+					p.women = false;
+				}
+				this.plans.add(p);
+			} // end loop over all plans
+
+		} catch (FileNotFoundException e) {
+			System.out.printf(
+					"Sorry, I could not find the input file you specified [%s]\nI abort the initalistion of the model.",
+					fileHi);
+			System.exit(0);
+		} catch (IOException e) {
+			System.out.printf(
+					"Sorry, I could not find the input file you specified [%s]\nI abort the initalistion of the model.",
+					fileHi);
+			System.exit(0);
+		}
+	}
+
+	/** Reads the variable names of the first row of a sheet */
+	private static ArrayList<String> readNames(Row firstRow) {
+		Iterator<Cell> cellIterator = firstRow.iterator();
+		ArrayList<String> varNames = new ArrayList<String>();
+		while (cellIterator.hasNext()) {
+			Cell currentCell = cellIterator.next();
+			varNames.add(currentCell.getStringCellValue());
+		}
+		return varNames;
+	}
+
+	/** Initial values of a health insurance plan (one row of the sheet 'hiplans', premium without scaling factor) */
+	static class PlanTemplate {
+		int id;
+		int idInsurer;
+		double premium;
+		int minAge;
+		int maxAge;
+		double deductible;
+		double copaymentRate;
+		int stopLoss;
+		int stopClaim;
+		boolean women;
+		boolean men;
+	}
+}
@@ -0,0 +1,721 @@
+package healthABM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import repast.simphony.context.Context;
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.space.continuous.ContinuousSpace;
+import repast.simphony.space.continuous.NdPoint;
+
+/**
+ * Saves the complete state of a run to a compact binary file (gzip) and restores it, e.g. to save a burned-in population after 1040 ticks
+ * and to start several runs from there. The file contains:
+ * <ul>
+ * 	<li>the static state of the {@link Model} (ID counters, statistics of the expenditures (HCE), incidence, udist, columns of the {@link PatientTable}, scheduled onsets of illnesses, cohorts of the {@link CohortIncidence})</li>
+ * 	<li>all agents of the context (patients, medical conditions, contracts, plans, insurance companies, providers) with all their instance
+ * 		variables and their location, plus the objects they refer to (e.g. contracts of patients who died)</li>
+ * </ul>
+ * The instance variables are saved by reflection, hence new variables are saved without changing this class (transient variables, e.g. caches, are not saved). Illnesses and treatments are
+ * not saved, but referred to by ID (they are read from the input files, see {@link Catalogue}). The {@link RandomStreams} only depend on the
+ * seed and the tick. The state of the Repast RandomHelper is not saved: the headless {@link TickEngine} seeds it again at the start of each tick
+ * from the seed and the tick ({@link RandomStreams#repastSeed(int)}), hence a run restored by the TickEngine draws the same numbers as the
+ * original run (for the same randomSeed). A state restored under Repast (tick 0 only) draws other numbers from the RandomHelper.<br>
+ * Parameters:
+ * <ul>
+ * 	<li><i>checkpointTick</i>: the state is saved after this tick (at the start of the next tick). 0 saves the initial population (after the
+ * 		{@link Initialiser}), -1 (default) saves nothing.</li>
+ * 	<li><i>checkpointFile</i>: file for the state (default: freezedried_data/checkpoint.gz)</li>
+ * 	<li><i>initialState</i>: if not empty, the {@link Initialiser} restores this file instead of creating a new population. A state saved after
+ * 		tick 0 can only be resumed by the headless {@link TickEngine}, which continues with the next tick.</li>
+ * </ul>
+ */
+public class Checkpoint {
+
+	private static final String MAGIC = "HealthABM-checkpoint";
+	private static final int VERSION = 10;
+
+	// TAGS OF THE VALUES
+	private static final byte NULL 			= 0;
+	private static final byte INT 			= 1;
+	private static final byte DOUBLE 		= 2;
+	private static final byte BOOLEAN 		= 3;
+	private static final byte STRING 		= 4;
+	private static final byte LONG 			= 5;
+	private static final byte FLOAT 		= 6;
+	private static final byte ENUM 			= 7;
+	private static final byte DOUBLE_ARRAY 	= 8;
+	private static final byte INT_ARRAY 	= 9;
+	private static final byte BOOLEAN_ARRAY = 10;
+	private static final byte OBJECT_ARRAY 	= 11;
+	private static final byte COLLECTION 	= 12;
+	private static final byte MAP 			= 13;
+	private static final byte ENTITY 		= 14;
+	private static final byte ILLNESS 		= 15;
+	private static final byte TREATMENT 	= 16;
+	private static final byte SPACE 		= 17;
+	private static final byte MODEL 		= 18;
+	private static final byte LONG_ARRAY 	= 19;
+
+	/** Classes whose objects are saved as entities (one record per object, referred to by its index) */
+	private static final Class<?>[] ENTITY_CLASSES = {Patient.class, MedicalCondition.class, HealthInsurance.class, HIPlan.class,
+			InsuranceCompany.class, Provider.class};
+
+	/** Instance variables by class */
+	private static final HashMap<Class<?>, Field[]> fields = new HashMap<Class<?>, Field[]>();
+
+	// WRITING
+	private DataOutputStream out;
+	/** Index of each entity */
+	private IdentityHashMap<Object, Integer> index = new IdentityHashMap<Object, Integer>();
+	/** Entities in the order of their index */
+	private ArrayList<Object> entities = new ArrayList<Object>();
+	/** Illness ID and position of each treatment */
+	private IdentityHashMap<Treatment, int[]> treatments = new IdentityHashMap<Treatment, int[]>();
+
+	// READING
+	private DataInputStream in;
+	/** Space of the restored context */
+	private ContinuousSpace<Object> space;
+	/** Illnesses by ID */
+	private HashMap<Integer, Illness> illnesses = new HashMap<Integer, Illness>();
+	/** Restored entities (by index) */
+	private ArrayList<Object> restored = new ArrayList<Object>();
+
+
+	private Checkpoint() {
+		for(Illness ill: Model.listIllnesses) {
+			this.illnesses.put(ill.id, ill);
+			for(int i = 0; i < ill.treatments.size(); i++) {
+				this.treatments.put(ill.treatments.get(i), new int[] {ill.id, i});
+			}
+		}
+	}
+
+	/**
+	 * Saves the state of the run
+	 * @param file output file (the folder is created if necessary)
+	 * @param context Context of the run
+	 * @param tick last executed tick (-1 for the initial population)
+	 */
+	public static void save(String file, Context<Object> context, int tick) {
+		File f = new File(file);
+		if(f.getParentFile()!=null) {
+			f.getParentFile().mkdirs();
+		}
+		Checkpoint c = new Checkpoint();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(f))))) {
+			c.out = out;
+			c.write(context, tick);
+		}
+		catch (IOException e) {
+			System.out.printf("Sorry, I could not write the checkpoint [%s]\n", file);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.out.printf("Saved the state after tick %s to [%s] (%s agents)\n", tick, file, c.entities.size());
+	}
+
+	/**
+	 * Restores a saved state into the context. The model ({@link Model} constructor) and the space must already exist,
+	 * the illnesses are added to the context by this method.
+	 * @param file file written by {@link #save(String, Context, int)}
+	 * @param context empty context (except the model)
+	 * @param space space of the context
+	 * @return the last tick executed before the state was saved (-1 for an initial population)
+	 */
+	public static int restore(String file, Context<Object> context, ContinuousSpace<Object> space) {
+		Checkpoint c = new Checkpoint();
+		c.space = space;
+		int tick = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			c.in = in;
+			tick = c.read(context);
+		}
+		catch (IOException | ClassNotFoundException e) {
+			System.out.printf("Sorry, I could not read the checkpoint [%s]\n", file);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		Model.firstTick = tick+1;
+		System.out.printf("Restored the state after tick %s from [%s]\n", tick, file);
+		return tick;
+	}
+
+
+	// WRITE
+	private void write(Context<Object> context, int tick) throws IOException {
+		this.out.writeUTF(MAGIC);
+		this.out.writeInt(VERSION);
+		this.out.writeInt(tick);
+		this.out.writeUTF(Model.getParameters().getString("inputfolder"));
+
+		// STATIC STATE OF THE MODEL
+		this.out.writeInt(Model.counterInsurance.get());
+		this.out.writeInt(Model.counterIllness.get());
+		this.out.writeInt(Model.counterPatients.get());
+		this.out.writeInt(Model.counterProviders);
+		this.out.writeInt(Model.counterMedConditions.get());
+		this.out.writeInt(Model.counterHIPlans.get());
+		this.out.writeInt(Model.currentYearStart);
+		Object[] hce = new Object[Model.HCE.length*2];
+		for(int i = 0; i < Model.HCE.length; i++) {
+			hce[2*i] = Model.HCE[i][0].save();
+			hce[2*i+1] = Model.HCE[i][1].save();
+		}
+		this.writeValue(hce);
+		this.writeValue(Model.incidence);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+			oos.writeObject(Model.udist);
+		}
+		this.out.writeInt(bytes.size());
+		this.out.write(bytes.toByteArray());
+		this.writeValue(Model.patients.save());
+		this.writeValue(Model.onsets==null ? null : Model.onsets.save());
+		this.writeValue(Model.cohorts==null ? null : Model.cohorts.save());
+
+		// ENTITIES: first the agents of the context (in the order of the context), then all other objects they refer to
+		for(Object o: context) {
+			if(entityClass(o)>=0) {
+				this.register(o);
+			}
+		}
+		this.out.writeInt(this.entities.size());	// number of entities in the context
+		ContinuousSpace<?> space = (ContinuousSpace<?>) context.getProjection("space");
+
+		for(int i = 0; i < this.entities.size(); i++) {	// the list grows while writing
+			Object o = this.entities.get(i);
+			this.out.writeBoolean(true);
+			this.out.writeByte(entityClass(o));
+
+			NdPoint pt = space==null ? null : space.getLocation(o);
+			this.out.writeBoolean(pt!=null);
+			if(pt!=null) {
+				this.out.writeDouble(pt.getX());
+				this.out.writeDouble(pt.getY());
+			}
+
+			Field[] fs = fieldsOf(o.getClass());
+			this.out.writeInt(fs.length);
+			for(Field f: fs) {
+				this.out.writeUTF(f.getName());
+				try {
+					this.writeValue(f.get(o));
+				}
+				catch (IllegalAccessException e) {
+					System.out.printf("ERROR: could not read %s.%s for the checkpoint\n", o.getClass().getSimpleName(), f.getName());
+					System.exit(1);
+				}
+			}
+		}
+		this.out.writeBoolean(false);
+	}
+
+	/** Assigns the next index to an entity */
+	private int register(Object o) {
+		Integer i = this.index.get(o);
+		if(i==null) {
+			i = this.entities.size();
+			this.index.put(o, i);
+			this.entities.add(o);
+		}
+		return i;
+	}
+
+	private void writeValue(Object v) throws IOException {
+		if(v==null) {
+			this.out.writeByte(NULL);
+		}
+		else if(v instanceof Integer) {
+			this.out.writeByte(INT);
+			this.out.writeInt((Integer) v);
+		}
+		else if(v instanceof Double) {
+			this.out.writeByte(DOUBLE);
+			this.out.writeDouble((Double) v);
+		}
+		else if(v instanceof Boolean) {
+			this.out.writeByte(BOOLEAN);
+			this.out.writeBoolean((Boolean) v);
+		}
+		else if(v instanceof String) {
+			this.out.writeByte(STRING);
+			this.out.writeUTF((String) v);
+		}
+		else if(v instanceof Long) {
+			this.out.writeByte(LONG);
+			this.out.writeLong((Long) v);
+		}
+		else if(v instanceof Float) {
+			this.out.writeByte(FLOAT);
+			this.out.writeFloat((Float) v);
+		}
+		else if(v instanceof Enum) {
+			this.out.writeByte(ENUM);
+			this.out.writeUTF(((Enum<?>) v).getDeclaringClass().getName());
+			this.out.writeUTF(((Enum<?>) v).name());
+		}
+		else if(v instanceof double[]) {
+			double[] a = (double[]) v;
+			this.out.writeByte(DOUBLE_ARRAY);
+			this.out.writeInt(a.length);
+			for(double d: a) {
+				this.out.writeDouble(d);
+			}
+		}
+		else if(v instanceof int[]) {
+			int[] a = (int[]) v;
+			this.out.writeByte(INT_ARRAY);
+			this.out.writeInt(a.length);
+			for(int d: a) {
+				this.out.writeInt(d);
+			}
+		}
+		else if(v instanceof long[]) {
+			long[] a = (long[]) v;
+			this.out.writeByte(LONG_ARRAY);
+			this.out.writeInt(a.length);
+			for(long d: a) {
+				this.out.writeLong(d);
+			}
+		}
+		else if(v instanceof boolean[]) {
+			boolean[] a = (boolean[]) v;
+			this.out.writeByte(BOOLEAN_ARRAY);
+			this.out.writeInt(a.length);
+			for(boolean d: a) {
+				this.out.writeBoolean(d);
+			}
+		}
+		else if(v instanceof Object[]) {
+			Object[] a = (Object[]) v;
+			this.out.writeByte(OBJECT_ARRAY);
+			this.out.writeUTF(a.getClass().getComponentType().getName());
+			this.out.writeInt(a.length);
+			for(Object d: a) {
+				this.writeValue(d);
+			}
+		}
+		else if(v instanceof Model) {
+			this.out.writeByte(MODEL);
+		}
+		else if(v instanceof ContinuousSpace) {
+			this.out.writeByte(SPACE);
+		}
+		else if(v instanceof Illness) {
+			this.out.writeByte(ILLNESS);
+			this.out.writeInt(((Illness) v).id);
+		}
+		else if(v instanceof Treatment) {
+			int[] t = this.treatments.get(v);
+			if(t==null) {
+				System.out.printf("ERROR: the treatment %s is not part of an illness and cannot be saved\n", ((Treatment) v).description);
+				System.exit(1);
+			}
+			this.out.writeByte(TREATMENT);
+			this.out.writeInt(t[0]);
+			this.out.writeInt(t[1]);
+		}
+		else if(entityClass(v)>=0) {
+			this.out.writeByte(ENTITY);
+			this.out.writeByte(entityClass(v));
+			this.out.writeInt(this.register(v));
+		}
+		else if(v instanceof Collection) {
+			Collection<?> c = (Collection<?>) v;
+			this.out.writeByte(COLLECTION);
+			this.out.writeUTF(v.getClass().getName());
+			this.out.writeInt(c.size());
+			for(Object e: c) {
+				this.writeValue(e);
+			}
+		}
+		else if(v instanceof Map) {
+			Map<?,?> m = (Map<?,?>) v;
+			this.out.writeByte(MAP);
+			this.out.writeUTF(v.getClass().getName());
+			this.out.writeInt(m.size());
+			for(Map.Entry<?,?> e: m.entrySet()) {
+				this.writeValue(e.getKey());
+				this.writeValue(e.getValue());
+			}
+		}
+		else {
+			System.out.printf("ERROR: the checkpoint cannot save objects of class %s\n", v.getClass().getName());
+			System.exit(1);
+		}
+	}
+
+
+	// READ
+	private int read(Context<Object> context) throws IOException, ClassNotFoundException {
+		if(!MAGIC.equals(this.in.readUTF()) || this.in.readInt()!=VERSION) {
+			System.out.println("ERROR: the file is not a checkpoint of this version of the model");
+			System.exit(1);
+		}
+		int tick = this.in.readInt();
+		String inputfolder = this.in.readUTF();
+		if(!inputfolder.equals(Model.getParameters().getString("inputfolder"))) {
+			System.out.printf("WARNING: the checkpoint was saved with the input folder [%s]\n", inputfolder);
+		}
+
+		// STATIC STATE OF THE MODEL (the counters are set at the end, since creating providers changes them)
+		int[] counters = new int[6];
+		for(int i = 0; i < counters.length; i++) {
+			counters[i] = this.in.readInt();
+		}
+		Model.currentYearStart = this.in.readInt();
+		Object[] hce = cast(this.readValue());
+		Model.HCE = new ExpenditureStats[hce.length/2][2];
+		for(int i = 0; i < Model.HCE.length; i++) {
+			for(int j = 0; j < 2; j++) {
+				Model.HCE[i][j] = new ExpenditureStats();
+				Model.HCE[i][j].load((Object[]) hce[2*i+j]);
+			}
+		}
+		Model.incidence = cast(this.readValue());
+		byte[] bytes = new byte[this.in.readInt()];
+		this.in.readFully(bytes);
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			Model.udist = (Random) ois.readObject();
+		}
+		Object[] patients = cast(this.readValue());
+		Object[] onsets = cast(this.readValue());
+		Object[] cohorts = cast(this.readValue());
+
+		// ENTITIES
+		int numInContext = this.in.readInt();
+		ArrayList<double[]> locations = new ArrayList<double[]>();
+		for(int i = 0; this.in.readBoolean(); i++) {
+			Object o = this.entity(this.in.readByte(), i);
+			locations.add(this.in.readBoolean() ? new double[] {this.in.readDouble(), this.in.readDouble()} : null);
+
+			int numFields = this.in.readInt();
+			for(int j = 0; j < numFields; j++) {
+				String name = this.in.readUTF();
+				Object value = this.readValue();
+				Field f = findField(o.getClass(), name);
+				if(f==null) {
+					System.out.printf("WARNING: %s.%s does not exist anymore, the saved value was ignored\n", o.getClass().getSimpleName(), name);
+					continue;
+				}
+				try {
+					f.set(o, value);
+				}
+				catch (IllegalAccessException | IllegalArgumentException e) {
+					System.out.printf("ERROR: could not restore %s.%s\n", o.getClass().getSimpleName(), name);
+					System.exit(1);
+				}
+			}
+		}
+
+		// ADD THE AGENTS TO THE CONTEXT
+		for(Illness ill: Model.listIllnesses) {
+			context.add(ill);
+		}
+		for(int i = 0; i < numInContext; i++) {
+			Object o = this.restored.get(i);
+			context.add(o);
+			double[] pt = locations.get(i);
+			if(pt!=null) {
+				this.space.moveTo(o, pt);
+			}
+		}
+		// A state saved by the headless TickEngine has no medical conditions and contracts in the context (see Model.detailsInContext)
+		if(Model.detailsInContext) {
+			for(Object o: this.restored) {
+				Object owner = o instanceof MedicalCondition ? ((MedicalCondition) o).patient : o instanceof HealthInsurance ? ((HealthInsurance) o).insuree : null;
+				if(owner!=null && context.contains(owner) && !context.contains(o)) {
+					context.add(o);
+				}
+			}
+		}
+
+		Model.counterInsurance.set(counters[0]);
+		Model.counterIllness.set(counters[1]);
+		Model.counterPatients.set(counters[2]);
+		Model.counterProviders = counters[3];
+		Model.counterMedConditions.set(counters[4]);
+		Model.counterHIPlans.set(counters[5]);
+
+		Model.patients.load(patients);
+		Model.patients.space = space;
+
+		// Scheduled onsets (if the run has no event-driven onset, they are ignored; if the saved run had none, the Initialiser schedules them)
+		if(Model.onsets!=null && onsets!=null) {
+			Model.onsets.load(onsets);
+		}
+		// Lists of the onset by cohort (the Initialiser adds the patients that are in no list)
+		if(Model.cohorts!=null && cohorts!=null) {
+			Model.cohorts.load(cohorts);
+		}
+		return tick;
+	}
+
+	/** Returns the entity with the given index, creating an empty object if it was not yet referred to */
+	private Object entity(int classCode, int i) {
+		while(this.restored.size()<=i) {
+			this.restored.add(null);
+		}
+		Object o = this.restored.get(i);
+		if(o==null) {
+			Class<?> c = ENTITY_CLASSES[classCode];
+			if(c==Provider.class) {
+				// The instance variables are overwritten by the saved values
+				o = new Provider(0, 0, 0, 0, false, this.space, 0);
+			}
+			else {
+				try {
+					Constructor<?> k = c.getDeclaredConstructor();
+					k.setAccessible(true);
+					o = k.newInstance();
+				}
+				catch (ReflectiveOperationException e) {
+					System.out.printf("ERROR: %s has no empty constructor for the checkpoint\n", c.getSimpleName());
+					System.exit(1);
+				}
+			}
+			this.restored.set(i, o);
+		}
+		return o;
+	}
+
+	private Object readValue() throws IOException {
+		byte tag = this.in.readByte();
+		switch(tag) {
+		case NULL:		return null;
+		case INT:		return this.in.readInt();
+		case DOUBLE:	return this.in.readDouble();
+		case BOOLEAN:	return this.in.readBoolean();
+		case STRING:	return this.in.readUTF();
+		case LONG:		return this.in.readLong();
+		case FLOAT:		return this.in.readFloat();
+		case ENUM: {
+			String type = this.in.readUTF();
+			String name = this.in.readUTF();
+			return enumValue(forName(type), name);
+		}
+		case DOUBLE_ARRAY: {
+			double[] a = new double[this.in.readInt()];
+			for(int i = 0; i < a.length; i++) {
+				a[i] = this.in.readDouble();
+			}
+			return a;
+		}
+		case INT_ARRAY: {
+			int[] a = new int[this.in.readInt()];
+			for(int i = 0; i < a.length; i++) {
+				a[i] = this.in.readInt();
+			}
+			return a;
+		}
+		case LONG_ARRAY: {
+			long[] a = new long[this.in.readInt()];
+			for(int i = 0; i < a.length; i++) {
+				a[i] = this.in.readLong();
+			}
+			return a;
+		}
+		case BOOLEAN_ARRAY: {
+			boolean[] a = new boolean[this.in.readInt()];
+			for(int i = 0; i < a.length; i++) {
+				a[i] = this.in.readBoolean();
+			}
+			return a;
+		}
+		case OBJECT_ARRAY: {
+			Class<?> type = forName(this.in.readUTF());
+			Object[] a = (Object[]) Array.newInstance(type, this.in.readInt());
+			for(int i = 0; i < a.length; i++) {
+				a[i] = this.readValue();
+			}
+			return a;
+		}
+		case MODEL: {
+			for(Object o: Model.context.getObjects(Model.class)) {
+				return o;
+			}
+			return null;
+		}
+		case SPACE:		return this.space;
+		case ILLNESS:	return this.illness(this.in.readInt());
+		case TREATMENT: {
+			Illness ill = this.illness(this.in.readInt());
+			return ill.treatments.get(this.in.readInt());
+		}
+		case ENTITY: {
+			int classCode = this.in.readByte();
+			return this.entity(classCode, this.in.readInt());
+		}
+		case COLLECTION: {
+			Collection<Object> c = cast(newInstance(this.in.readUTF()));
+			int size = this.in.readInt();
+			for(int i = 0; i < size; i++) {
+				c.add(this.readValue());
+			}
+			return c;
+		}
+		case MAP: {
+			Map<Object,Object> m = cast(newInstance(this.in.readUTF()));
+			int size = this.in.readInt();
+			for(int i = 0; i < size; i++) {
+				Object key = this.readValue();
+				m.put(key, this.readValue());
+			}
+			return m;
+		}
+		default:
+			System.out.printf("ERROR: unknown value in the checkpoint (%s)\n", tag);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	private Illness illness(int id) {
+		Illness ill = this.illnesses.get(id);
+		if(ill==null) {
+			System.out.printf("ERROR: the checkpoint refers to the illness %s, which is not in the input files\n", id);
+			System.exit(1);
+		}
+		return ill;
+	}
+
+
+	// HELPERS
+	/** @return the position of the class of the object in {@link #ENTITY_CLASSES}, -1 if it is not an entity */
+	private static int entityClass(Object o) {
+		for(int i = 0; i < ENTITY_CLASSES.length; i++) {
+			if(ENTITY_CLASSES[i]==o.getClass()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Returns all instance variables of a class, including those of its super classes */
+	private static synchronized Field[] fieldsOf(Class<?> type) {
+		Field[] result = fields.get(type);
+		if(result==null) {
+			ArrayList<Field> list = new ArrayList<Field>();
+			for(Class<?> c = type; c!=Object.class; c = c.getSuperclass()) {
+				for(Field f: c.getDeclaredFields()) {
+					if(!Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers()) && !f.isSynthetic()) {
+						f.setAccessible(true);
+						list.add(f);
+					}
+				}
+			}
+			result = list.toArray(new Field[list.size()]);
+			fields.put(type, result);
+		}
+		return result;
+	}
+
+	private static Field findField(Class<?> type, String name) {
+		for(Field f: fieldsOf(type)) {
+			if(f.getName().equals(name)) {
+				return f;
+			}
+		}
+		return null;
+	}
+
+	private static Class<?> forName(String name) {
+		try {
+			return Class.forName(name);
+		}
+		catch (ClassNotFoundException e) {
+			System.out.printf("ERROR: the checkpoint contains the unknown class %s\n", name);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	private static Object newInstance(String className) {
+		try {
+			return forName(className).getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			System.out.printf("ERROR: could not create an object of class %s\n", className);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object enumValue(Class<?> type, String name) {
+		return Enum.valueOf((Class<? extends Enum>) type, name);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T cast(Object o) {
+		return (T) o;
+	}
+
+
+	// PARAMETERS
+	/**
+	 * @param params Parameters of the run
+	 * @return the tick after which the state is saved (parameter checkpointTick, -1 if not defined)
+	 */
+	public static int getCheckpointTick(Parameters params) {
+		try {
+			return params.getInteger("checkpointTick");
+		}
+		catch(IllegalParameterException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return the file for the saved state (parameter checkpointFile)
+	 */
+	public static String getCheckpointFile(Parameters params) {
+		try {
+			return params.getString("checkpointFile");
+		}
+		catch(IllegalParameterException e) {
+			return "freezedried_data/checkpoint.gz";
+		}
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return the state to be restored by the {@link Initialiser} (parameter initialState), null if a new population must be created
+	 */
+	public static String getInitialState(Parameters params) {
+		String file = null;
+		try {
+			file = params.getString("initialState");
+		}
+		catch(IllegalParameterException e) {
+
+		}
+		return file==null || file.trim().isEmpty() ? null : file.trim();
+	}
+}
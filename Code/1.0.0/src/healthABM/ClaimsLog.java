@@ -0,0 +1,240 @@
+package healthABM;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Claim-level log of a run (parameter <i>claimsLogFile</i>, default: empty = no log): one record per claim paid by a health insurance
+ * ({@link HealthInsurance#getReimbursement(double, boolean, byte)}) with the tick, the IDs of the contract, the plan and the patient, the claim,
+ * the reimbursement and the category of the claim ({@link #CONSULTATION}, or {@link #TREATMENT} + the ordinal of the {@link TreatmentType}).<br>
+ * The records are kept in columns (primitive arrays) of {@link #CHUNK_SIZE} records. A full chunk is written to the file by a background thread
+ * while the next chunk is filled, hence the memory of the log is fixed (two chunks, about 3 MB each) and does not depend on the length of the run.
+ * If the writer is slower than the model, the model waits for the chunk that is being written.<br>
+ * File format (big-endian): header {@link #MAGIC} (UTF-8, prefixed by its length as a short) and version (int), then for each chunk the number
+ * of records n (int) followed by the columns: n ints tick, n ints contract ID, n ints plan ID, n ints patient ID, n floats claim,
+ * n floats reimbursement and n bytes category.
+ */
+public class ClaimsLog {
+
+	/** Number of records per chunk */
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	/** Bytes per record in the file */
+	private static final int RECORD_BYTES = 4*4 + 4*2 + 1;
+
+	/** Category of a claim: consultation */
+	public static final byte CONSULTATION = 0;
+	/** Category of a claim: treatment (the category is TREATMENT + ordinal of the {@link TreatmentType})*/
+	public static final byte TREATMENT = 1;
+
+	private static final String MAGIC = "HealthABM-claims";
+	private static final int VERSION = 1;
+
+	/** Name of the file */
+	private final String file;
+	private final FileChannel channel;
+
+	/** Background thread that writes the full chunks */
+	private final ExecutorService writer;
+	/** Chunk being written (null if there is none) */
+	private Future<?> pending;
+
+	/** Chunk being filled, and the other chunk (free when {@link #pending} is done) */
+	private Chunk current;
+	private Chunk spare;
+
+	private boolean closed;
+
+
+	/**
+	 * Creates the file of the log (an existing file is replaced)
+	 * @param file name of the file
+	 */
+	public ClaimsLog(String file) {
+		this.file = file;
+		FileChannel ch = null;
+		try {
+			ch = new FileOutputStream(file).getChannel();
+			byte[] magic = MAGIC.getBytes("UTF-8");
+			ByteBuffer header = ByteBuffer.allocate(2 + magic.length + 4);
+			header.putShort((short) magic.length).put(magic).putInt(VERSION);
+			header.flip();
+			while(header.hasRemaining()) {
+				ch.write(header);
+			}
+		}
+		catch (IOException e) {
+			System.out.printf("Sorry, I could not create the claims log [%s]\n", file);
+			System.exit(1);
+		}
+		this.channel = ch;
+		this.writer = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "claims-log");
+			t.setDaemon(true);
+			return t;
+		});
+		this.current = new Chunk();
+		this.spare = new Chunk();
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return file of the claims log (parameter claimsLogFile), null: no log
+	 */
+	public static String getFile(Parameters params) {
+		try {
+			String file = params.getString("claimsLogFile");
+			return file==null || file.trim().isEmpty() ? null : file.trim();
+		}
+		catch(IllegalParameterException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Gives each run of a runner its own claims log: claims.bin becomes claims_<i>run</i>.bin (nothing changes if there is no log)
+	 * @param params Parameters of the run (changed)
+	 * @param run number of the run
+	 */
+	public static void setRun(Parameters params, int run) {
+		String file = getFile(params);
+		if(file==null) {
+			return;
+		}
+		int dot = file.lastIndexOf('.');
+		if(dot<=Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\'))) {
+			dot = file.length();
+		}
+		params.setValue("claimsLogFile", file.substring(0, dot) + "_" + run + file.substring(dot));
+	}
+
+	/**
+	 * Adds a claim
+	 * @param tick current tick
+	 * @param ins contract that pays the claim
+	 * @param claim amount of the claim
+	 * @param reimbursement reimbursement of the claim
+	 * @param category category of the claim ({@link #CONSULTATION} or {@link #TREATMENT} + ordinal of the treatment type)
+	 */
+	public synchronized void add(int tick, HealthInsurance ins, double claim, double reimbursement, byte category) {
+		if(this.closed) {
+			return;
+		}
+		Chunk c = this.current;
+		int n = c.size++;
+		c.tick[n] 			= tick;
+		c.contract[n] 		= ins.ID;
+		c.plan[n] 			= ins.assocHIPlan.ID;
+		c.patient[n] 		= ins.insuree.ID;
+		c.claim[n] 			= (float) claim;
+		c.reimbursement[n] 	= (float) reimbursement;
+		c.category[n] 		= category;
+		if(c.size==CHUNK_SIZE) {
+			this.flush();
+		}
+	}
+
+	/** Writes the remaining records, waits until all chunks are written and closes the file */
+	public synchronized void close() {
+		if(this.closed) {
+			return;
+		}
+		this.flush();
+		this.await();
+		this.writer.shutdown();
+		try {
+			this.channel.close();
+		}
+		catch (IOException e) {
+			System.out.printf("Sorry, I could not close the claims log [%s]\n", this.file);
+			System.exit(1);
+		}
+		this.closed = true;
+	}
+
+	/** Hands the current chunk to the writer (after the previous chunk is written) and continues with the other chunk */
+	private void flush() {
+		if(this.current.size==0) {
+			return;
+		}
+		this.await();
+		final Chunk full = this.current;
+		this.current = this.spare;
+		this.spare = full;
+		this.pending = this.writer.submit(() -> this.write(full));
+	}
+
+	/** Waits until the chunk that is being written is done */
+	private void await() {
+		if(this.pending==null) {
+			return;
+		}
+		try {
+			this.pending.get();
+		}
+		catch (Exception e) {
+			System.out.printf("Sorry, I could not write the claims log [%s]\n", this.file);
+			System.exit(1);
+		}
+		this.pending = null;
+	}
+
+	/** Writes a chunk (column by column) and empties it (background thread) */
+	private void write(Chunk c) {
+		ByteBuffer b = c.buffer;
+		b.clear();
+		b.putInt(c.size);
+		for(int i = 0; i < c.size; i++) {
+			b.putInt(c.tick[i]);
+		}
+		for(int i = 0; i < c.size; i++) {
+			b.putInt(c.contract[i]);
+		}
+		for(int i = 0; i < c.size; i++) {
+			b.putInt(c.plan[i]);
+		}
+		for(int i = 0; i < c.size; i++) {
+			b.putInt(c.patient[i]);
+		}
+		for(int i = 0; i < c.size; i++) {
+			b.putFloat(c.claim[i]);
+		}
+		for(int i = 0; i < c.size; i++) {
+			b.putFloat(c.reimbursement[i]);
+		}
+		b.put(c.category, 0, c.size);
+		b.flip();
+		try {
+			while(b.hasRemaining()) {
+				this.channel.write(b);
+			}
+		}
+		catch (IOException e) {
+			System.out.printf("Sorry, I could not write the claims log [%s]\n", this.file);
+			System.exit(1);
+		}
+		c.size = 0;
+	}
+
+	/** Columns of {@link #CHUNK_SIZE} records, and the buffer to write them */
+	private static class Chunk {
+		final int[] tick 				= new int[CHUNK_SIZE];
+		final int[] contract 			= new int[CHUNK_SIZE];
+		final int[] plan 				= new int[CHUNK_SIZE];
+		final int[] patient 			= new int[CHUNK_SIZE];
+		final float[] claim 			= new float[CHUNK_SIZE];
+		final float[] reimbursement 	= new float[CHUNK_SIZE];
+		final byte[] category 			= new byte[CHUNK_SIZE];
+		final ByteBuffer buffer 		= ByteBuffer.allocateDirect(4 + CHUNK_SIZE*RECORD_BYTES);
+		/** Number of records */
+		int size;
+	}
+}
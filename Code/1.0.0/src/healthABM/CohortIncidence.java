@@ -0,0 +1,248 @@
+package healthABM;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Onset of illnesses by cohort (parameter incidenceMode=cohort), for large populations. Instead of one trial per patient, illness and week
+ * in {@link Patient#stepGetSick()}, the patients who do not have an illness are grouped by gender and age in years (cohort). In each tick the
+ * number of new cases of each cohort and illness is drawn from a binomial distribution with the weekly probability of {@link Model#incidenceRates},
+ * and that many patients of the cohort are picked at random ({@link Model#stepIllnessOnsets()}). The number of new cases and the patients
+ * who get sick have the same distribution as in the weekly trials (but not the same random draws).<br>
+ * The lists of susceptible patients are updated when a patient:
+ * <ul>
+ * 	<li>gets sick (the patient is removed from the list of the illness)</li>
+ * 	<li>is cured or has a birthday ({@link #markDirty(Patient)}, the lists are updated before the onsets of the next {@link #processTick(int)})</li>
+ * 	<li>dies ({@link #remove(Patient)}) or is created ({@link #add(Patient)})</li>
+ * </ul>
+ * The changed patients are updated in the order of their ID, hence the lists (and the draws) do not depend on the order of the calls in the
+ * parallel phases of the {@link TickEngine}.
+ */
+public class CohortIncidence {
+
+	/** Number of illnesses ({@link Illness#index})*/
+	private final int numIllnesses;
+
+	/** Susceptible patients of each cohort and illness, index: (gender*{@link IllnessRates#MAX_AGE} + age)*numIllnesses + illness index */
+	private final Patient[][] lists;
+	private final int[] sizes;
+
+	/** Patients whose lists must be updated */
+	private final ArrayList<Patient> dirty = new ArrayList<Patient>();
+
+
+	public CohortIncidence() {
+		this.numIllnesses = Model.incidenceRates.illnesses.length;
+		this.lists = new Patient[2*IllnessRates.MAX_AGE*this.numIllnesses][];
+		this.sizes = new int[this.lists.length];
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return TRUE if the onset of illnesses is drawn by cohort (parameter incidenceMode=cohort, default: weekly)
+	 */
+	public static boolean isCohortMode(Parameters params) {
+		try {
+			String mode = params.getString("incidenceMode");
+			return mode!=null && mode.trim().equalsIgnoreCase("cohort");
+		}
+		catch(IllegalParameterException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a new patient (to the lists of all illnesses the patient does not have, at the next {@link #processTick(int)})
+	 * @param p Patient
+	 */
+	public synchronized void add(Patient p) {
+		if(p.cohortPos==null) {
+			p.cohortPos = new int[this.numIllnesses];
+			Arrays.fill(p.cohortPos, -1);
+			p.cohortCell = -1;
+		}
+		this.markDirty(p);
+	}
+
+	/**
+	 * Removes a patient from all lists (e.g. when the patient dies)
+	 * @param p Patient
+	 */
+	public synchronized void remove(Patient p) {
+		if(p.cohortPos==null) {
+			return;
+		}
+		for(int k = 0; k < this.numIllnesses; k++) {
+			if(p.cohortPos[k]>=0) {
+				this.removeAt(p.cohortCell*this.numIllnesses + k, p.cohortPos[k], k);
+			}
+		}
+		p.cohortPos = null;
+		p.cohortCell = -1;
+	}
+
+	/**
+	 * Updates the lists of the patient before the next onsets (e.g. after a birthday or when the patient is cured)
+	 * @param p Patient
+	 */
+	public synchronized void markDirty(Patient p) {
+		if(p.cohortPos!=null && !p.cohortDirty) {
+			p.cohortDirty = true;
+			this.dirty.add(p);
+		}
+	}
+
+	/**
+	 * Updates the lists of the changed patients, then draws the new cases of all cohorts and illnesses of this tick
+	 * @param tick current tick
+	 */
+	public synchronized void processTick(int tick) {
+		Collections.sort(this.dirty, (a, b) -> Integer.compare(a.ID, b.ID));
+		for(Patient p: this.dirty) {
+			p.cohortDirty = false;
+			if(p.cohortPos!=null) {
+				this.update(p);
+			}
+		}
+		this.dirty.clear();
+
+		for(int gender = 0; gender < 2; gender++) {
+			for(int age = 0; age < IllnessRates.MAX_AGE; age++) {
+				int cell = gender*IllnessRates.MAX_AGE + age;
+				double[] rates = Model.incidenceRates.row(gender, age);
+				for(int k = 0; k < this.numIllnesses; k++) {
+					int list = cell*this.numIllnesses + k;
+					if(rates[k]<=0 || this.sizes[list]==0) {
+						continue;
+					}
+					long index = (long) k << 32;
+					int cases = binomial(this.sizes[list], rates[k], cell, tick, index);
+					Illness illness = Model.incidenceRates.illness(k);
+					for(int j = 0; j < cases; j++) {
+						// The remaining patients of the list are equally likely to be picked
+						int pos = RandomStreams.uniformInt(0, this.sizes[list]-1, cell, tick, RandomStreams.COHORT, index | (1L << 31) | j);
+						Patient p = this.lists[list][pos];
+						this.removeAt(list, pos, k);
+						p.medConditions.add(MedicalCondition.create(illness, illness.initialSeverity, p));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the lists (for the {@link Checkpoint})
+	 * @return {list index, susceptible patients} for all lists that are not empty, followed by the changed patients
+	 */
+	Object[] save() {
+		ArrayList<Object> saved = new ArrayList<Object>();
+		for(int i = 0; i < this.lists.length; i++) {
+			if(this.sizes[i]>0) {
+				saved.add(new Object[] {i, Arrays.copyOf(this.lists[i], this.sizes[i])});
+			}
+		}
+		saved.add(this.dirty.toArray(new Patient[this.dirty.size()]));
+		return saved.toArray();
+	}
+
+	/**
+	 * Restores the lists saved by {@link #save()}. The patients that are in no list are added by the {@link Initialiser} ({@link #add(Patient)}).
+	 * @param saved saved lists
+	 */
+	void load(Object[] saved) {
+		for(int s = 0; s < saved.length-1; s++) {
+			Object[] e = (Object[]) saved[s];
+			int i = (Integer) e[0];
+			Object[] patients = (Object[]) e[1];
+			this.lists[i] = new Patient[Math.max(16, patients.length)];
+			this.sizes[i] = patients.length;
+			for(int j = 0; j < patients.length; j++) {
+				Patient p = (Patient) patients[j];
+				if(p.cohortPos==null) {
+					p.cohortPos = new int[this.numIllnesses];
+					Arrays.fill(p.cohortPos, -1);
+				}
+				p.cohortPos[i%this.numIllnesses] = j;
+				p.cohortCell = i/this.numIllnesses;
+				this.lists[i][j] = p;
+			}
+		}
+		for(Object o: (Object[]) saved[saved.length-1]) {
+			this.markDirty((Patient) o);
+		}
+	}
+
+	/** Puts the patient in the lists of its current cohort for all illnesses it does not have */
+	private void update(Patient p) {
+		int age = p.getAge()/52;
+		int cell = age<IllnessRates.MAX_AGE ? p.genderToInteger()*IllnessRates.MAX_AGE + age : -1;
+		boolean[] has = new boolean[this.numIllnesses];
+		for(MedicalCondition mc: p.medConditions) {
+			has[mc.illness.index] = true;
+		}
+		for(int k = 0; k < this.numIllnesses; k++) {
+			if(p.cohortPos[k]>=0 && (p.cohortCell!=cell || has[k])) {
+				this.removeAt(p.cohortCell*this.numIllnesses + k, p.cohortPos[k], k);
+			}
+		}
+		p.cohortCell = cell;
+		if(cell<0) {
+			return;
+		}
+		for(int k = 0; k < this.numIllnesses; k++) {
+			if(!has[k] && p.cohortPos[k]<0) {
+				int list = cell*this.numIllnesses + k;
+				if(this.lists[list]==null) {
+					this.lists[list] = new Patient[16];
+				}
+				else if(this.sizes[list]==this.lists[list].length) {
+					this.lists[list] = Arrays.copyOf(this.lists[list], 2*this.sizes[list]);
+				}
+				p.cohortPos[k] = this.sizes[list];
+				this.lists[list][this.sizes[list]++] = p;
+			}
+		}
+	}
+
+	/** Removes the patient at position pos of a list (the last patient of the list takes its position) */
+	private void removeAt(int list, int pos, int k) {
+		Patient[] l = this.lists[list];
+		l[pos].cohortPos[k] = -1;
+		int last = --this.sizes[list];
+		if(pos<last) {
+			l[pos] = l[last];
+			l[pos].cohortPos[k] = pos;
+		}
+		l[last] = null;
+	}
+
+	/**
+	 * Draws a binomial number by inversion of the distribution function (one uniform number per block of patients with at most 500 expected
+	 * cases, so that the probability of 0 cases does not vanish)
+	 */
+	private static int binomial(int n, double p, int cell, int tick, long index) {
+		if(p>=1) {
+			return n;
+		}
+		int block = (int) Math.max(1, Math.min(n, 500/p));
+		int cases = 0;
+		for(int start = 0, b = 0; start < n; start += block, b++) {
+			int m = Math.min(block, n-start);
+			double u = RandomStreams.uniform(cell, tick, RandomStreams.COHORT, index | b);
+			double f = Math.pow(1-p, m);
+			double cdf = f;
+			int k = 0;
+			while(u>cdf && k<m) {
+				f *= (m-k)/(k+1.0)*p/(1-p);
+				k++;
+				cdf += f;
+			}
+			cases += k;
+		}
+		return cases;
+	}
+}
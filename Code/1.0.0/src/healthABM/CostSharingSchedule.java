@@ -0,0 +1,140 @@
+package healthABM;
+
+/**
+ * Cost sharing of a health insurance (deductible, co-payment rate and stop-loss or stop-claim), compiled once per {@link HIPlan} into a
+ * piecewise-linear function of the claims of the year. The cumulative reimbursement for claims x has three segments:
+ * <ol>
+ * 	<li>x &lt;= bp1 (deductible): no reimbursement</li>
+ * 	<li>bp1 &lt; x &lt; bp2: the claims above the deductible are reimbursed at 1-copaymentRate</li>
+ * 	<li>x &gt;= bp2: with a stop-loss, all further claims are reimbursed; with a stop-claim, none</li>
+ * </ol>
+ * The reimbursement of a claim is the difference of the cumulative reimbursement before and after the claim, and the budget
+ * ({@link #getBudget(double, double)}) is the inverse of the out-of-pocket payments (claims - reimbursement). Without stop-loss and stop-claim,
+ * bp2 is the "no limit" value given to the constructor: the plans use +infinity ({@link HIPlan#getSchedule()}), the contracts
+ * {@link #UNLIMITED} ({@link HIPlan#getContractSchedule()}), as before the schedule existed. The schedule is immutable and shared by the plan
+ * and its contracts ({@link HealthInsurance}); if the plan changes, it is compiled again ({@link HIPlan#costSharingChanged()}).
+ */
+public final class CostSharingSchedule {
+
+	/** "No limit" of the contracts: bp2 without stop-loss and stop-claim, and budget if the stop-loss is reached (see {@link HealthInsurance#getBudget(double)}) */
+	public static final double UNLIMITED = 999999999;
+
+	/** Breakpoints on the axis of the claims: deductible and claims at which the stop-loss or stop-claim is reached */
+	private final double bp1, bp2;
+
+	/** Co-payment rate between bp1 and bp2 */
+	private final double copaymentRate;
+
+	/** Reimbursed share of the claims between bp1 and bp2, and above bp2 */
+	private final double share, tailShare;
+
+	/** Out-of-pocket payments at bp2 */
+	private final double oop2;
+
+
+	/**
+	 * Schedule without limit (bp2 = +infinity) if there is neither stop-loss nor stop-claim
+	 * @param deductible 	deductible
+	 * @param copaymentRate co-payment rate (for 5%, put 0.05)
+	 * @param stopLoss 		stop-loss (maximum out-of-pocket payment, deductible included), 0 if none
+	 * @param stopClaim 	stop-claim (maximum reimbursement), 0 if none
+	 */
+	public CostSharingSchedule(double deductible, double copaymentRate, int stopLoss, int stopClaim) {
+		this(deductible, copaymentRate, stopLoss, stopClaim, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param deductible 	deductible
+	 * @param copaymentRate co-payment rate (for 5%, put 0.05)
+	 * @param stopLoss 		stop-loss (maximum out-of-pocket payment, deductible included), 0 if none
+	 * @param stopClaim 	stop-claim (maximum reimbursement), 0 if none
+	 * @param noLimit 		bp2 if there is neither stop-loss nor stop-claim (+infinity or {@link #UNLIMITED})
+	 */
+	public CostSharingSchedule(double deductible, double copaymentRate, int stopLoss, int stopClaim, double noLimit) {
+		double bp2;
+		if(stopLoss!=0) {
+			bp2 = deductible + (stopLoss - deductible) / copaymentRate;
+		}
+		else if(stopClaim!=0) {
+			bp2 = deductible + stopClaim / (1 - copaymentRate);
+		}
+		else {
+			bp2 = noLimit;
+		}
+		if(Double.isNaN(bp2)) {
+			bp2 = deductible;	// stop-loss at the deductible without co-payment
+		}
+		this.bp1 			= deductible;
+		this.bp2 			= Math.max(deductible, bp2);
+		this.copaymentRate 	= copaymentRate;
+		this.share 			= 1 - copaymentRate;
+		this.tailShare 		= stopLoss!=0 ? 1.0 : 0.0;
+		this.oop2 			= this.bp2==Double.POSITIVE_INFINITY ? Double.POSITIVE_INFINITY : this.bp1 + copaymentRate * (this.bp2 - this.bp1);
+	}
+
+	/**
+	 * Returns the reimbursement of a claim
+	 * @param claimsYTD claims of the year before this claim
+	 * @param claim 	amount of the claim
+	 * @return reimbursement
+	 */
+	public double getReimbursement(double claimsYTD, double claim) {
+		return this.cumulative(claimsYTD + claim) - this.cumulative(claimsYTD);
+	}
+
+	/**
+	 * Returns the maximum amount of claims such that the out-of-pocket payments do not exceed maxOOP, i.e. maxOOP + reimbursement
+	 * @param claimsYTD claims of the year
+	 * @param maxOOP 	maximum amount the patient can pay out-of-pocket
+	 * @return budget, {@link #UNLIMITED} if the out-of-pocket payments cannot reach maxOOP
+	 */
+	public double getBudget(double claimsYTD, double maxOOP) {
+		double target = claimsYTD - this.cumulative(claimsYTD) + maxOOP;	// out-of-pocket payments of the year at the end
+		double claims;
+		if(target<=this.bp1) {
+			claims = target;
+		}
+		else if(target<this.oop2) {
+			if(this.copaymentRate<=0) {
+				return UNLIMITED;
+			}
+			claims = this.bp1 + (target - this.bp1) / this.copaymentRate;
+		}
+		else {
+			if(this.tailShare==1.0) {
+				return UNLIMITED;
+			}
+			claims = this.bp2 + (target - this.oop2);
+		}
+		return claims - claimsYTD;
+	}
+
+	/**
+	 * @param claims claims of the year
+	 * @return out-of-pocket payments for these claims (claims - reimbursement)
+	 */
+	double getOutOfPocket(double claims) {
+		return claims - this.getReimbursement(0.0, claims);
+	}
+
+	/**
+	 * @param claims claims of the year
+	 * @return increase of the out-of-pocket payments per unit of claims just above these claims
+	 */
+	double getOutOfPocketSlope(double claims) {
+		if(claims<this.bp1) {
+			return 1.0;
+		}
+		return claims<this.bp2 ? this.copaymentRate : 1.0 - this.tailShare;
+	}
+
+	/** @return breakpoints on the axis of the claims {bp1, bp2} (bp2 can be infinite)*/
+	double[] getBreakpoints() {
+		return new double[] {this.bp1, this.bp2};
+	}
+
+	/** Cumulative reimbursement for claims x */
+	private double cumulative(double x) {
+		return this.share * (Math.min(Math.max(x, this.bp1), this.bp2) - this.bp1) + this.tailShare * Math.max(0.0, x - this.bp2);
+	}
+}
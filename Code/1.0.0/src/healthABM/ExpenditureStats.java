@@ -0,0 +1,307 @@
+package healthABM;
+
+import java.util.Arrays;
+
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Streaming statistics of the health care expenditures of one age/gender group (see {@link Model#updateGlobalLogExpenditures()}): mean and
+ * variance (Welford) and a quantile sketch with logarithmic buckets. The sketch returns quantiles with a relative error of at most
+ * {@link #ACCURACY}, with a memory that only depends on the range of the values (not on their number).<br>
+ * The statistics either include all values since the start of the run, or only the values of the last ticks (parameter expenditureWindow, see
+ * {@link #nextTick()}): then the values of the window are kept in a ring buffer and subtracted when they expire, so memory and time do not
+ * grow with the length of the run.<br>
+ * Two sketches can be merged (e.g. partial statistics computed by several threads). The values of the last call of {@link #publish()} are
+ * read in constant time by {@link Model#getAvgExpenPop(int, int)}, {@link Model#getVarianceExpenPop(int, int)} and {@link Model#getP95ExpenPop(int, int)}.
+ */
+public class ExpenditureStats {
+
+	/** Relative accuracy of the quantiles */
+	public static final double ACCURACY = 0.01;
+
+	private static final double GAMMA = (1+ACCURACY)/(1-ACCURACY);
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	/** Values below this limit (including zero and negative values) are counted as zero */
+	private static final double MIN_VALUE = 1e-9;
+
+	// WELFORD
+	private long n;
+	private double mean;
+	private double m2;
+
+	// SKETCH
+	/** Number of values in each bucket: bucket i contains the values in (GAMMA^(i-1), GAMMA^i], i = offset + position in the array */
+	private long[] counts = new long[0];
+	private int offset;
+	/** Number of values counted as zero */
+	private long zeros;
+
+	// WINDOW
+	/** Number of ticks in the window (0: all values since the start of the run)*/
+	private int window;
+	/** Values of the window (ring buffer, oldest first) */
+	private double[] values = new double[0];
+	private int first;
+	private int numValues;
+	/** Number of values added in each tick of the window (ring buffer) */
+	private int[] perTick;
+	/** Position of the current tick in perTick */
+	private int current = -1;
+	private int numTicks;
+
+	// PUBLISHED VALUES
+	private double publishedMean;
+	private double publishedVariance;
+	private double publishedP95;
+
+
+	/** Statistics of all values since the start of the run */
+	public ExpenditureStats() {
+		this(0);
+	}
+
+	/**
+	 * @param window number of ticks in the window (0: all values since the start of the run)
+	 */
+	public ExpenditureStats(int window) {
+		this.window = Math.max(0, window);
+		this.perTick = new int[this.window];
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return number of ticks in the window of the statistics (parameter expenditureWindow, default: 0 = all ticks)
+	 */
+	public static int getWindow(Parameters params) {
+		int window = 0;
+		try {
+			window = params.getInteger("expenditureWindow");
+		}
+		catch(IllegalParameterException e) {
+
+		}
+		return Math.max(0, window);
+	}
+
+	/**
+	 * Starts a new tick: the values of the oldest tick of the window are removed (nothing happens if there is no window).
+	 * To be called once per tick before the values of the tick are added.
+	 */
+	public void nextTick() {
+		if(this.window==0) {
+			return;
+		}
+		this.current = (this.current+1)%this.window;
+		if(this.numTicks==this.window) {
+			for(int k = this.perTick[this.current]; k > 0; k--) {
+				this.remove(this.values[this.first]);
+				this.first = (this.first+1)%this.values.length;
+				this.numValues--;
+			}
+		}
+		else {
+			this.numTicks++;
+		}
+		this.perTick[this.current] = 0;
+	}
+
+	/**
+	 * Adds a value
+	 * @param x expenditures of one patient
+	 */
+	public void add(double x) {
+		if(this.window>0) {
+			if(this.numTicks==0) {
+				this.nextTick();
+			}
+			if(this.numValues==this.values.length) {
+				double[] v = new double[Math.max(16, 2*this.numValues)];
+				for(int k = 0; k < this.numValues; k++) {
+					v[k] = this.values[(this.first+k)%this.values.length];
+				}
+				this.values = v;
+				this.first = 0;
+			}
+			this.values[(this.first+this.numValues)%this.values.length] = x;
+			this.numValues++;
+			this.perTick[this.current]++;
+		}
+
+		this.n++;
+		double delta = x - this.mean;
+		this.mean += delta/this.n;
+		this.m2 += delta*(x - this.mean);
+
+		if(x<MIN_VALUE) {
+			this.zeros++;
+		}
+		else {
+			int i = (int) Math.ceil(Math.log(x)/LOG_GAMMA);
+			this.bucket(i);
+			this.counts[i-this.offset]++;
+		}
+	}
+
+	/** Removes a value that has expired (inverse of the update of {@link #add(double)}) */
+	private void remove(double x) {
+		this.n--;
+		if(this.n==0) {
+			this.mean = 0.0;
+			this.m2 = 0.0;
+		}
+		else {
+			double delta = x - this.mean;
+			this.mean -= delta/this.n;
+			this.m2 = Math.max(0.0, this.m2 - delta*(x - this.mean));
+		}
+
+		if(x<MIN_VALUE) {
+			this.zeros--;
+		}
+		else {
+			this.counts[(int) Math.ceil(Math.log(x)/LOG_GAMMA) - this.offset]--;
+		}
+	}
+
+	/**
+	 * Adds all values of another group of values (the values of the window of the other group are not added to the window of this group)
+	 * @param other statistics of the other group (not changed)
+	 */
+	public void merge(ExpenditureStats other) {
+		if(other.n==0) {
+			return;
+		}
+		long total = this.n + other.n;
+		double delta = other.mean - this.mean;
+		this.m2 += other.m2 + delta*delta*this.n*other.n/total;
+		this.mean += delta*other.n/total;
+		this.n = total;
+
+		this.zeros += other.zeros;
+		if(other.counts.length>0) {
+			this.bucket(other.offset);
+			this.bucket(other.offset+other.counts.length-1);
+			for(int j = 0; j < other.counts.length; j++) {
+				this.counts[other.offset+j-this.offset] += other.counts[j];
+			}
+		}
+	}
+
+	/** @return number of values */
+	public long size() {
+		return this.n;
+	}
+
+	/** @return mean of all values */
+	public double getMean() {
+		return this.mean;
+	}
+
+	/** @return (sample) variance of all values, 0 if there are less than 2 values */
+	public double getVariance() {
+		return this.n>1 ? this.m2/(this.n-1) : 0.0;
+	}
+
+	/**
+	 * Returns the quantile q, i.e. (as the sorted list used before) the value at position floor(q*n) of the sorted values, with a relative error of
+	 * at most {@link #ACCURACY}
+	 * @param q quantile (e.g. 0.95)
+	 * @return the quantile, 0 if there are no values
+	 */
+	public double getQuantile(double q) {
+		if(this.n==0) {
+			return 0.0;
+		}
+		long rank = Math.min(this.n-1, (long) Math.floor(q*this.n));
+		long seen = this.zeros;
+		if(rank<seen) {
+			return 0.0;
+		}
+		for(int j = 0; j < this.counts.length; j++) {
+			seen += this.counts[j];
+			if(rank<seen) {
+				return 2*Math.pow(GAMMA, this.offset+j)/(GAMMA+1);
+			}
+		}
+		return 2*Math.pow(GAMMA, this.offset+this.counts.length-1)/(GAMMA+1);	// not reached
+	}
+
+	/** Stores the current mean, variance and 95th percentile, to be read by the getters of {@link Model} */
+	public void publish() {
+		this.publishedMean 		= this.getMean();
+		this.publishedVariance 	= this.getVariance();
+		this.publishedP95 		= this.getQuantile(0.95);
+	}
+
+	/** @return mean at the last {@link #publish()}*/
+	public double getPublishedMean() {
+		return this.publishedMean;
+	}
+
+	/** @return variance at the last {@link #publish()}*/
+	public double getPublishedVariance() {
+		return this.publishedVariance;
+	}
+
+	/** @return 95th percentile at the last {@link #publish()}*/
+	public double getPublishedP95() {
+		return this.publishedP95;
+	}
+
+	/** Makes sure that the bucket i exists */
+	private void bucket(int i) {
+		if(this.counts.length==0) {
+			this.counts = new long[16];
+			this.offset = i - 8;
+		}
+		else if(i<this.offset) {
+			int grow = Math.max(this.offset-i, this.counts.length/2);
+			long[] c = new long[this.counts.length+grow];
+			System.arraycopy(this.counts, 0, c, grow, this.counts.length);
+			this.counts = c;
+			this.offset -= grow;
+		}
+		else if(i>=this.offset+this.counts.length) {
+			int grow = Math.max(i-this.offset-this.counts.length+1, this.counts.length/2);
+			this.counts = Arrays.copyOf(this.counts, this.counts.length+grow);
+		}
+	}
+
+	/**
+	 * Returns the state (for the {@link Checkpoint})
+	 * @return {n, mean, m2, counts, offset, zeros, published mean, variance, p95, window, values, perTick, current, numTicks}
+	 */
+	Object[] save() {
+		double[] v = new double[this.numValues];
+		for(int k = 0; k < this.numValues; k++) {
+			v[k] = this.values[(this.first+k)%this.values.length];
+		}
+		return new Object[] {this.n, this.mean, this.m2, this.counts, this.offset, this.zeros, this.publishedMean, this.publishedVariance, this.publishedP95,
+				this.window, v, this.perTick, this.current, this.numTicks};
+	}
+
+	/**
+	 * Restores the state saved by {@link #save()}
+	 * @param saved saved state
+	 */
+	void load(Object[] saved) {
+		this.n = (Long) saved[0];
+		this.mean = (Double) saved[1];
+		this.m2 = (Double) saved[2];
+		this.counts = (long[]) saved[3];
+		this.offset = (Integer) saved[4];
+		this.zeros = (Long) saved[5];
+		this.publishedMean = (Double) saved[6];
+		this.publishedVariance = (Double) saved[7];
+		this.publishedP95 = (Double) saved[8];
+		this.window = (Integer) saved[9];
+		this.values = (double[]) saved[10];
+		this.first = 0;
+		this.numValues = this.values.length;
+		this.perTick = (int[]) saved[11];
+		this.current = (Integer) saved[12];
+		this.numTicks = (Integer) saved[13];
+	}
+}
@@ -45,6 +45,12 @@ public class HIPlan {
 			/** Amount of reimbursement after which the client is no longer entitled to receive reimbursement. In the scale of {@link HealthInsurance#claimsYTD}*/
 			protected int stopClaim;
 			
+			/** Cost sharing compiled from the values above (not saved, see {@link #getSchedule()})*/
+			private transient CostSharingSchedule schedule;
+			
+			/** Cost sharing of new contracts of the plan (not saved, see {@link #getContractSchedule()})*/
+			private transient CostSharingSchedule contractSchedule;
+			
 			/**Identifier for HIPlans */
 			protected int ID;
 			
@@ -54,11 +60,35 @@ public class HIPlan {
 			
 			protected ArrayList<Double> averageCostPerInsuree = new ArrayList<Double>();
 			
+			// RUNNING AGGREGATES (updated by the contracts, used by InsuranceCompany#updatePrimeForHIPlan and the data sets)
+			/** Sum of the reimbursementYTD of the contracts of this plan in the list of the insurer ({@link InsuranceCompany#insurances})*/
+			protected double reimbursements;
+			
+			/** Claims of the contracts of this plan since the last premium update */
+			protected double claims;
+			
+			/** Weeks with a contract of this plan (insuree-weeks) and premiums paid since the last premium update, counted until {@link #lastTick}*/
+			protected double insureeWeeks;
+			protected double premiumsCollected;
+			
+			/** Number of contracts of this plan that pay the premium (not ended, patient alive)*/
+			protected int activeContracts;
+			
+			/** Sum of the annual premiums of the active contracts (the premium of a contract is the premium of the plan when it was made)*/
+			protected double activePremiums;
+			
+			/** Tick until which the weeks of the active contracts are counted */
+			protected int lastTick;
+			
 			
 			/** Array list of all providers that are covered. If all provider in the system are covered, you can either leave this empty or add all of them*/
 			protected ArrayList<Provider> allowedProviders;
 			
 		// CONSTRUCTOR
+			/** Empty constructor, only used to restore a saved state (see {@link Checkpoint}) */
+			HIPlan(){
+			}
+			
 			/**
 			 * Constructor for the HIPlan. This is only an offer, not an actual insurance contract.  
 			 * @param comp		insurance company
@@ -152,99 +182,120 @@ public class HIPlan {
 			 * @return The amount the health insurance would reimburse
 			 */
 			protected double computeReimbursement(double claim) {
-				// 1: Find breaking points
-				double bp1 = this.deductible;
-				double bp2;
-				if(this.stopLoss!=0){
-					
-					bp2 = bp1 + (this.stopLoss - bp1 ) / (copaymentRate);	// UNIT TESTING: passed
-				}
-				else if(this.stopClaim!=0){
-					bp2 = bp1 +	(this.stopClaim ) / (1-copaymentRate);	 // UNIT TESTING: passed	
-					
-				}
-				else{
-					bp2 = Double.POSITIVE_INFINITY;
-				}
-				
-				
-				
-			// 2: Evaluate different cases
-				double reimbursement=-1.0;
-				if(0 < bp1 && claim <= bp1){ // all below deductible
-					reimbursement = 0.0;
-				}
-				else if(0 < bp1 && claim> bp1 && claim<bp2){ // Jump from before BP1 to after BP1
-					reimbursement = (1-this.copaymentRate) * (claim-(this.deductible));
-				}
-				else if(0< bp1 && claim >=bp2){ // Jump from before BP1 to after BP2
-					// Save claim for posterior use
-					double claimBackup = claim;
-					// Remove part of claim going to deductible
-					claim -=this.deductible;
-					
-					// Compute reimbursment during co-payment period
-					reimbursement = (bp2-bp1)*(1-this.copaymentRate);
-					
-					// Handle above bp2
-					if(this.stopLoss!=0){
-						reimbursement += claim - (bp2-bp1);
-					}
-											
-					// reset claim 
-					claim = claimBackup;
-				}
-				else if(0>=bp1 && 0<bp2 && claim<=bp2){ // all between bp1 and bp2
-					reimbursement = claim*(1-this.copaymentRate);
-				}
-				else if(0>=bp1 && 0<bp2 && claim>bp2){ // all between bp1 and bp2
-					reimbursement = (bp2)*(1-this.copaymentRate);
-					
-					// Handle above bp2
-					if(this.stopLoss!=0){
-						reimbursement += claim - (bp2);
-					}
-					
-				}
-				else if(0>=bp2){
-					if(this.stopLoss!=0){
-						reimbursement = claim; 
-					}
-					else{
-						reimbursement=0.0;
-					}
-				}
-				
-				
-				// Assertion: here we should never have reimbursement == -1
-				if(reimbursement == -1 ){
-					System.out.println("I caught a negative reimbursement (HealthInsurance.getReimbursement())\n");
-					System.out.printf("Claim: %s; ded: %s; bp2: %s", claim, bp1, bp2);
-					System.exit(1);
+				return this.getSchedule().getReimbursement(0.0, claim);
+			}
+			
+			/**
+			 * Returns the cost sharing of the plan, compiled when it is first needed (no limit: +infinity)
+			 * @return schedule
+			 */
+			protected CostSharingSchedule getSchedule() {
+				CostSharingSchedule s = this.schedule;
+				if(s==null) {
+					s = new CostSharingSchedule(this.deductible, this.copaymentRate, this.stopLoss, this.stopClaim);
+					this.schedule = s;
 				}
+				return s;
+			}
 			
+			/**
+			 * Returns the cost sharing of the contracts of the plan, compiled when it is first needed. Contracts use
+			 * {@link CostSharingSchedule#UNLIMITED} as "no limit", the plan +infinity ({@link #getSchedule()})
+			 * @return schedule (shared with the contracts of the plan)
+			 */
+			protected CostSharingSchedule getContractSchedule() {
+				CostSharingSchedule s = this.contractSchedule;
+				if(s==null) {
+					s = new CostSharingSchedule(this.deductible, this.copaymentRate, this.stopLoss, this.stopClaim, CostSharingSchedule.UNLIMITED);
+					this.contractSchedule = s;
+				}
+				return s;
+			}
 			
-				return reimbursement;
+			/** To be called when the deductible, co-payment rate, stop-loss or stop-claim change: the schedules are compiled again (existing contracts keep theirs) */
+			protected void costSharingChanged() {
+				this.schedule = null;
+				this.contractSchedule = null;
 			}
 			
+	/** Adds one insuree to the cumulative number of insurees {@link #numInsurees}*/
+	protected synchronized void addInsuree() {
+		this.numInsurees++;
+	}
+	
+	/**
+	 * Adds a claim of a contract of this plan (see {@link HealthInsurance#getReimbursement(double, boolean, byte)})
+	 * @param claim amount of the claim
+	 * @param reimbursement reimbursement of the claim
+	 */
+	protected synchronized void addClaim(double claim, double reimbursement) {
+		this.claims += claim;
+		this.reimbursements += reimbursement;
+	}
+	
+	/**
+	 * A contract of this plan starts (change=1) or ends (change=-1) in the current tick. The premium of the contract is paid every week from 
+	 * the next tick on until the tick the contract ends (see {@link Patient#stepResetPatient()}).
+	 * @param ins contract
+	 * @param change change of the number of active contracts
+	 */
+	protected synchronized void changeActiveContracts(HealthInsurance ins, int change) {
+		this.countWeeks(Model.getCurrentTick());
+		this.activeContracts += change;
+		this.activePremiums += change * ins.premium;
+	}
+	
+	/**
+	 * Removes a contract from the aggregates when the insurer removes it from its list
+	 * @param ins contract
+	 */
+	protected synchronized void removeContract(HealthInsurance ins) {
+		this.reimbursements -= ins.reimbursementYTD;
+	}
+	
+	/** Starts a new year of the aggregates (claims, insuree-weeks and premiums) after the premium update */
+	protected synchronized void resetYear() {
+		this.countWeeks(Model.getCurrentTick());
+		this.claims = 0.0;
+		this.insureeWeeks = 0.0;
+		this.premiumsCollected = 0.0;
+	}
+	
+	/** Counts the weeks of the active contracts until the given tick */
+	private void countWeeks(int tick) {
+		if(tick>this.lastTick) {
+			this.insureeWeeks += (double) this.activeContracts * (tick - this.lastTick);
+			this.premiumsCollected += this.activePremiums * (tick - this.lastTick) / 52;
+			this.lastTick = tick;
+		}
+	}
+			
 	// GET METHODS
 	public double getYearsCumulativeInsurees() {
 		return this.numInsurees;
 	}
 	
 	
-	//FIXME: 0000: DELETE
+	/** @return reimbursements of the contracts of this plan in the list of the insurer (see {@link #reimbursements})*/
 	public double getYearsCumulativeReimbursements() {
-		/*int thisTick = (int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		return this.insurer.getReimbursementByHIPlanAndTickRange(Model.currentYearStart, thisTick, this.ID);
-		*/
-		double sum = 0;
-		for(HealthInsurance hi : this.insurer.insurances) {
-			if(hi.assocHIPlan==this) {
-				sum +=hi.reimbursementYTD;
-			}
-		}
-		return sum;
+		return this.reimbursements;
+	}
+	
+	/** @return claims of the contracts of this plan since the last premium update */
+	public double getYearsClaims() {
+		return this.claims;
+	}
+	
+	/** @return insuree-weeks of this plan since the last premium update */
+	public synchronized double getYearsInsureeWeeks() {
+		this.countWeeks(Model.getCurrentTick());
+		return this.insureeWeeks;
+	}
+	
+	/** @return premiums paid for the contracts of this plan since the last premium update (as in {@link Patient#stepResetPatient()})*/
+	public synchronized double getYearsPremiumsCollected() {
+		this.countWeeks(Model.getCurrentTick());
+		return this.premiumsCollected;
 	}
 	
 	
@@ -1,9 +1,7 @@
 package healthABM;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
-import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.ScheduledMethod;
 
 public class HealthInsurance {
@@ -38,9 +36,6 @@ public class HealthInsurance {
 	 */
 	protected HIPlan assocHIPlan;
 
-	/** Stores all claims that have been requested */
-	private ArrayList<HiLogEntry> claimLog7 = new ArrayList<HiLogEntry>();
-
 	/**
 	 * Deductible: claims until this amount have a 100% co-payment rate (=> zero
 	 * reimbursement).
@@ -68,6 +63,12 @@ public class HealthInsurance {
 	 */
 	protected int stopClaim;
 
+	/**
+	 * Cost sharing compiled from the values above (not saved, see
+	 * {@link #getSchedule()})
+	 */
+	private transient CostSharingSchedule schedule;
+
 	/** Annualpremium of the insurance plan */
 	protected double premium;
 
@@ -75,6 +76,10 @@ public class HealthInsurance {
 	protected InsuranceCompany insurer;
 
 	// CONSTRUCTOR
+	/** Empty constructor, only used to restore a saved state (see {@link Checkpoint}) */
+	HealthInsurance() {
+	}
+
 	/**
 	 * Constructor for the insurance plans. Automatically adds this insurance to the
 	 * list of insurance of the company and the linked insurance of the patient.
@@ -89,6 +94,32 @@ public class HealthInsurance {
 	 * @param patient Patient
 	 */
 	public HealthInsurance(HIPlan plan, Patient patient) {
+		this.reset(plan, patient);
+	}
+
+	/**
+	 * Returns a new contract, reusing an ended one of {@link Model#contractPool} if possible. Use this method instead of the constructor.
+	 * 
+	 * @param plan    Insurance plan
+	 * @param patient Patient
+	 * @return contract of the patient
+	 */
+	public static HealthInsurance create(HIPlan plan, Patient patient) {
+		HealthInsurance ins = Model.contractPool.obtain();
+		if (ins == null) {
+			return new HealthInsurance(plan, patient);
+		}
+		ins.reset(plan, patient);
+		return ins;
+	}
+
+	/**
+	 * Initialises all instance variables for a new contract (new ID, links to the company, the plan and the patient, context)
+	 * 
+	 * @param plan    Insurance plan
+	 * @param patient Patient
+	 */
+	private void reset(HIPlan plan, Patient patient) {
 
 		// super(plan.insurer, plan.minAge, plan.maxAge,
 		// plan.prime,plan.womenAllowed,plan.menAllowed, true);
@@ -97,9 +128,12 @@ public class HealthInsurance {
 		this.copaymentRate = plan.copaymentRate;
 		this.stopClaim = plan.stopClaim;
 		this.stopLoss = plan.stopLoss;
+		this.schedule = plan.getContractSchedule();
 
 		this.premium = plan.premium;
 		this.insurer = plan.insurer;
+		this.claimsYTD = 0.0;
+		this.reimbursementYTD = 0.0;
 
 		// FIXME: for Alejandro from Florian: did not include the follwing in
 		// HealthInsurance, I think they are not needed, right?
@@ -109,24 +143,40 @@ public class HealthInsurance {
 		 */
 
 		// Get ID
-		this.ID = Model.counterInsurance; // Increases the value automatically by one unit (previous to assignment)
+		this.ID = Model.counterInsurance.getAndIncrement(); // Increases the value automatically by one unit (after assignment)
 		this.insuree = patient;
-		this.startContract = (int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		this.startContract = Model.getCurrentTick();
 
 		if (patient.getAgeYears() < plan.minAge || patient.getAgeYears() > plan.maxAge) {
 			System.out.printf(
 					"WARNING: the program just tried to create an insurance plan (ID=%s) outside the age limits, patient age: %s\n",
-					this.ID, patient.age);
+					this.ID, patient.getAge());
 		}
 
 		this.insurer.addInsurance(this);
 		this.insuree.setInsurance(this);
 
 		this.assocHIPlan = plan;
-		this.assocHIPlan.numInsurees++;
+		this.assocHIPlan.addInsuree();
+		this.assocHIPlan.changeActiveContracts(this, 1);
+
+		if (Model.detailsInContext) {
+			Model.addToContext(this);
+		}
+	}
 
-		Model.context.add(this);
-		Model.counterInsurance++;
+	/**
+	 * Ends the contract (at the renewal, see {@link Patient#stepContractInsurance()}): removes it from the context and deletes the link to the
+	 * patient and the company. The company keeps it until its next {@link InsuranceCompany#stepAdaptHIOffer()}, and then returns it to
+	 * {@link Model#contractPool}.
+	 */
+	public void end() {
+		this.assocHIPlan.changeActiveContracts(this, -1);
+		if (Model.detailsInContext) {
+			Model.removeFromContext(this);
+		}
+		this.insuree = null;
+		this.insurer = null;
 	}
 
 	// SCHEDULED METHODS
@@ -143,94 +193,32 @@ public class HealthInsurance {
 	 *                       reimbursed.
 	 * @param executePayment Set this to true if you wish to execute the payment,
 	 *                       FALSE if you just want to get the value
+	 * @param category       Category of the claim for the {@link ClaimsLog}
+	 *                       (e.g. {@link ClaimsLog#CONSULTATION})
 	 * @return the value of the (potential reimbursement)
 	 */
-	protected double getReimbursement(double claim, boolean executePayment, String claimDescription) { // UNIT TESTING:
+	protected double getReimbursement(double claim, boolean executePayment, byte category) { // UNIT TESTING:
 																										// passed
-		// 1: Find breaking points
-		double bp1 = this.deductible;
-		double bp2;
-		if (this.stopLoss != 0) {
-
-			bp2 = bp1 + (this.stopLoss - bp1) / (copaymentRate); // UNIT TESTING: passed
-		} else if (this.stopClaim != 0) {
-			bp2 = bp1 + (this.stopClaim) / (1 - copaymentRate); // UNIT TESTING: passed
-
-		} else {
-			bp2 = 999999999;
-			// bp2 = Double.POSITIVE_INFINITY;
-		}
-
-		// 2: Evaluate different cases
-		double reimbursement = -1.0;
-		if (this.claimsYTD < bp1 && this.claimsYTD + claim <= bp1) { // all below deductible
-			reimbursement = 0.0;
-		} else if (this.claimsYTD < bp1 && this.claimsYTD + claim > bp1 && this.claimsYTD + claim < bp2) { // Jump from
-																											// before
-																											// BP1 to
-																											// after BP1
-			reimbursement = (1 - this.copaymentRate) * (claim - (this.deductible - this.claimsYTD));
-		} else if (this.claimsYTD < bp1 && this.claimsYTD + claim >= bp2) { // Jump from before BP1 to after BP2
-			// Save claim for posterior use
-			double claimBackup = claim;
-			// Remove part of claim going to deductible
-			claim -= this.deductible - this.claimsYTD;
-
-			// Compute reimbursment during co-payment period
-			reimbursement = (bp2 - bp1) * (1 - this.copaymentRate);
-
-			// Handle above bp2
-			if (this.stopLoss != 0) {
-				reimbursement += claim - (bp2 - bp1);
-			}
-
-			// reset claim
-			claim = claimBackup;
-		} else if (this.claimsYTD >= bp1 && this.claimsYTD < bp2 && this.claimsYTD + claim <= bp2) { // all between bp1
-																										// and bp2
-			reimbursement = claim * (1 - this.copaymentRate);
-		} else if (this.claimsYTD >= bp1 && this.claimsYTD < bp2 && this.claimsYTD + claim > bp2) { // all between bp1
-																									// and bp2
-			reimbursement = (bp2 - this.claimsYTD) * (1 - this.copaymentRate);
-
-			// Handle above bp2
-			if (this.stopLoss != 0) {
-				reimbursement += claim - (bp2 - this.claimsYTD);
-			}
-
-		} else if (this.claimsYTD >= bp2) {
-			if (this.stopLoss != 0) {
-				reimbursement = claim;
-			} else {
-				reimbursement = 0.0;
-			}
-		}
-
-		// Assertion: here we should never have reimbursement == -1
-		if (reimbursement == -1) {
-			System.out.println("I caught a negative reimbursement (HealthInsurance.getReimbursement())");
-			System.out.printf("Claim: %s; ded: %s; bp2: %s", claim, bp1, bp2);
-			System.exit(1);
-		}
+		// 1: Reimbursement given the claims of the year (see CostSharingSchedule)
+		double reimbursement = this.getSchedule().getReimbursement(this.claimsYTD, claim);
 
 		if (executePayment == true) {
 
-			// 3: Adapt values of the health insurance
+			// 2: Adapt values of the health insurance
 			this.claimsYTD += claim;
 			this.reimbursementYTD += reimbursement;
+			this.assocHIPlan.addClaim(claim, reimbursement);
+
+			if (Model.claimsLog != null) {
+				Model.claimsLog.add(Model.getCurrentTick(), this, claim, reimbursement, category);
+			}
 
-			/*this.claimLog.add(new HiLogEntry((int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount(),
-					claim, claimDescription));
-*/
 			// System.out.printf("The result of the claim (%s)
 			// is:\n\tInsurance:%s\n\tPatient:%s\n\tClaimsYTD:%s\n\tReimbursementYTD:%s\n--------------------------------\n",claim,reimbursement,claim-reimbursement,this.claimsYTD,this.reimbursementYTD);
 			// System.out.printf("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n",claim,reimbursement,claim-reimbursement,this.claimsYTD,this.reimbursementYTD,this.claimsYTD-this.reimbursementYTD,caso,bp1,bp2);
 
-			// 4: Adjust the capital of the insurer and the patient (and add reimbursement
-			// to InsuranceCompany's reimbursementLog)
-			int tick = (int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-			
-			this.insurer.capital	-=reimbursement;
+			// 3: Adjust the capital of the insurer and the patient
+			this.insurer.payReimbursement(reimbursement);
 			this.insuree.getReimbursed(reimbursement);
 		}
 
@@ -252,7 +240,7 @@ public class HealthInsurance {
 	public double computeReimbursement(double expenses) {
 		// FIXME PP Appl. 02: Here we can include a check whether the provider qualifies
 		// for this insurance plan (e.g. if part of a affiliated PPO).
-		double reimbursement = this.getReimbursement(expenses, false, "");
+		double reimbursement = this.getReimbursement(expenses, false, ClaimsLog.CONSULTATION);
 		return reimbursement;
 	}
 
@@ -268,67 +256,23 @@ public class HealthInsurance {
 	 * 
 	 */
 	public double getBudget(double maxOOP) {
+		return this.getSchedule().getBudget(this.claimsYTD, maxOOP);
+	}
 
-		// Find breaking points (on the OOP axis)
-		double bp1 = this.deductible;
-		double bp2 = 999999999;
-		// double bp2 = Double.POSITIVE_INFINITY;
-		if (this.stopLoss != 0) {
-			bp2 = this.stopLoss; // UNIT TESTING: passed
-		} else if (this.stopClaim != 0) {
-			bp2 = bp1 + (this.copaymentRate) / (1 - this.copaymentRate) * this.stopClaim; // UNIT TESTING: passed
-		}
-
-		// Find the budget
-		double budget = 0.0;
-		if (maxOOP + this.claimsYTD <= bp1) { // all before bp1
-			budget = maxOOP;
-		} else if (this.claimsYTD < bp1 && this.claimsYTD + maxOOP > bp1 && this.claimsYTD + maxOOP < bp2) { // starting
-																												// before
-																												// bp1,
-																												// jumping
-																												// between
-																												// bp1
-																												// and
-																												// bp2
-			budget = (bp1 - this.claimsYTD) + (maxOOP - (bp1 - this.claimsYTD)) / this.copaymentRate;
-		} else if (this.claimsYTD < bp1 && this.claimsYTD + maxOOP > bp1 && this.claimsYTD + maxOOP >= bp2) { // starting
-																												// before
-																												// bp1,
-																												// jumping
-																												// beyond
-																												// bp2
-			if (this.stopLoss != 0) {
-				budget = 999999999;
-				// budget = Double.POSITIVE_INFINITY;
-			} else {
-				budget = maxOOP + (1 - this.copaymentRate) / this.copaymentRate * (bp2 - bp1);
-			}
-		} else if (this.claimsYTD >= bp1 && this.claimsYTD < bp2 && this.claimsYTD + maxOOP > bp1
-				&& this.claimsYTD + maxOOP < bp2) { // starting and remaining between bp1 and bp2
-			budget = 1 / this.copaymentRate * (maxOOP);
-		} else if (this.claimsYTD >= bp1 && this.claimsYTD < bp2 && this.claimsYTD + maxOOP > bp1
-				&& this.claimsYTD + maxOOP >= bp2) { // starting between bp1 and bp2, jumping beyond bp2
-			if (this.stopLoss != 0) {
-				budget = 999999999;
-				// budget = Double.POSITIVE_INFINITY;
-			} else {
-				double alreadyPaid = (this.claimsYTD - this.deductible) * (1 - this.copaymentRate);
-				// System.out.printf("already paid: %s\n",alreadyPaid);
-				budget = maxOOP + Math.min(this.stopClaim - alreadyPaid,
-						(1 - this.copaymentRate) / this.copaymentRate * maxOOP);
-			}
-		} else if (this.claimsYTD >= bp2) { // all beyond bp2
-			if (this.stopLoss != 0) {
-				budget = 999999999;
-				// budget = Double.POSITIVE_INFINITY;
-			} else {
-				budget = maxOOP;
-			}
+	/**
+	 * Returns the cost sharing of the contract (the schedule of the plan when the contract was made, with
+	 * {@link CostSharingSchedule#UNLIMITED} as "no limit")
+	 * 
+	 * @return schedule
+	 */
+	protected CostSharingSchedule getSchedule() {
+		CostSharingSchedule s = this.schedule;
+		if (s == null) {
+			s = new CostSharingSchedule(this.deductible, this.copaymentRate, this.stopLoss, this.stopClaim,
+					CostSharingSchedule.UNLIMITED);
+			this.schedule = s;
 		}
-
-		return budget;
-
+		return s;
 	}
 
 
@@ -1,16 +0,0 @@
-package healthABM;
-
-public class HiLogEntry {
-	
-	int tick;
-	double amount;
-	String description;
-	
-	public HiLogEntry(int tick,double amount,String desc) {
-		this.tick = tick;
-		this.amount = amount;
-		this.description = desc;
-	}
-	
-
-}
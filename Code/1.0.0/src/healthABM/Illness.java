@@ -15,6 +15,9 @@ public class Illness{
 	/** Numerical ID */
 	protected int id;
 	
+	/** Position of the illness in the list of imported illnesses (column of the {@link IllnessRates})*/
+	protected int index;
+	
 	/** Identifier for Illnesses */
 	protected String name; 
 	
@@ -93,7 +96,7 @@ public class Illness{
 		this.currentCost				= 0.0;
 		this.emergency					= emergency;
 		
-		Model.counterIllness++;
+		Model.counterIllness.incrementAndGet();
 		
 		
 		Model.incidence.put(this, 0);		// Links each illness to the number 
@@ -185,6 +188,14 @@ public class Illness{
 	
 	
 	
+	/**
+	 * Adds the cost of a treatment to {@link #currentCost}
+	 * @param cost cost of the treatment
+	 */
+	public synchronized void addCost(double cost) {
+		this.currentCost += cost;
+	}
+	
 	/**
 	 * Returns the number of new cases in this tick (incidence) - for export purpose
 	 * @return number of new cases
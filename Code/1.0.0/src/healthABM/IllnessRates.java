@@ -0,0 +1,79 @@
+package healthABM;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Dense table of the probabilities of the illnesses by gender and age (in years), compiled once from the age groups of a sheet of illnesses.xlsx
+ * (see {@link ImporterIllness}). A row holds one value per illness, at the position {@link Illness#index}; illnesses without a value for the
+ * age group have probability 0.<br>
+ * The rows are shared and must not be changed: a patient keeps a reference to its row until the next birthday (see {@link Patient#stepGetSick()}),
+ * instead of looking for the age group in {@link Model#illnessProbability} in every tick.
+ */
+public class IllnessRates {
+
+	/** Ages (years) covered by the table; older patients get the row of zeros */
+	public static final int MAX_AGE = 150;
+
+	/** Illnesses by {@link Illness#index} */
+	final Illness[] illnesses;
+
+	/** Probabilities: [gender (0: male, 1: female)][age in years][index of the illness] */
+	private final double[][][] rates;
+
+	/** Row for ages without age group */
+	private final double[] empty;
+
+
+	/**
+	 * @param illnesses all illnesses (in the order of {@link Illness#index})
+	 * @param groups probabilities by age group, key {gender, minAge, maxAge} (if age groups overlap, the first one is used)
+	 * @param factor factor applied to all probabilities (e.g. 1/52 for weekly probabilities)
+	 */
+	public IllnessRates(ArrayList<Illness> illnesses, LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> groups, double factor) {
+		this.illnesses = illnesses.toArray(new Illness[illnesses.size()]);
+		this.empty = new double[this.illnesses.length];
+		this.rates = new double[2][MAX_AGE][];
+		for(Map.Entry<Integer[], LinkedHashMap<Illness,Double>> g: groups.entrySet()) {
+			Integer[] key = g.getKey();
+			double[] row = new double[this.illnesses.length];
+			for(Map.Entry<Illness,Double> e: g.getValue().entrySet()) {
+				row[e.getKey().index] = e.getValue()*factor;
+			}
+			for(int age = Math.max(0, key[1]); age <= Math.min(MAX_AGE-1, key[2]); age++) {
+				if(this.rates[key[0]][age]==null) {
+					this.rates[key[0]][age] = row;
+				}
+			}
+		}
+		for(double[][] gender: this.rates) {
+			for(int age = 0; age < MAX_AGE; age++) {
+				if(gender[age]==null) {
+					gender[age] = this.empty;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the probabilities of all illnesses for a gender and age (not to be changed)
+	 * @param genderInt gender (0: male, 1: female)
+	 * @param ageYears age in years
+	 * @return probabilities by {@link Illness#index}
+	 */
+	public double[] row(int genderInt, int ageYears) {
+		if(ageYears<0 || ageYears>=MAX_AGE) {
+			return this.empty;
+		}
+		return this.rates[genderInt][ageYears];
+	}
+
+	/**
+	 * @param index index of the illness
+	 * @return the illness
+	 */
+	public Illness illness(int index) {
+		return this.illnesses[index];
+	}
+}
@@ -25,6 +25,14 @@ public class ImporterIllness {
 	private String file;
 	/** ArrayList of all imported illnesses*/
 	private ArrayList<Illness> illnesses;
+	/** Weekly incidence of the illnesses by gender and age group (sheet 'incidence'), see {@link Model#illnessProbability}*/
+	private LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> illnessProbability = new LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>>();
+	/** Prevalence of the illnesses by gender and age group (sheet 'prevalence'), see {@link Model#initialiserPrevalence}*/
+	private LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> initialiserPrevalence = new LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>>();
+	/** Weekly incidence by gender and age in years (compiled from illnessProbability) */
+	private IllnessRates incidenceRates;
+	/** Prevalence by gender and age in years (compiled from initialiserPrevalence) */
+	private IllnessRates prevalenceRates;
 	
 	
 	public ImporterIllness(String file){
@@ -109,6 +117,7 @@ public class ImporterIllness {
 				Illness thisIllness = new Illness(id,name,betas, contagious, chronical, initSeverity, 
 						deltaSeverityWoTreatment,visibility, probabilityDetection,deltaProbDetectionInvest,probMaxDectection,null,initialSeverity,emergency);	
 				
+				thisIllness.index = this.illnesses.size();
 				this.illnesses.add(thisIllness);
 				
 				
@@ -207,7 +216,7 @@ public class ImporterIllness {
 					
 				}
 				
-				Model.illnessProbability.put(key, value);
+				this.illnessProbability.put(key, value);
 				
 			}
 			
@@ -254,13 +263,17 @@ public class ImporterIllness {
 					
 				}
 				
-				Model.initialiserPrevalence.put(key, value);
+				this.initialiserPrevalence.put(key, value);
 				//System.out.printf("Initialiser prevalence: %s : %s",key,  Model.initialiserPrevalence.get(key).toString() );
 
 			}
 
 
 			
+			// Dense tables by gender and age: weekly incidence and prevalence
+			this.incidenceRates = new IllnessRates(this.illnesses, this.illnessProbability, 1/52.0);
+			this.prevalenceRates = new IllnessRates(this.illnesses, this.initialiserPrevalence, 1.0);
+			
 			//System.out.println("\n--FINISHED WITH THE IMPORT OF INCIDENCE DATA");
 			/*for(Map.Entry<Integer[],HashMap<Illness,Double>> x:Model.illnessProbability.entrySet()) {
 				String gender = x.getKey()[0] ==0 ? "male" : "female";
@@ -294,5 +307,37 @@ public class ImporterIllness {
 		return this.illnesses;
 	}
 	
+	/**
+	 * Returns the imported incidence (probability of getting the illness within a year) by gender and age group
+	 * @return LinkedHashMap with key {gender,minAge,maxAge}
+	 */
+	public LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> getIllnessProbability(){
+		return this.illnessProbability;
+	}
+	
+	/**
+	 * Returns the imported prevalence by gender and age group (used by the {@link Initialiser})
+	 * @return LinkedHashMap with key {gender,minAge,maxAge}
+	 */
+	public LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> getInitialiserPrevalence(){
+		return this.initialiserPrevalence;
+	}
+	
+	/**
+	 * Returns the weekly incidence (annual incidence/52) by gender and age in years
+	 * @return IllnessRates
+	 */
+	public IllnessRates getIncidenceRates(){
+		return this.incidenceRates;
+	}
+	
+	/**
+	 * Returns the prevalence by gender and age in years (used by the {@link Initialiser})
+	 * @return IllnessRates
+	 */
+	public IllnessRates getPrevalenceRates(){
+		return this.prevalenceRates;
+	}
+	
 
 }
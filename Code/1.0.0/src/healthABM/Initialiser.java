@@ -1,27 +1,18 @@
 package healthABM;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Vector;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-
 import repast.simphony.context.Context;
 import repast.simphony.context.space.continuous.ContinuousSpaceFactoryFinder;
 import repast.simphony.dataLoader.ContextBuilder;
 import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ScheduleParameters;
 import repast.simphony.parameter.IllegalParameterException;
 import repast.simphony.parameter.Parameters;
 import repast.simphony.random.RandomHelper;
@@ -33,9 +24,6 @@ public class Initialiser implements ContextBuilder<Object> {
 	@Override
 	public Context<Object> build(Context<Object> context) {
 
-		Vector<Patient> allPatients = new Vector<Patient>();
-		Vector<Provider> allProviders = new Vector<Provider>();
-
 		context.setId("healthABM");
 
 		final ContinuousSpace<Object> space = ContinuousSpaceFactoryFinder.createContinuousSpaceFactory(null)
@@ -47,129 +35,171 @@ public class Initialiser implements ContextBuilder<Object> {
 		context.add(model);
 		Model.context = context;
 
-		Parameters params = RunEnvironment.getInstance().getParameters();
-		int Npatients = params.getInteger("nPatients");
-		double tolerance = params.getDouble("tolerance");
+		Parameters params = Model.getParameters();
 		double xiBase = params.getDouble("xi_base");
 		double xiDist = params.getDouble("xi_dist");
-		double premiumsScalingFactor = params.getDouble("premiumsScalingFactor");
-		
-		String inputfolder = params.getString("inputfolder");
 
-		// Initialise the insurance companies (from EXCEL FILE)
-		String fileHi = inputfolder+"/hi.xlsx"; 
+		// Create a new population, or restore a saved state (parameter initialState, see Checkpoint)
+		String initialState = Checkpoint.getInitialState(params);
+		if (initialState == null) {
+			createPopulation(context, space, params);
+		}
+		else {
+			int savedTick = Checkpoint.restore(initialState, context, space);
+			if (savedTick >= 0 && !Model.isHeadless()) {
+				System.out.printf("ERROR: the state [%s] was saved after tick %s. Only the headless TickEngine can resume a run after tick 0\n",
+						initialState, savedTick);
+				System.exit(1);
+			}
+		}
+		
+		// Eligible health insurance plans by gender and age
+		Model.planIndex = new PlanIndex(context);
+		
+		// Grid of the providers (they do not move after this point)
+		Model.providerIndex = new ProviderIndex(context, params.getInteger("visibilityAgents"));
+		Model.transportCosts = new TransportCostMatrix(Model.providerIndex, params.getDouble("transportCost"), TransportCostMatrix.getK(params),
+				TransportCostMatrix.getFile(params));
 		
-		try {
+		// Claim-level log (parameter claimsLogFile, see ClaimsLog)
+		String claimsLogFile = ClaimsLog.getFile(params);
+		if (claimsLogFile != null) {
+			Model.claimsLog = new ClaimsLog(claimsLogFile);
+		}
+		
+		// Event-driven onset of illnesses (parameter incidenceMode=event): first onsets of all patients, unless they were restored.
+		// The patients get sick from tick 1 on (or the tick after the saved state), one week older than now.
+		if (Model.onsets != null && Model.onsets.isEmpty()) {
+			int from = Math.max(1, Model.firstTick);
+			for (Object o : context.getObjects(Patient.class)) {
+				Patient p = (Patient) o;
+				Model.onsets.schedule(p, from, p.getAge() + 1);
+			}
+		}
+		
+		// Onset by cohort (parameter incidenceMode=cohort): all patients that are not in the lists yet (all patients, unless they were restored),
+		// in the order of their ID
+		if (Model.cohorts != null) {
+			ArrayList<Patient> all = new ArrayList<Patient>();
+			for (Object o : context.getObjects(Patient.class)) {
+				all.add((Patient) o);
+			}
+			Collections.sort(all, (a, b) -> Integer.compare(a.ID, b.ID));
+			for (Patient p : all) {
+				if (p.cohortPos == null) {
+					Model.cohorts.add(p);
+				}
+			}
+		}
+		
+		// The headless TickEngine has no file sinks and stops by itself
+		if (!Model.isHeadless()) {
+			// LOAD WORKING DIRECTORY
+			String syspath = System.getProperty("user.dir");
+	
+			if (RunEnvironment.getInstance().isBatch()) {
+				syspath = params.getString("syspath");
+			}
+	
+			// DELETE ALL OLD EXPORT FILES
+			File toClean;
+			if (RunEnvironment.getInstance().isBatch()) {
+				toClean = new File(syspath + "/output/outputdata");
+			} else {
+				toClean = new File(syspath + "/outputdata");
+			}
+	
+			try {
+				for (File file : toClean.listFiles()) {
+					if (!file.isDirectory()) {
+						file.delete();
+					}
+				}
+			} catch (NullPointerException e) {
+	
+			}
+	
+			// FOR BATCH MODE: stop at xxx period (5 years)
+			if (RunEnvironment.getInstance().isBatch()) {
+				int endAt = 1560;
+				try {
+					endAt = params.getInteger("stopBatch");
+				}
+				catch(IllegalParameterException e) {
+					
+				}
+				RunEnvironment.getInstance().endAt(endAt);
+				//RunEnvironment.getInstance().endAt(1040);
+			} else { // Pause at 3 years
+				RunEnvironment.getInstance().pauseAt(1040);
+			}
+			
+			// Write the rest of the claims log at the end of the run (the TickEngine closes it in TickEngine#finish)
+			if (Model.claimsLog != null) {
+				RunEnvironment.getInstance().getCurrentSchedule().schedule(ScheduleParameters.createAtEnd(ScheduleParameters.LAST_PRIORITY),
+						() -> Model.closeClaimsLog());
+			}
+		}
 
-			LinkedHashMap<Integer, InsuranceCompany> allInsuranceCompanies = new LinkedHashMap<Integer, InsuranceCompany>();
+		/*
+		 * for (Object o: context) { NdPoint pt = space.getLocation(o);
+		 * //space.moveTo(obj, (int) pt.getX(), (int) pt.getY()); }
+		 */
 
-			// Define the file to be imported
-			FileInputStream excelFile = new FileInputStream(new File(fileHi));
-			XSSFWorkbook workbook = new XSSFWorkbook(excelFile);
+		// Load some paramters
+		Patient.incomeSesThreshold = params.getDouble("povertyLine");
 
-			// INSURANCE COMPANIES
-			Sheet sheetInsurers = workbook.getSheet("insurers");
-			Iterator<Row> rowIterator = sheetInsurers.iterator(); // define the iterator
+		
 
-			// READ THE FIRST LINE (variable names) - companies
-			Row firstRow = rowIterator.next(); // Take only the first row
-			Iterator<Cell> cellIterator = firstRow.iterator();
-			ArrayList<String> varNames = new ArrayList<String>();
-			while (cellIterator.hasNext()) {
-				Cell currentCell = cellIterator.next();
-				String name = currentCell.getStringCellValue();
-				varNames.add(name);
+		System.out.println("<< Context successfully built >>");
 
-			}
-			// Read the actual data
-			while (rowIterator.hasNext()) {
-				Row thisRow = rowIterator.next(); // Take only one row at a time
-
-				// Load value
-				double capital = thisRow.getCell(varNames.indexOf("capital")).getNumericCellValue();
-				double profitTarget = thisRow.getCell(varNames.indexOf("profitTarget")).getNumericCellValue();
-				int id = (int) thisRow.getCell(varNames.indexOf("id")).getNumericCellValue();
-
-				// Create the company
-				InsuranceCompany company = new InsuranceCompany(id, capital, profitTarget);
-				// Add it to the context
-				context.add(company);
-				// Add it to a HashMap in order to be able to link the HIplans (below) to the
-				// companies
-				allInsuranceCompanies.put(id, company);
-			} // end loop over all insurance companies
-
-			// Health insurance plans
-			Sheet sheetHiPlans = workbook.getSheet("hiplans");
-			rowIterator = sheetHiPlans.iterator(); // define the iterator
-
-			// READ THE FIRST LINE (variable names) - companies
-			firstRow = rowIterator.next(); // Take only the first row
-			cellIterator = firstRow.iterator();
-			varNames = new ArrayList<String>();
-			while (cellIterator.hasNext()) {
-				Cell currentCell = cellIterator.next();
-				String name = currentCell.getStringCellValue();
-				varNames.add(name);
-				// System.out.printf("%s\n",name);
-			}
-			// Read the actual data
-			while (rowIterator.hasNext()) {
-				Row thisRow = rowIterator.next(); // Take only one row at a time
-
-				// Load value
-				int idInsurer = (int) thisRow.getCell(varNames.indexOf("insurer")).getNumericCellValue();
-				int idPlan = (int) thisRow.getCell(varNames.indexOf("id")).getNumericCellValue();
-				double premium = thisRow.getCell(varNames.indexOf("prime")).getNumericCellValue()*premiumsScalingFactor;
-				int minAge = (int) thisRow.getCell(varNames.indexOf("minAge")).getNumericCellValue();
-				int maxAge = (int) thisRow.getCell(varNames.indexOf("maxAge")).getNumericCellValue();
-				double deductible = thisRow.getCell(varNames.indexOf("deductible")).getNumericCellValue();
-				double copaymentRate = thisRow.getCell(varNames.indexOf("copaymentRate")).getNumericCellValue();
-				int stopLoss = (int) thisRow.getCell(varNames.indexOf("stopLoss")).getNumericCellValue();
-				int stopClaim = (int) thisRow.getCell(varNames.indexOf("stopClaim")).getNumericCellValue();
-				String gender = thisRow.getCell(varNames.indexOf("gender")).getStringCellValue().toLowerCase();
-
-				// By default all insurance plans are for both gender
-				boolean women = true;
-				boolean men = true;
-
-				// If women (or woman) is indicated, then the insurance plan is not available to
-				// men
-				if (gender.equals("woman") || gender.equals("women")) {
-					men = false;
-				}
-				// If men (or man) is indicated, then the insurance plan is not available to
-				// women
-				if (gender.equals("men") || gender.equals("man")) {
-					women = false;
-				}
+		double suma = 0.0;
+		for (Object p : context.getObjects(Patient.class)) {
+			Patient pro = (Patient) p;
+			suma += pro.getAge();
+		}
 
-				InsuranceCompany insurer = allInsuranceCompanies.get(idInsurer);
-				if (insurer != null) {
-					// Create the company
-					HIPlan plan = new HIPlan(idPlan,insurer, deductible, copaymentRate, stopLoss, stopClaim, minAge, maxAge,
-							premium, women, men);
-					// Add it to the context
-					System.out.printf("\nNew HI Plan with insurer:%s, deduct:%s, copay:%s, premium:%s", insurer, deductible,
-							copaymentRate, premium);
-					context.add(plan);
-				} else {
-					System.out.printf("WARNING: HIPlan with ID=%s has an invalid insurer. It was ignored\n", idPlan);
-				}
+		ArrayList<Integer> test = new ArrayList<Integer>();
+		test.add(1);
+		test.add(5);
 
-			} // end loop over all insurance companies
-
-		} catch (FileNotFoundException e) {
-			System.out.printf(
-					"Sorry, I could not find the input file you specified [%s]\nI abort the initalistion of the model.",
-					fileHi);
-			System.exit(0);
-		} catch (IOException e) {
-			System.out.printf(
-					"Sorry, I could not find the input file you specified [%s]\nI abort the initalistion of the model.",
-					fileHi);
-			System.exit(0);
+		System.out.printf("The sum of all quality is %s\n", suma);
+		System.out.printf("Random number: %s\n", RandomHelper.nextDoubleFromTo(0, 1));
+		DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");  
+		LocalDateTime now = LocalDateTime.now();  
+		//Model.showCostByIllness();
+		System.out.printf("Manatory health insurance is set to %s",Model.mandatoryInsurance);
+		Model.log(false,"---- START OF LOG: %s --------",dtf.format(now));
+		
+		// Save the initial population (parameter checkpointTick = 0)
+		if (initialState == null && Checkpoint.getCheckpointTick(params) == 0) {
+			Checkpoint.save(Checkpoint.getCheckpointFile(params), context, -1);
 		}
+		model.timer("End of initialiser",false);
+
+		
+		return context;
+	}
+
+	/**
+	 * Creates a new population: insurance companies and plans, providers, patients and their initial medical conditions
+	 * @param context Context
+	 * @param space Space of the context
+	 * @param params Parameters of the run
+	 */
+	private static void createPopulation(Context<Object> context, ContinuousSpace<Object> space, Parameters params) {
+
+		Vector<Patient> allPatients = new Vector<Patient>();
+		Vector<Provider> allProviders = new Vector<Provider>();
+
+		int Npatients = params.getInteger("nPatients");
+		double tolerance = params.getDouble("tolerance");
+		double premiumsScalingFactor = params.getDouble("premiumsScalingFactor");
+		
+		String inputfolder = params.getString("inputfolder");
+
+		// Initialise the insurance companies (new objects with the initial values of hi.xlsx, see Catalogue)
+		Catalogue.get(inputfolder).createInsuranceCompanies(context, premiumsScalingFactor);
 
 		// Initialise all providers
 		double providerDensityGP = params.getDouble("providerDensityGP");
@@ -180,7 +210,7 @@ public class Initialiser implements ContextBuilder<Object> {
 
 		// Generate the GPs
 		for (int i = 1; i <= NdoctorsGP; i++) {
-			double quality = RandomHelper.nextDoubleFromTo(0.8, 1.0);
+			double quality = RandomStreams.uniform(0.8, 1.0, i, RandomStreams.CREATION, RandomStreams.INIT_PROVIDER_QUALITY, 0);
 			double baseCost = params.getDouble("gpBaseCost");
 			Provider provider = new Provider(quality, baseCost, 10000, 80, false, space, 0);
 			allProviders.add(provider);
@@ -190,7 +220,7 @@ public class Initialiser implements ContextBuilder<Object> {
 		System.out.printf("specialist base cost: hola");
 		// Generate the specialists
 		for (int i = 1; i <= NdoctorsSpecialist; i++) {
-			double quality = RandomHelper.nextDoubleFromTo(0.8, 1.0);
+			double quality = RandomStreams.uniform(0.8, 1.0, NdoctorsGP+i, RandomStreams.CREATION, RandomStreams.INIT_PROVIDER_QUALITY, 0);
 			double baseCost = params.getDouble("specialistBaseCost");
 			Provider provider = new Provider(quality, baseCost, 10000, 80, true, space, 0);
 			allProviders.add(provider);
@@ -202,8 +232,8 @@ public class Initialiser implements ContextBuilder<Object> {
 		// Initialise all Patients (Population)
 		for (int i = 0; i < Npatients; i++) {
 
-			boolean female = RandomHelper.nextDoubleFromTo(0, 1) > 0.5 ? true : false;
-			double income = createIncome();
+			boolean female = RandomStreams.uniform(i, RandomStreams.CREATION, RandomStreams.INIT_GENDER, 0) > 0.5 ? true : false;
+			double income = createIncome(i);
 			
 			//Math.exp(RandomHelper.createNormal(Math.log(4121.0), 0.4694205).nextDouble()) / 2.2;
 			
@@ -220,12 +250,12 @@ public class Initialiser implements ContextBuilder<Object> {
 
 			// Age distribution //TODO: not yet very well fitting (probably not very
 			// important)
-			double random = RandomHelper.nextDoubleFromTo(0, 1);
-			int age = RandomHelper.nextIntFromTo(0, 5200);
+			double random = RandomStreams.uniform(i, RandomStreams.CREATION, RandomStreams.INIT_AGE, 0);
+			int age;
 			if (random < 0.75) {
-				age = RandomHelper.nextIntFromTo(18 * 52, 58 * 52 - 1);
+				age = RandomStreams.uniformInt(18 * 52, 58 * 52 - 1, i, RandomStreams.CREATION, RandomStreams.INIT_AGE, 1);
 			} else {
-				age = (int) (58 * 52 + Math.pow(RandomHelper.nextDoubleFromTo(0, 1), 2) * (52 * 42));
+				age = (int) (58 * 52 + Math.pow(RandomStreams.uniform(i, RandomStreams.CREATION, RandomStreams.INIT_AGE, 2), 2) * (52 * 42));
 			}
 
 			Patient patient = new Patient(income, age, female, 1, tolerance, space);
@@ -242,127 +272,44 @@ public class Initialiser implements ContextBuilder<Object> {
 		
 
 
-		// [IMPORT ILLNESSES FROM EXCEL FILE]
-		String mainData = inputfolder+"/illnesses.xlsx";
-	
-
-		ImporterIllness illnesses = new ImporterIllness(mainData);
-
-		Model.listIllnesses = illnesses.getIllnesses();
-		for (Illness i : illnesses.getIllnesses()) {
+		// [ILLNESSES] imported once per input folder (see Catalogue), made available by the constructor of the Model
+		for (Illness i : Model.listIllnesses) {
 			context.add(i);
 			Model.incidence.put(i, 0);
 		}
 		
 		// get patients sick
 		for (Patient i : allPatients) {
-			LinkedHashMap<Illness,Double> myIllnessProbabilities = new LinkedHashMap<Illness,Double>();
-			int genderInt = i.genderToInteger();
-			int age = (int) Math.floor(i.age/52);
-			
-			for(Integer[] e: Model.initialiserPrevalence.keySet()) {
-				if(e[0]==genderInt && e[1]<= age && e[2]>=age) {
-					myIllnessProbabilities = Model.initialiserPrevalence.get(e);
-					break;
-				}
-			}		
+			double[] prevalence = Model.prevalenceRates.row(i.genderToInteger(), i.getAge()/52);
 			// loop over illness to see if patient gets one
-			for(Map.Entry<Illness,Double> e: myIllnessProbabilities.entrySet()) {
-				Illness illness = e.getKey();		
-						double randomValue = RandomHelper.createUniform(0.0,1.0).nextDouble();
-						if(randomValue < e.getValue()) {
-							i.medConditions.add(new MedicalCondition(illness, illness.initialSev, i));
+			for(int k = 0; k < prevalence.length; k++) {
+				if(prevalence[k]<=0) {continue;}
+				Illness illness = Model.prevalenceRates.illness(k);		
+						double randomValue = RandomStreams.uniform(i.ID, RandomStreams.CREATION, RandomStreams.INIT_PREVALENCE, illness.id);
+						if(randomValue < prevalence[k]) {
+							i.medConditions.add(MedicalCondition.create(illness, illness.initialSev, i));
 							i.HS = i.getHealthStatus();
 						}
 			}
 		} // end loop over patients getting sick in initializer 
-		
-		// LOAD WORKING DIRECTORY
-		String syspath = System.getProperty("user.dir");
-
-		if (RunEnvironment.getInstance().isBatch()) {
-			syspath = RunEnvironment.getInstance().getParameters().getString("syspath");
-		}
-
-		// DELETE ALL OLD EXPORT FILES
-		File toClean;
-		if (RunEnvironment.getInstance().isBatch()) {
-			toClean = new File(syspath + "/output/outputdata");
-		} else {
-			toClean = new File(syspath + "/outputdata");
-		}
-
-		try {
-			for (File file : toClean.listFiles()) {
-				if (!file.isDirectory()) {
-					file.delete();
-				}
-			}
-		} catch (NullPointerException e) {
-
-		}
-
-		// FOR BATCH MODE: stop at xxx period (5 years)
-		if (RunEnvironment.getInstance().isBatch()) {
-			int endAt = 1560;
-			try {
-				endAt = params.getInteger("stopBatch");
-			}
-			catch(IllegalParameterException e) {
-				
-			}
-			RunEnvironment.getInstance().endAt(endAt);
-			//RunEnvironment.getInstance().endAt(1040);
-		} else { // Pause at 3 years
-			RunEnvironment.getInstance().pauseAt(1040);
-		}
-
-		/*
-		 * for (Object o: context) { NdPoint pt = space.getLocation(o);
-		 * //space.moveTo(obj, (int) pt.getX(), (int) pt.getY()); }
-		 */
-
-		// Load some paramters
-		Patient.incomeSesThreshold = params.getDouble("povertyLine");
-
-		
-
-		System.out.println("<< Context successfully built >>");
-
-		double suma = 0.0;
-		for (Object p : context.getObjects(Patient.class)) {
-			Patient pro = (Patient) p;
-			suma += pro.age;
-		}
-
-		ArrayList<Integer> test = new ArrayList<Integer>();
-		test.add(1);
-		test.add(5);
-
-		System.out.printf("The sum of all quality is %s\n", suma);
-		System.out.printf("Random number: %s\n", RandomHelper.nextDoubleFromTo(0, 1));
-		DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");  
-		LocalDateTime now = LocalDateTime.now();  
-		//Model.showCostByIllness();
-		System.out.printf("Manatory health insurance is set to %s",Model.mandatoryInsurance);
-		Model.log(false,"---- START OF LOG: %s --------",dtf.format(now));
-		model.timer("End of initialiser",false);
-
-		
-		return context;
 	}
 
-	private static double createIncome() {
+	/**
+	 * Draws the income of a patient of the initial population from the distribution defined in the parameter <i>income</i>
+	 * @param i index of the patient in the initial population
+	 * @return monthly income
+	 */
+	private static double createIncome(int i) {
 		
 		
 		// Get the parameter and convert it to an array of strings
-		String[] ip = RunEnvironment.getInstance().getParameters().getString("income").split(":");
+		String[] ip = Model.getParameters().getString("income").split(":");
 		//System.out.printf("createIncome: %s\n",Arrays.toString(ip));
 		double result = 0.0;
 		switch(ip[0].toLowerCase()) {
 		case "lognormal": 
 			
-			result = Math.exp(RandomHelper.createNormal(Double.parseDouble(ip[1]),Double.parseDouble(ip[2])).nextDouble()) ;
+			result = Math.exp(RandomStreams.normal(Double.parseDouble(ip[1]),Double.parseDouble(ip[2]), i, RandomStreams.CREATION, RandomStreams.INIT_INCOME, 0)) ;
 			
 			try{
 				System.out.printf("Limiting the minimum to %s",ip[3]);
@@ -374,7 +321,7 @@ public class Initialiser implements ContextBuilder<Object> {
 
 			break;
 		case "uniform": 
-			result = RandomHelper.nextDoubleFromTo(Double.parseDouble(ip[1]),Double.parseDouble(ip[2]));
+			result = RandomStreams.uniform(Double.parseDouble(ip[1]),Double.parseDouble(ip[2]), i, RandomStreams.CREATION, RandomStreams.INIT_INCOME, 0);
 			break;
 		default:
 			System.out.println("ERROR: you asked for an unknown distribution");
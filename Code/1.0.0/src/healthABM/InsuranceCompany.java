@@ -1,11 +1,9 @@
 package healthABM;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
-import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.ScheduledMethod;
 
 public class InsuranceCompany {
@@ -26,6 +24,13 @@ public class InsuranceCompany {
 	/** List of all of the InsuranceCompany's HealthInsurances*/
 	protected ArrayList<HealthInsurance> insurances = new ArrayList<HealthInsurance>();
 	
+	// LEDGER (sums over the contracts in the list of insurances, updated when contracts are added or removed and when claims are paid)
+	/** Weekly premiums (premium/52) of the contracts in the list, see {@link #getRevenue()}*/
+	private double weeklyPremiums;
+	
+	/** Reimbursements of the contracts in the list (sum of their reimbursementYTD), see {@link #getTotalReimbursements()}*/
+	private double reimbursementsYTD;
+	
 	/** List of all of the InsuranceCompany's HIPlans*/
 	protected ArrayList<HIPlan> hiPlans = new ArrayList<HIPlan>();
 	
@@ -41,6 +46,10 @@ public class InsuranceCompany {
 	
 	
 	// CONSTRUCTORS
+	/** Empty constructor, only used to restore a saved state (see {@link Checkpoint}) */
+	InsuranceCompany(){
+	}
+
 	/**
 	 * Simple constructor for insurance companies. The capital must be set by the modeller, while all other values are initiated in zeros (profit, contracts, etc)
 	 * @param id ID of the company (used for the data-export
@@ -67,6 +76,7 @@ public class InsuranceCompany {
 	 */
 	public void addInsurance(HealthInsurance healthInsurance) {
 		this.insurances.add(healthInsurance);
+		this.weeklyPremiums += healthInsurance.premium / 52;
 	}
 
 
@@ -87,12 +97,16 @@ public class InsuranceCompany {
 		/* Loop over each of this InsuranceCompany's HIPlans*/
 
 		
-		if ((int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount()>51) {
+		if (Model.getCurrentTick()>51) {
 			for (HIPlan hiPlan : this.hiPlans) {
 				this.updatePrimeForHIPlan(hiPlan);
 				// Set the cumulative number of insurees for this HIPlan to zero
 				this.resetYearsInsurees(hiPlan);
 			}
+			// The costs of the plans changed (see PlanEnvelope)
+			if(Model.planIndex!=null) {
+				Model.planIndex.offerChanged();
+			}
 		}
 		//Update prime for each of this InsuranceCompany's HIPlans
 
@@ -121,41 +135,52 @@ public class InsuranceCompany {
 //		}
 		
 		//POLICY 1: CHECK IF THE MINIMUM DEDUCTIBLE MUST BE INCREASED
-		int initPolicy1 = RunEnvironment.getInstance().getParameters().getInteger("policy1tick");
-		int minDeductible = RunEnvironment.getInstance().getParameters().getInteger("policy1minDeductible");
-		int currentTick = (int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		int initPolicy1 = Model.getParameters().getInteger("policy1tick");
+		int minDeductible = Model.getParameters().getInteger("policy1minDeductible");
+		int currentTick = Model.getCurrentTick();
 		
 		// If the policy is already in place, check each HIPlan
 		if (currentTick>=initPolicy1) {
+			boolean offerChanged = false;
 			for(HIPlan h : this.hiPlans) {
 				if(h.deductible<minDeductible) { // For plans with a lower deductible, change the deductible
 					double oldDeductible = h.deductible;
 					h.deductible = minDeductible;
 					h.stopLoss = (int) (h.deductible + 700);	
+					h.costSharingChanged();
+					offerChanged = true;
 					System.out.printf("I applied the new policy to one of my health insurances. Deductible before: %s, => now %s\n",oldDeductible,h.deductible);
 					
 				}
 			}
+			// The plans by gender and age are built again when the offer changed
+			if(offerChanged) {
+				Model.planIndex = new PlanIndex(Model.context);
+			}
 			
 		}
 		
 
-		// Clear the array of insurances (remove those which are no longer valid)
-		Iterator<HealthInsurance> iter = this.insurances.iterator();
-		while(iter.hasNext()) {
-			HealthInsurance i = iter.next();
+		// Clear the array of insurances (remove those which are no longer valid), the ended contracts are reused and leave the ledger
+		this.insurances.removeIf(i -> {
 			if(i.insuree==null) {
-				iter.remove();
+				i.assocHIPlan.removeContract(i);
+				this.weeklyPremiums -= i.premium / 52;
+				this.reimbursementsYTD -= i.reimbursementYTD;
+				Model.contractPool.release(i);
+				return true;
 			}
-		}
+			return false;
+		});
 
 	}
 	
 	
 	
-	/**This method resets the number of insurees of the given HIPlan*/
+	/**This method resets the number of insurees of the given HIPlan (and its claims, insuree-weeks and premiums)*/
 	private void resetYearsInsurees(HIPlan hiPlan) {
 		hiPlan.numInsurees = 0;
+		hiPlan.resetYear();
 	}
 
 
@@ -168,7 +193,7 @@ public class InsuranceCompany {
 	// TODO FUTURE: For future versions
 	private boolean checkFinancialRequirements() {
 		//TODO FUTURE 06: Not profit-maximizing; program this (esto se puede hacer al final, una vez que esté listo lo demás)
-		double r = RunEnvironment.getInstance().getParameters().getDouble("solvency_capital_req");
+		double r = Model.getParameters().getDouble("solvency_capital_req");
 		return true;
 	}
 	
@@ -231,13 +256,8 @@ public class InsuranceCompany {
 	 */
 	private void updatePrimeForHIPlan(HIPlan plan) {
 		
-		// Compute the total expenditures of the insurance
-		double totalReimbursements = 0;
-		for(HealthInsurance hi: this.insurances) {
-			if(plan==hi.assocHIPlan) {
-				totalReimbursements += hi.reimbursementYTD;
-			}
-		}
+		// Total expenditures of the insurance (running aggregate of the contracts of the plan)
+		double totalReimbursements = plan.reimbursements;
 		
 		// Get the number of insurees (to compute the average)
 		double totalInsurees = (double) plan.numInsurees;
@@ -266,11 +286,11 @@ public class InsuranceCompany {
 		double oldPremium = plan.premium;
 		
 		//If no insurees were insured under HIPlan, set prime to a fraction of its current value
-		double newPremium =  totalInsurees != 0 ? averageCost : plan.premium*RunEnvironment.getInstance().getParameters().getDouble("maxReductionPremiums");
+		double newPremium =  totalInsurees != 0 ? averageCost : plan.premium*Model.getParameters().getDouble("maxReductionPremiums");
 		//Check that new prime is within lower limit for prime reductions
-		newPremium = Math.max(newPremium, plan.premium*RunEnvironment.getInstance().getParameters().getDouble("maxReductionPremiums"));
+		newPremium = Math.max(newPremium, plan.premium*Model.getParameters().getDouble("maxReductionPremiums"));
 		//Check that the new premium is within upper limit raise set by current legislation
-		newPremium = Math.min(newPremium, plan.premium*RunEnvironment.getInstance().getParameters().getDouble("maxRaisePremiums"));
+		newPremium = Math.min(newPremium, plan.premium*Model.getParameters().getDouble("maxRaisePremiums"));
 		
 		plan.premium = newPremium;
 		System.out.printf("\nPlan (ID=%s) YTD reimbursements: %s; insurees: %s; old prime: %s; new prime: %s\n", plan.ID, totalReimbursements, totalInsurees, oldPremium, newPremium);
@@ -299,12 +319,12 @@ public class InsuranceCompany {
 	public boolean checkAcceptInsuree(Patient patient, HIPlan plan){
 		
 		// First check if the legislation allows the insurance company to reject
-		boolean allowReject = RunEnvironment.getInstance().getParameters().getBoolean("allowRejectInsuree");
+		boolean allowReject = Model.getParameters().getBoolean("allowRejectInsuree");
 		
 		boolean answer = true; // default answer (e.g. when insurance companies must accept clients 
 		
 		// Check if the plan is available for this age group
-		if(patient.age<plan.getMinAge() || patient.age>plan.getMaxAge()){
+		if(patient.getAge()<plan.getMinAge() || patient.getAge()>plan.getMaxAge()){
 			answer = false;
 		}
 		
@@ -443,6 +463,20 @@ public class InsuranceCompany {
 	}*/
 	
 
+	/**
+	 * Pays a reimbursement: subtracts it from the capital and adds it to the reimbursements of the ledger
+	 * @param reimbursement amount reimbursed to the insuree
+	 */
+	protected synchronized void payReimbursement(double reimbursement) {
+		this.capital -= reimbursement;
+		this.reimbursementsYTD += reimbursement;
+	}
+
+	/** @return the ID of the insurance company*/
+	public int getID(){
+		return this.ID;
+	}
+
 	/** @return the capital of the insurance company*/
 	public double getCapital(){
 		return this.capital;
@@ -456,22 +490,14 @@ public class InsuranceCompany {
 	
 	
 	
+	/** @return reimbursements of the contracts of the company (reset when the ended contracts are removed, see {@link #stepAdaptHIOffer()})*/
 	public double getTotalReimbursements(){
-		double reimbursement = 0.0;
-
-		for(HealthInsurance hi:this.insurances) {
-			reimbursement+=hi.reimbursementYTD;
-		}
-		return reimbursement;
+		return this.reimbursementsYTD;
 	}
 	
+	/** @return weekly premiums of the contracts of the company */
 	public double getRevenue() {
-		double sum = 0;
-		for(HealthInsurance hi:this.insurances) {
-			sum +=hi.premium / 52;
-		}
-		
-		return sum;
+		return this.weeklyPremiums;
 	}
 	
 	
@@ -1,13 +1,12 @@
 package healthABM;
 
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
-import repast.simphony.engine.environment.RunEnvironment;
 /**
  * The class medical condition refers to actual medical conditions of a patient. Contrary to the class Illness (blueprint of each possible illness), this class is always 
- * linked to a patient. Once the medical condition is cured, the instance of this class disappears. 
+ * linked to a patient. Once the medical condition is cured, the instance of this class is returned to {@link Model#conditionPool} and reused 
+ * for a later medical condition (see {@link #create(Illness, double, Patient)}). 
  * @author Florian
  *
  */
@@ -27,9 +26,12 @@ public class MedicalCondition {
 	/** Starting tick of the disease*/
 	protected int initialTick;
 	
-	/** Amount by which this medical condition is affecting the patient's health status. The newest value is always stored on index 0, hence the index
+	/** Amount by which this medical condition is affecting the patient's health status (last 3 ticks). The newest value is always stored on index 0, hence the index
 	 * can be interpreted as how many ticks in the past. This variable is defined as <b>private</b> to avoid that somewhere else in the code this order is not respected. */ 
-	private ArrayList<Double> severity 	 = new ArrayList<Double>();
+	private double[] severity 	 = new double[3];
+	
+	/** Number of values in {@link #severity}*/
+	private int numSeverity;
 	
 	/** Provider who diagnosed condition */
 	protected Provider detector;
@@ -47,6 +49,10 @@ public class MedicalCondition {
 	
 	
 	// CONSTRUCTOR
+	/** Empty constructor, only used to restore a saved state (see {@link Checkpoint}) */
+	MedicalCondition(){
+	}
+	
 	/**
 	 * Main constructor for medical conditions
 	 * @param ill link to the {@link Illness} 
@@ -56,26 +62,76 @@ public class MedicalCondition {
 	 * @version 09-Nov-2018
 	 */
 	public MedicalCondition (Illness ill, double sev, Patient patient){
+		this.reset(ill, sev, patient);
+	}
+	
+	/**
+	 * Returns a new medical condition, reusing a cured one of {@link Model#conditionPool} if possible. Use this method instead of the constructor.
+	 * @param ill link to the {@link Illness} 
+	 * @param sev Initial severity
+	 * @param patient Patient 
+	 * @return medical condition
+	 */
+	public static MedicalCondition create(Illness ill, double sev, Patient patient) {
+		MedicalCondition mc = Model.conditionPool.obtain();
+		if(mc==null) {
+			return new MedicalCondition(ill, sev, patient);
+		}
+		mc.reset(ill, sev, patient);
+		return mc;
+	}
+	
+	/**
+	 * Initialises all instance variables for a new medical condition (new ID, incidence, context)
+	 * @param ill link to the {@link Illness} 
+	 * @param sev Initial severity
+	 * @param patient Patient 
+	 */
+	private void reset(Illness ill, double sev, Patient patient) {
 		this.illness = ill;
 		if(ill==null) {
 			System.out.print("Stopping because requesting medical condition without illness");System.exit(2);
 		}
-		this.severity.add(0,sev);
+		this.severity[0] = sev;
+		this.numSeverity = 1;
+		this.treatment = null;
+		this.detector = null;
+		this.applier = null;
 		//this.initialTick = (int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-		this.medConditionID = Model.counterMedConditions++;	// add a unit to the counter
+		if(Model.deferDeaths) {
+			this.medConditionID = 0;			// the ID is given at the end of the parallel phase
+			Model.registerNewCondition(this);
+		}
+		else {
+			this.medConditionID = Model.counterMedConditions.getAndIncrement();	// add a unit to the counter
+		}
 		
 		this.patient = patient;
-		Model.context.add(this); 			
+		if(Model.detailsInContext) {
+			Model.addToContext(this); 			
+		}
 				
 		//Model.prevalence.put(ill, Model.prevalence.get(ill)+1); 
-		Model.incidence.put(ill, Model.incidence.get(ill)+1);
-		this.initialTick = (int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		Model.addIncidence(ill);
+		this.initialTick = Model.getCurrentTick();
 		this.wasTreated = false;
 		
-		//System.out.printf("\n\nI just created a new MC of type %s with initial severity:%s\n",this.illness.name,Arrays.toString(this.severity.toArray()));
+		//System.out.printf("\n\nI just created a new MC of type %s with initial severity:%s\n",this.illness.name,this.severity[0]);
 		
 	}
 	
+	/**
+	 * Drops the cured medical condition: deletes its links, removes it from the context and returns it to {@link Model#conditionPool}. 
+	 * The caller must have removed it from the list of the patient.
+	 */
+	public void release() {
+		if(Model.detailsInContext) {
+			Model.removeFromContext(this);
+		}
+		this.clear();
+		Model.conditionPool.release(this);
+	}
+	
 	// SCHEDULED METHODS
 		
 	// OTHER METHODS	
@@ -91,11 +147,11 @@ public class MedicalCondition {
 	 * @version 09-Nov-2018
 	 */
 	public double getCurrentSeverity(){
-		if(this.severity.get(0)<0.00001) {
+		if(this.severity[0]<0.00001) {
 			return 0.0;
 		}
 		else {
-			return Double.parseDouble(String.format("%.04f", this.severity.get(0))) ;
+			return Double.parseDouble(String.format("%.04f", this.severity[0])) ;
 		}
 		
 		
@@ -111,11 +167,11 @@ public class MedicalCondition {
 	 * @version 09-Nov-2018 (unit testing performed and passed)
 	 */
 	public double getSeverity(int t) {
-		if(t>this.severity.size()-1){
+		if(t>this.numSeverity-1){
 			return 0.0; //FIXME: this is potentially a problem given that we crop the memory
 		}
 		else{
-			return this.severity.get(t);
+			return this.severity[t];
 		}
 		
 	}
@@ -128,7 +184,7 @@ public class MedicalCondition {
 	 * 
 	 */
 	public int getDuration(){
-		int currentTick = (int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		int currentTick = Model.getCurrentTick();
 		int result = currentTick-this.initialTick+1; 
 		
 		//System.out.printf("getDuration(currentTick=%s,initialTick=%s,visibSym=%s)=%s\n",currentTick,this.initialTick,this.illness.visibilitySymptoms,result);
@@ -145,11 +201,11 @@ public class MedicalCondition {
 	 */
 	public void setCurrentSeverity(double value){
 			value = Math.max(0, value);
-			this.severity.add(0,value);
-			// Limit the severity array list to 3 entries
-			 while(this.severity.size()>3){
-				 this.severity.remove(3);
-			 }
+			// Keep the last 3 entries
+			this.severity[2] = this.severity[1];
+			this.severity[1] = this.severity[0];
+			this.severity[0] = value;
+			this.numSeverity = Math.min(3, this.numSeverity+1);
 		}
 	
 	/**
@@ -158,12 +214,12 @@ public class MedicalCondition {
 	 *If treatment was assigned by a Provider, the Patient's runningBudget is updated
 	 */
 	public void treat(){
-		//System.out.printf("I am treating medical condition %s ; Severity before=%s\n ", this.medConditionID,this.severity.get(0));
+		//System.out.printf("I am treating medical condition %s ; Severity before=%s\n ", this.medConditionID,this.severity[0]);
 		
 		if(this.treatment==null) { // NO treatment => no payment
-			double newSeverity = this.severity.get(0)+this.illness.deltaSeverityWoTreatment; 
+			double newSeverity = this.severity[0]+this.illness.deltaSeverityWoTreatment; 
 			this.setCurrentSeverity(newSeverity);
-			//System.out.printf("=> no treatment available, severity after: %s\n",this.severity.get(0));
+			//System.out.printf("=> no treatment available, severity after: %s\n",this.severity[0]);
 		}
 		else {
 			// There is a treatment available. Let's first see how much the patient can pay
@@ -188,22 +244,22 @@ public class MedicalCondition {
 				this.patient.totalMedicalExpenses += this.treatment.cost;*/
 				this.patient.payTreatment(this.treatment.cost,this.treatment.type,this.treatment.description);
 				// Add the cost of treatment to the data on cost of treatment
-				this.illness.currentCost += this.treatment.cost;
+				this.illness.addCost(this.treatment.cost);
 				
 				// Get treated
-				double newSeverity = this.severity.get(0)+this.treatment.deltaSeverityUnderTreatment;
+				double newSeverity = this.severity[0]+this.treatment.deltaSeverityUnderTreatment;
 				this.setCurrentSeverity(newSeverity);
 				this.wasTreated = true;
 				
-				//System.out.printf("Got the treatment %s, severity before: %s (max: %s min: %s)\n",this.treatment.description,this.severity.get(1),this.treatment.minSeverity,this.treatment.maxSeverity);
+				//System.out.printf("Got the treatment %s, severity before: %s (max: %s min: %s)\n",this.treatment.description,this.severity[1],this.treatment.minSeverity,this.treatment.maxSeverity);
 
 			
 				
 			}
 			else {
-				double newSeverity = this.severity.get(0)+this.illness.deltaSeverityWoTreatment; 
+				double newSeverity = this.severity[0]+this.illness.deltaSeverityWoTreatment; 
 				this.setCurrentSeverity(newSeverity);
-				//System.out.printf("=> treatment available, but no budget: %s\n",this.severity.get(0));
+				//System.out.printf("=> treatment available, but no budget: %s\n",this.severity[0]);
 			}
 			
 			
@@ -246,7 +302,9 @@ public class MedicalCondition {
 	 */
 	public void removeFromContext(){
 		this.patient.medConditions.remove(this);
-		Model.context.remove(this);
+		if(Model.detailsInContext) {
+			Model.removeFromContext(this);
+		}
 	}
 
 	/**
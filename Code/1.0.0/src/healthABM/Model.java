@@ -9,9 +9,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.LinkedHashMap;
-import java.util.Optional;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.Map.Entry;
 
@@ -20,27 +20,26 @@ import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.environment.RunState;
 import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.parameter.Parameters;
-import repast.simphony.random.RandomHelper;
 
 public class Model {
 	// Instance variables
-	/** Counter variable for unique insurance IDs*/
-	public static int counterInsurance;
+	/** Counter variable for unique insurance IDs (atomic, since patients may run in parallel, see {@link TickEngine})*/
+	public static final AtomicInteger counterInsurance = new AtomicInteger();
 	/** Counter variable for unique illness IDs*/
-	public static int counterIllness;
+	public static final AtomicInteger counterIllness = new AtomicInteger();
 	/** Counter variable for unique patient IDs*/
-	static int counterPatients;
-	/** Counter variable for unique provider IDs*/
+	static final AtomicInteger counterPatients = new AtomicInteger();
+	/** Counter variable for unique provider IDs (providers are only created by the initialiser)*/
 	static int counterProviders;
 	/** Counter variable for unique medical condition IDs*/
-	static int counterMedConditions;
+	static final AtomicInteger counterMedConditions = new AtomicInteger();
 	/** Counter variable for unique HIPlan IDs*/
-	static int counterHIPlans;
+	static final AtomicInteger counterHIPlans = new AtomicInteger();
 	
 	/** Context of the simulation */
 	public static Context<Object> context;
 	
-	public static boolean mandatoryInsurance = RunEnvironment.getInstance().getParameters().getBoolean("mandatoryInsurance");
+	public static boolean mandatoryInsurance;
 	
 	/**List of all existing Illnesses in model */
 	public static ArrayList<Illness> listIllnesses;
@@ -51,17 +50,11 @@ public class Model {
 	 */
 	public static LinkedHashMap<Integer, Double[]> expHCE;
 	
-	/** Intermediate information of aggregate log expenditures (updated by individuals) to compute HCE
-	 * <b>Key:</b> Age in years as integer, gender<br> 
-	 * <b>Value: </b> Array of doubles with individual expenditures of individuals of each group
+	/** Information of HCE per group (gender-age), updated with the annual expenditures of the patients (see {@link #updateGlobalLogExpenditures()})
+	 * <b>Index:</b> Age in years, gender (1: women, 0: men)<br> 
+	 * <b>Value: </b> Streaming mean, variance and percentile 95 of the group
 	 */
-	protected static  LinkedHashMap<Integer, LinkedHashMap<Integer, ArrayList<Double>>> logExpenditures; 
-	
-	/** Information of HCE per group (gender-age) updated with Model logExpenditures 
-	 * <b>Key:</b> Age in years as integer, gender (1: women, 0: men)<br> 
-	 * <b>Value: </b> Array of doubles with mean, variance and percentile 95 of the group
-	 */
-	protected static LinkedHashMap<Integer, LinkedHashMap<Integer, double[]>> HCE;
+	protected static ExpenditureStats[][] HCE;
 	
 	/** Number of new cases in one year */
 	//public static ArrayList<Integer> incidence = new ArrayList<Integer>(); 
@@ -76,7 +69,7 @@ public class Model {
 	public static double[] wtpParams = new double[3];
 	
 	/** Sensitivity parameter of probability of detecting the medical with respect to the number of medical conditions  (see eq:probabilityCorrectDiagnosis)*/ 
-	public static double alphaM = RunEnvironment.getInstance().getParameters().getDouble("alpha_M");
+	public static double alphaM;
 	
 	/** Database with the probability of having a given medical condition based on gender, age and education.
 	 * The key of the main HashMap is a three-element key containing [gender(0=male,1=female),ageMin,ageMax]. 
@@ -89,7 +82,7 @@ public class Model {
 	/** Memory for expected cost calculations (weeks) */
 	public static int memory = 52*5;
 	
-	Parameters params = RunEnvironment.getInstance().getParameters();
+	Parameters params = Model.getParameters();
 	
 	/**Variable that stores the tick in which the current year started*/
 	public static int currentYearStart = 1;
@@ -97,47 +90,113 @@ public class Model {
 	/** Database for the initial prevalence of the first generation of patients  */
 	protected static LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>> initialiserPrevalence = new LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>>();
 	
+	/** Weekly probability of getting each illness by gender and age in years (illnessProbability/52 as a dense table, used by {@link Patient#stepGetSick()}) */
+	protected static IllnessRates incidenceRates;
+	
+	/** Initial prevalence by gender and age in years (initialiserPrevalence as a dense table, used by the {@link Initialiser}) */
+	protected static IllnessRates prevalenceRates;
+	
 	/** Last current time-stamp, used in Model.timer()*/
 	private static long lastCurrentTime;
 	
+	/** TRUE if the model is driven by the {@link TickEngine} instead of the Repast scheduler */
+	private static boolean headless = false;
+	
+	/** Parameters of the run when the model is driven by the {@link TickEngine}*/
+	private static Parameters headlessParameters;
+	
+	/** Current tick when the model is driven by the {@link TickEngine} (-1 before the first tick, as in Repast)*/
+	static int headlessTick = -1;
+	
+	/** TRUE while patients are processed in parallel: patients who die are then only registered and replaced after the phase (see {@link #processDeaths()}),
+	 * and new medical conditions only get their ID after the phase (see {@link #assignConditionIDs()})*/
+	static volatile boolean deferDeaths = false;
+	
+	/** Patients who died during a parallel phase */
+	private static ArrayList<Patient> deaths = new ArrayList<Patient>();
+	
+	/** Medical conditions created during a parallel phase, without ID yet */
+	private static ArrayList<MedicalCondition> newConditions = new ArrayList<MedicalCondition>();
+	
+	/** First tick of the run: 0, or the tick after the saved state if the run was restored (see {@link Checkpoint})*/
+	static int firstTick = 0;
+	
+	/** TRUE if medical conditions and health insurance contracts are added to the context. They are only needed there by the data sets of 
+	 * Repast (GUI/batch), not by the headless {@link TickEngine}*/
+	static boolean detailsInContext = true;
+	
+	/** Cured medical conditions, to be reused (see {@link MedicalCondition#create(Illness, double, Patient)})*/
+	static ObjectPool<MedicalCondition> conditionPool = new ObjectPool<MedicalCondition>();
+	
+	/** Ended health insurance contracts, to be reused (see {@link HealthInsurance#create(HIPlan, Patient)})*/
+	static ObjectPool<HealthInsurance> contractPool = new ObjectPool<HealthInsurance>();
+	
+	/** Primitive variables of all patients (see {@link PatientTable})*/
+	static PatientTable patients = new PatientTable();
+	
+	/** Scheduled onsets of illnesses if the onset is event-driven (parameter incidenceMode=event), null if patients get sick in weekly trials */
+	static OnsetScheduler onsets = null;
+	
+	/** Grid of the providers, to find the providers visible to a patient (built by the {@link Initialiser})*/
+	static ProviderIndex providerIndex = null;
+	
+	/** Transport costs of all patients to all providers (built by the {@link Initialiser})*/
+	static TransportCostMatrix transportCosts = null;
+	
+	/** Health insurance plans by gender and age (built by the {@link Initialiser}, and again when the offer changes)*/
+	static PlanIndex planIndex = null;
+	
+	/** Susceptible patients by cohort if the onset is drawn by cohort (parameter incidenceMode=cohort), null otherwise */
+	static CohortIncidence cohorts = null;
+	
+	/** Claim-level log of the run (parameter claimsLogFile, opened by the {@link Initialiser}), null if there is no log */
+	static ClaimsLog claimsLog = null;
+	
 
 	
 	
 	
 	
 	public Model(){
-		counterInsurance = 1;
-		counterPatients = 1;
+		firstTick = 0;
+		patients = new PatientTable();
+		conditionPool = new ObjectPool<MedicalCondition>();
+		contractPool = new ObjectPool<HealthInsurance>();
+		detailsInContext = !headless;
+		counterInsurance.set(1);
+		counterPatients.set(1);
 		counterProviders = 1;
-		counterMedConditions = 1;
-		counterHIPlans = 1;
+		counterMedConditions.set(1);
+		counterHIPlans.set(1);
 		
 		listIllnesses = new ArrayList<Illness>();
 		
 		incidence 	= new LinkedHashMap<Illness,Integer>();
 		initialiserPrevalence = new LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>>();
 		illnessProbability = new LinkedHashMap<Integer[], LinkedHashMap<Illness,Double>>();
-		loadDataExpectedHCE();
-		mandatoryInsurance = RunEnvironment.getInstance().getParameters().getBoolean("mandatoryInsurance");
-		int randomSeed = RunEnvironment.getInstance().getParameters().getInteger("randomSeed");
+		// Illnesses, incidence, prevalence and expected HCE (imported once per input folder)
+		Catalogue.get(params.getString("inputfolder")).install();
+		mandatoryInsurance = params.getBoolean("mandatoryInsurance");
+		alphaM = params.getDouble("alpha_M");
+		int randomSeed = params.getInteger("randomSeed");
 		udist = new Random(randomSeed);
+		RandomStreams.setSeed(randomSeed);
+		onsets = OnsetScheduler.isEventMode(params) ? new OnsetScheduler() : null;
+		cohorts = CohortIncidence.isCohortMode(params) ? new CohortIncidence() : null;
+		providerIndex = null;
+		transportCosts = null;
+		planIndex = null;
+		closeClaimsLog();
 
 		wtpParams[0] = params.getDouble("wtpAlpha");
 		wtpParams[1] = params.getDouble("wtpBeta");
 		wtpParams[2] = params.getDouble("wtpGamma");
 		
-		Model.logExpenditures 	= new LinkedHashMap<Integer, LinkedHashMap<Integer, ArrayList<Double>>>();
-		Model.HCE 				= new LinkedHashMap<Integer, LinkedHashMap<Integer, double[]>>();
-		
+		int window = ExpenditureStats.getWindow(params);
+		Model.HCE = new ExpenditureStats[150][2];
 		for(int i = 0; i < 150; i++){
-			LinkedHashMap<Integer, ArrayList<Double>> exp = new LinkedHashMap<Integer, ArrayList<Double>>(); 
-			LinkedHashMap<Integer, double[]>stats = new LinkedHashMap<Integer, double[]>();
-			exp.put(0,null);
-			exp.put(1,null);
-			stats.put(1, null);
-			stats.put(0, null);
-			logExpenditures.put(i, exp);
-			HCE.put(i, stats);
+			HCE[i][0] = new ExpenditureStats(window);
+			HCE[i][1] = new ExpenditureStats(window);
 		}
 			
 	}
@@ -146,15 +205,24 @@ public class Model {
 	
 	@ScheduledMethod(start=1,interval=52,priority=4,shuffle=true)
 	public void resetYearStart() {
-		Model.currentYearStart = (int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		Model.currentYearStart = Model.getCurrentTick();
 	}
 
 	//STEP 100 stepResetModel()
 	/**This method prints the current tick in the model and resets (to 0) the incidence rates for the current tick  and everz 52 ticks the prevalence tick*/
 	@ScheduledMethod(start=0,interval=1,priority=100,shuffle=true) 
 	public void stepResetModel(){
+		// Save the state of the previous tick (parameter checkpointTick)
+		int checkpointTick = Checkpoint.getCheckpointTick(params);
+		if(checkpointTick>0 && checkpointTick==Model.getCurrentTick()-1) {
+			Checkpoint.save(Checkpoint.getCheckpointFile(params), Model.context, checkpointTick);
+		}
+		
 		Model.timer("Init of tick",false);
-		if(RunEnvironment.getInstance().isBatch()) {
+		if(Model.headless) {
+			System.out.printf("Start of Tick %s\n", Model.getCurrentTick());
+		}
+		else if(RunEnvironment.getInstance().isBatch()) {
 			System.out.printf("Start of Tick %s of run %s\n", RunEnvironment.getInstance().getCurrentSchedule().getTickCount(),RunState.getInstance().getRunInfo().getRunNumber());
 		}
 		else {
@@ -192,10 +260,33 @@ public class Model {
 	public void step_timer85() {
 		Model.timer("End step contract insurance",false);
 	}
+	//STEP 080 stepIllnessOnsets()
+	/**Event-driven onset of illnesses (parameter incidenceMode=event): creates the medical conditions whose onset is due in this tick. 
+	 * Onset by cohort (incidenceMode=cohort): draws the new cases of each cohort.
+	 * Replaces the weekly trials of {@link Patient#stepGetSick()}, see {@link OnsetScheduler} and {@link CohortIncidence}*/
+	@ScheduledMethod(start=1,interval=1,priority=80,shuffle=true)
+	public void stepIllnessOnsets() {
+		if(Model.onsets!=null) {
+			Model.onsets.processTick(Model.getCurrentTick());
+		}
+		if(Model.cohorts!=null) {
+			Model.cohorts.processTick(Model.getCurrentTick());
+		}
+	}
+	
 	@ScheduledMethod(start=0,interval=1,priority=75,shuffle=true)
 	public void step_timer75() {
 		Model.timer("End get sick",false);
 	}
+	//STEP 071 stepRefreshProviderCapacity()
+	/**Marks the providers that have no capacity left before the patients get medical care (see {@link ProviderIndex#isFull(int)})*/
+	@ScheduledMethod(start=1,interval=1,priority=71,shuffle=false)
+	public void stepRefreshProviderCapacity() {
+		if(Model.providerIndex!=null) {
+			Model.providerIndex.refreshFull();
+		}
+	}
+	
 	@ScheduledMethod(start=0,interval=1,priority=65,shuffle=true)
 	public void step_timer65() {
 		Model.timer("End step get medical care",false);
@@ -206,7 +297,8 @@ public class Model {
 	}
 
 	//STEP 055 updateHCEexpenditures()
-	/**This method loops over Model.logExpenditures and update HCE values: mean, variance, 95 percentile
+	/**This method loops over the groups of Model.HCE and publishes their current values: mean, variance, 95 percentile.
+	 * The values are kept up to date by {@link #updateGlobalLogExpenditures()}, hence this only takes constant time per group.
 	 * @version 19-Feb-2019 (unit testing passed)
 	 * @author Georgina
 	 */
@@ -214,77 +306,39 @@ public class Model {
 	public void updateHCEexp(){
 		for(int i = 1; i < 150; i++) { // loop over all age-
 			for(int j = 0; j < 2;  j++) { //gender groups
-				// And compute group mean, variance and 95 percentile
-				if(Optional.ofNullable(logExpenditures.get(i).get(j)).isPresent()){
-					
-					//Mean
-					double mean = 
-							 logExpenditures.get(i).get(j).stream().mapToDouble((x) -> x).summaryStatistics().getAverage();
-					//System.out.printf("\nMean for this group is %s\n", mean); 
-				
-					 ArrayList<Double> ssx = new ArrayList<Double>();
-					 for(double expenditure: logExpenditures.get(i).get(j)) {
-						  ssx.add(Math.pow(expenditure - mean, 2));
-					 }
-					 
-					 //Variance
-					 double variance = 0;
-					 if(logExpenditures.get(i).get(j).size()>1){
-						 variance = ssx.stream().mapToDouble((x)->x).summaryStatistics().getSum() / (ssx.size()- 1.0);
-					 }
-					 //System.out.printf("\nStandard deviation for this group is %s\n", (variance)); 
-					 
-					 //Percentile 95
-					 Collections.sort(logExpenditures.get(i).get(j));
-					 double p95 =  			 
-							 logExpenditures.get(i).get(j).get((int)Math.floor(logExpenditures.get(i).get(j).size()*0.95));
-	
-					 double[] statistics = {mean, variance, p95};
-					 LinkedHashMap<Integer, double[]> updateValue = new LinkedHashMap<Integer, double[]>();
-					 Integer p = (j == 1) ? 1: 0;
-					 updateValue.put(p, statistics);
-					 HCE.put(i, updateValue);
-				}
- 
+				HCE[i][j].publish();
 			} // end loop over gender
 		} // end of loop over age	
-		//System.out.printf("HCE log: %s",HCE.toString());
 	}
 	
 	//STEP 093: updateGlobalLogExpenditures
 	/**
 	 * This method loops over patients and adds their total expenditures from the last year 
-	 * to an arrayList with the age, gender and expenditure of each patient.
+	 * to the statistics of their age-gender group (Model.HCE). With a window (parameter expenditureWindow) the values
+	 * of the oldest tick of the window are removed first.
 	 */
 	@ScheduledMethod(start = 1, interval = 1, priority = 93, shuffle = true) 
 	public void updateGlobalLogExpenditures(){ 	
-		for(Object o: context.getObjects(Patient.class)){
-			Patient p = (Patient)o;
+		for(ExpenditureStats[] group: HCE) {
+			group[0].nextTick();
+			group[1].nextTick();
+		}
+		// Loop over the rows of the patient table (columns instead of patient objects)
+		PatientTable t = Model.patients;
+		for(int row = 0; row < t.size(); row++){
 			
-			if(!p.annualExpentitures.isEmpty()) {
+			if(t.isUsed(row) && t.annualCount[row]>0) {
 				
 	
-				// find the newest entry and save it to 'totalExpenditure'
-				int newest=-9999;
-				for(int key: p.annualExpentitures.keySet()) {
-					if(key>newest) {
-						newest = key;
-					}
-				}
-				double totalExpenditure = p.annualExpentitures.get(newest); 
+				// the newest entry is the first one of the log: save it to 'totalExpenditure'
+				double totalExpenditure = t.getAnnualExpenditures(row, 0); 
+				int age = t.age[row]/52;
+				int gender = t.female[row] ? 1 : 0;
 				
 					
 				//System.out.printf("\nTotal expenditure of patient %s is %s", p.ID, totalExpenditure);	
 				
-				if(logExpenditures.get(p.age/52).get(p.genderToInteger())!=null) { 
-					
-					logExpenditures.get(p.age/52).get(p.genderToInteger()).add(totalExpenditure);
-					
-				}else {//Group does not contain any value for group of patient 
-					ArrayList<Double> expenditures = new ArrayList<Double>();
-					expenditures.add(totalExpenditure);
-					logExpenditures.get(p.age/52).put(p.genderToInteger(), expenditures);
-				}
+				HCE[age][gender].add(totalExpenditure);
 				
 			}
 
@@ -302,12 +356,14 @@ public class Model {
 	 * 	<li>Second row: expected health care expenditures for women</li>
 	 * 	<li>Second row: expected health care expenditures for men</li>
 	 * </ul>
+	 * The data is imported once per input folder by the {@link Catalogue}.
+	 * @param inputfolder folder containing expHCE.csv
+	 * @return LinkedHashMap with the age as key and the expenditures {female,male} as value
 	 */
-	private void loadDataExpectedHCE() {
+	static LinkedHashMap<Integer,Double[]> loadDataExpectedHCE(String inputfolder) {
 		
-				Model.expHCE = new LinkedHashMap<Integer,Double[]>(); 
+				LinkedHashMap<Integer,Double[]> expHCE = new LinkedHashMap<Integer,Double[]>(); 
 		// Start defining the necessary objects for the input
-				String inputfolder = params.getString("inputfolder");
 
 				String path = inputfolder+"/expHCE.csv"; 	// Define the location of the file
 				
@@ -333,11 +389,11 @@ public class Model {
 					double male  		= Double.parseDouble(scanner.next()); 	// convert the string to a double
 					
 					Double[] exp = {female,male};
-					Model.expHCE.put(age, exp);
+					expHCE.put(age, exp);
 					//System.out.printf("%s => [%s,%s] (Now the size of the map is: %s\n",age,female,male,Model.expHCE.size());
 		}
 				
-		
+		return expHCE;
 		
 	}
 	
@@ -371,7 +427,7 @@ public class Model {
  * @return average HC expenditures for the population of patients grouped by gender, age
  */
 	public static double getAvgExpenPop(int gender, int age) {
-		return Model.HCE.get(age/52).get(gender)[0];
+		return Model.HCE[age/52][gender].getPublishedMean();
 	}
 	
 /**
@@ -381,7 +437,7 @@ public class Model {
  * @return Populational variance of HC expenditures grouped by age, gender
  */
 	public static double getVarianceExpenPop(int gender, int age) {
-		return Model.HCE.get(age/52).get(gender)[1];
+		return Model.HCE[age/52][gender].getPublishedVariance();
 	}
 	
 /**
@@ -391,11 +447,8 @@ public class Model {
  * @return The 95th percentile of HC expenditures grouped by age, gender
  */
 	public static double getP95ExpenPop(int gender, int age) {
-		
-		boolean exists =  Optional.ofNullable(HCE.get(age/52)).isPresent() && Optional.ofNullable(Model.HCE.get(age/52).get(gender)).isPresent();
-
-		if(exists) {
-			return Model.HCE.get(age/52).get(gender)[2];			
+		if(age/52<Model.HCE.length) {
+			return Model.HCE[age/52][gender].getPublishedP95();	// 0 if the group has no values yet
 		} else {
 			return 0.0;
 		}
@@ -415,18 +468,148 @@ public class Model {
 		double stat= -99.0;
 		switch(statistic) {
 			case 1:
-				stat=HCE.get(age/52).get(gender)[0];
+				stat=HCE[age/52][gender].getPublishedMean();
 				break;
 			case 2:
-				stat=HCE.get(age/52).get(gender)[1];
+				stat=HCE[age/52][gender].getPublishedVariance();
 				break;
 			case 3:
-				stat=HCE.get(age/52).get(gender)[2];
+				stat=HCE[age/52][gender].getPublishedP95();
 				break;
 		}
 		return stat;
 	}
 	
+	/**
+	 * Returns the parameters of the current run. Use this method instead of RunEnvironment.getInstance().getParameters(), 
+	 * since it also works when the model is driven by the {@link TickEngine}.
+	 * @return parameters of the current run
+	 */
+	public static Parameters getParameters() {
+		if(Model.headless) {
+			return Model.headlessParameters;
+		}
+		return RunEnvironment.getInstance().getParameters();
+	}
+	
+	/**
+	 * Returns the current tick. Use this method instead of the Repast schedule, since it also works when the model is driven 
+	 * by the {@link TickEngine}.
+	 * @return current tick as int (-1 before the first tick)
+	 */
+	public static int getCurrentTick() {
+		if(Model.headless) {
+			return Model.headlessTick;
+		}
+		return (int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+	}
+	
+	/**
+	 * @return TRUE if the model runs without GUI (Repast batch mode or {@link TickEngine})
+	 */
+	public static boolean isBatch() {
+		return Model.headless || RunEnvironment.getInstance().isBatch();
+	}
+	
+	/** Writes the rest of the claims log of the run and closes it (nothing happens if there is no log) */
+	static void closeClaimsLog() {
+		if(Model.claimsLog!=null) {
+			Model.claimsLog.close();
+			Model.claimsLog = null;
+		}
+	}
+	
+	/**
+	 * @return TRUE if the model is driven by the {@link TickEngine} instead of the Repast scheduler
+	 */
+	public static boolean isHeadless() {
+		return Model.headless;
+	}
+	
+	/**
+	 * Switches the model to headless mode (see {@link TickEngine}). Must be called before the {@link Initialiser} builds the context.
+	 * @param params Parameters of the run
+	 */
+	static void setHeadless(Parameters params) {
+		Model.headless = true;
+		Model.headlessParameters = params;
+		Model.headlessTick = -1;
+	}
+	
+	/**
+	 * Adds an object to the context. Use this method (instead of context.add) for all objects created while patients may run in parallel.
+	 * @param o object to be added
+	 */
+	public static void addToContext(Object o) {
+		synchronized(Model.context) {
+			Model.context.add(o);
+		}
+	}
+	
+	/**
+	 * Removes an object from the context. Use this method (instead of context.remove) for all objects removed while patients may run in parallel.
+	 * @param o object to be removed
+	 */
+	public static void removeFromContext(Object o) {
+		synchronized(Model.context) {
+			Model.context.remove(o);
+		}
+	}
+	
+	/**
+	 * Adds a new case of the illness to {@link #incidence}
+	 * @param ill Illness
+	 */
+	public static void addIncidence(Illness ill) {
+		synchronized(Model.incidence) {
+			Model.incidence.put(ill, Model.incidence.get(ill)+1);
+		}
+	}
+	
+	/**
+	 * Registers a patient who died during a parallel phase. The patient is replaced by {@link #processDeaths()} at the end of the phase.
+	 * @param p Patient who died
+	 */
+	static void registerDeath(Patient p) {
+		synchronized(Model.deaths) {
+			Model.deaths.add(p);
+		}
+	}
+	
+	/**
+	 * Registers a medical condition created during a parallel phase. It gets its ID from {@link #assignConditionIDs()} at the end of the phase.
+	 * @param mc new medical condition
+	 */
+	static void registerNewCondition(MedicalCondition mc) {
+		synchronized(Model.newConditions) {
+			Model.newConditions.add(mc);
+		}
+	}
+	
+	/**
+	 * Gives the IDs to the medical conditions created during the last parallel phase, by increasing patient ID and illness ID, hence
+	 * the IDs do not depend on the number of threads.
+	 */
+	static void assignConditionIDs() {
+		Collections.sort(Model.newConditions, (a, b) -> a.patient.ID!=b.patient.ID ? Integer.compare(a.patient.ID, b.patient.ID) : Integer.compare(a.illness.id, b.illness.id));
+		for(MedicalCondition mc: Model.newConditions) {
+			mc.medConditionID = Model.counterMedConditions.getAndIncrement();
+		}
+		Model.newConditions.clear();
+	}
+	
+	/**
+	 * Replaces all patients who died during the last parallel phase (see {@link Patient#die()}). The patients are processed by increasing ID, 
+	 * hence the result does not depend on the number of threads. 
+	 */
+	static void processDeaths() {
+		Collections.sort(Model.deaths, (a, b) -> Integer.compare(a.ID, b.ID));
+		for(Patient p: Model.deaths) {
+			p.die();
+		}
+		Model.deaths.clear();
+	}
+	
 	/**
 	 * Static method to save a log file to the root directory of the project. 
 	 * @param append If TRUE, then a new file is started (overwriting the old one)
@@ -469,7 +652,7 @@ public class Model {
 	
 
 	public static void timer(String text, boolean startNew) { 
-		if(!RunEnvironment.getInstance().isBatch()) {
+		if(!Model.isBatch()) {
 		String path = System.getProperty("user.dir");
 		
 		path+="/timer.txt";
@@ -492,7 +675,7 @@ public class Model {
 						
 						
 					
-						int tick = (int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+						int tick = Model.getCurrentTick();
 						
 						// Header will be created by the initialiser
 						output_log.format("%s\t%7.5f\t%s\n",tick,(double)duration/1000,text);
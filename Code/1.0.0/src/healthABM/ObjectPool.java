@@ -0,0 +1,37 @@
+package healthABM;
+
+import java.util.ArrayList;
+
+/**
+ * Stack of objects that are no longer used and can be reset and reused (e.g. cured {@link MedicalCondition}s, ended {@link HealthInsurance}
+ * contracts), so that a run in steady state creates almost no new objects. The methods are synchronized, since objects are obtained and
+ * released in the parallel phases of the {@link TickEngine}.
+ * @param <T> type of the objects
+ */
+public class ObjectPool<T> {
+
+	private final ArrayList<T> free = new ArrayList<T>();
+
+
+	/**
+	 * Takes an object from the pool
+	 * @return an unused object (to be reset by the caller), null if the pool is empty
+	 */
+	public synchronized T obtain() {
+		int n = this.free.size();
+		return n==0 ? null : this.free.remove(n-1);
+	}
+
+	/**
+	 * Returns an object to the pool. The object must not be referred to anymore.
+	 * @param o unused object
+	 */
+	public synchronized void release(T o) {
+		this.free.add(o);
+	}
+
+	/** @return number of objects in the pool */
+	public synchronized int size() {
+		return this.free.size();
+	}
+}
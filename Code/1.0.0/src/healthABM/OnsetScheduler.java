@@ -0,0 +1,233 @@
+package healthABM;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Event-driven onset of illnesses (parameter incidenceMode=event). Instead of one trial per patient, illness and week in
+ * {@link Patient#stepGetSick()}, the tick of the next onset of each illness is sampled once per patient and kept in a priority queue.
+ * In each tick only the due onsets are processed ({@link Model#stepIllnessOnsets()}).<br>
+ * The number of weeks until the onset is geometric with the weekly probability of {@link Patient#stepGetSick()} (annual rate/52), hence
+ * both modes have the same distribution of onsets (but not the same random draws). The sample is only valid as long as the probability
+ * does not change; it is drawn again when:
+ * <ul>
+ * 	<li>the patient enters a new age group of {@link Model#illnessProbability} (an event without illness is scheduled for that tick)</li>
+ * 	<li>the patient is cured of the illness ({@link #scheduleIllness(Patient, Illness, int)}); while the patient has the illness no onset is scheduled</li>
+ * 	<li>the patient dies ({@link #cancel(Patient)}) or is created ({@link #schedule(Patient, int, int)})</li>
+ * </ul>
+ * Events that are no longer valid stay in the queue and are skipped: each event carries the {@link Patient#onsetVersion} of the patient at
+ * the time it was scheduled.<br>
+ * The order of the events (tick, age groups first, patient ID, illness ID) does not depend on the order of the calls, hence the methods may
+ * be called from the parallel phases of the {@link TickEngine}.
+ */
+public class OnsetScheduler {
+
+	/** Scheduled events */
+	private final PriorityQueue<Onset> queue = new PriorityQueue<Onset>();
+
+	/** Size of the queue after the last removal of invalid events */
+	private int sizeAfterCleanup = 0;
+
+
+	/**
+	 * @param params Parameters of the run
+	 * @return TRUE if the onset of illnesses is event-driven (parameter incidenceMode=event, default: weekly)
+	 */
+	public static boolean isEventMode(Parameters params) {
+		try {
+			String mode = params.getString("incidenceMode");
+			return mode!=null && mode.trim().equalsIgnoreCase("event");
+		}
+		catch(IllegalParameterException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Samples the onsets of all illnesses the patient does not have, replacing all events scheduled before for this patient
+	 * @param p Patient
+	 * @param tick first tick in which the patient may get sick
+	 * @param age age of the patient (weeks) in this tick
+	 */
+	public synchronized void schedule(Patient p, int tick, int age) {
+		p.onsetVersion++;
+		Integer[] group = ageGroup(p.genderToInteger(), age/52);
+		int end = groupEnd(group, tick, age);
+		this.queue.add(new Onset(end, p, null, p.onsetVersion));
+		if(group==null) {
+			return;
+		}
+		for(Map.Entry<Illness,Double> e: Model.illnessProbability.get(group).entrySet()) {
+			if(!hasIllness(p, e.getKey())) {
+				this.add(p, e.getKey(), e.getValue(), tick, end);
+			}
+		}
+		this.cleanup();
+	}
+
+	/**
+	 * Samples the next onset of one illness (e.g. after the patient was cured). The other events of the patient remain valid.
+	 * @param p Patient (age in the current tick)
+	 * @param illness Illness
+	 * @param tick first tick in which the patient may get the illness again
+	 */
+	public synchronized void scheduleIllness(Patient p, Illness illness, int tick) {
+		Integer[] group = ageGroup(p.genderToInteger(), p.getAge()/52);
+		if(group==null) {
+			return;
+		}
+		Double rate = Model.illnessProbability.get(group).get(illness);
+		if(rate!=null) {
+			this.add(p, illness, rate, tick, groupEnd(group, tick, p.getAge()));
+		}
+	}
+
+	/**
+	 * Invalidates all events of the patient (e.g. when the patient dies)
+	 * @param p Patient
+	 */
+	public synchronized void cancel(Patient p) {
+		p.onsetVersion++;
+	}
+
+	/**
+	 * Processes all events due in the given tick: new medical conditions for the onsets, new samples for the patients who enter a new age group.
+	 * @param tick current tick
+	 */
+	public synchronized void processTick(int tick) {
+		while(!this.queue.isEmpty() && this.queue.peek().tick<=tick) {
+			Onset e = this.queue.poll();
+			if(e.version!=e.patient.onsetVersion) {
+				continue;		// replaced or cancelled
+			}
+			if(e.illness==null) {
+				this.schedule(e.patient, tick, e.patient.getAge());
+			}
+			else if(!hasIllness(e.patient, e.illness)) {
+				e.patient.medConditions.add(MedicalCondition.create(e.illness, e.illness.initialSeverity, e.patient));
+			}
+		}
+	}
+
+	/** @return TRUE if no event is scheduled */
+	public boolean isEmpty() {
+		return this.queue.isEmpty();
+	}
+
+	/**
+	 * Returns the valid events (for the {@link Checkpoint})
+	 * @return one array {tick, patient, illness (null: new age group), version} per event
+	 */
+	Object[] save() {
+		ArrayList<Object> events = new ArrayList<Object>();
+		for(Onset e: this.queue) {
+			if(e.version==e.patient.onsetVersion) {
+				events.add(new Object[] {e.tick, e.patient, e.illness, e.version});
+			}
+		}
+		return events.toArray();
+	}
+
+	/**
+	 * Adds the events saved by {@link #save()}. The patients must be restored before (version).
+	 * @param events saved events
+	 */
+	void load(Object[] events) {
+		for(Object o: events) {
+			Object[] e = (Object[]) o;
+			this.queue.add(new Onset((Integer) e[0], (Patient) e[1], (Illness) e[2], (Integer) e[3]));
+		}
+		this.sizeAfterCleanup = this.queue.size();
+	}
+
+	/**
+	 * Schedules the onset of an illness after a geometric number of weeks (first success of the weekly trials). Onsets after the
+	 * end of the age group are not scheduled, since a new sample is drawn then.
+	 */
+	private void add(Patient p, Illness illness, double rate, int tick, int end) {
+		double prob = rate/52.0;
+		if(prob<=0) {
+			return;
+		}
+		double weeks = 0;
+		if(prob<1) {
+			double u = RandomStreams.uniform(p.ID, tick, RandomStreams.ONSET, illness.id);
+			weeks = Math.floor(Math.log(1-u)/Math.log(1-prob));
+		}
+		if(tick+weeks<end) {
+			this.queue.add(new Onset(tick+(int) weeks, p, illness, p.onsetVersion));
+		}
+	}
+
+	/** Removes the invalid events when the queue has doubled since the last cleanup */
+	private void cleanup() {
+		if(this.queue.size()<2*this.sizeAfterCleanup+1024) {
+			return;
+		}
+		this.queue.removeIf(e -> e.version!=e.patient.onsetVersion);
+		this.sizeAfterCleanup = this.queue.size();
+	}
+
+	/**
+	 * Returns the key of {@link Model#illnessProbability} for the gender and age (same rule as {@link Patient#stepGetSick()})
+	 * @return the key, null if there is no group for this gender and age
+	 */
+	private static Integer[] ageGroup(int genderInt, int ageYears) {
+		for(Integer[] e: Model.illnessProbability.keySet()) {
+			if(e[0]==genderInt && e[1]<=ageYears && e[2]>=ageYears) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/** @return the first tick after the age group (if there is no group, the next birthday) */
+	private static int groupEnd(Integer[] group, int tick, int age) {
+		if(group==null) {
+			return tick + 52 - age%52;
+		}
+		return tick + (group[2]+1)*52 - age;
+	}
+
+	private static boolean hasIllness(Patient p, Illness illness) {
+		for(MedicalCondition mc: p.medConditions) {
+			if(mc.illness==illness) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Scheduled event: onset of an illness, or new age group of the patient (illness==null) */
+	private static class Onset implements Comparable<Onset> {
+		final int tick;
+		final Patient patient;
+		final Illness illness;
+		final int version;
+
+		Onset(int tick, Patient patient, Illness illness, int version) {
+			this.tick = tick;
+			this.patient = patient;
+			this.illness = illness;
+			this.version = version;
+		}
+
+		@Override
+		public int compareTo(Onset o) {
+			if(this.tick!=o.tick) {
+				return Integer.compare(this.tick, o.tick);
+			}
+			if((this.illness==null)!=(o.illness==null)) {
+				return this.illness==null ? -1 : 1;
+			}
+			if(this.patient.ID!=o.patient.ID) {
+				return Integer.compare(this.patient.ID, o.patient.ID);
+			}
+			return this.illness==null ? 0 : Integer.compare(this.illness.id, o.illness.id);
+		}
+	}
+}
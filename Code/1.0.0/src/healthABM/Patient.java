@@ -2,20 +2,15 @@ package healthABM;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashSet; 
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Map.Entry;
 import repast.simphony.context.Context;
-import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.parameter.Parameters;
 import repast.simphony.query.space.continuous.ContinuousWithin;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.space.continuous.ContinuousSpace;
 import repast.simphony.space.continuous.NdPoint;
-import repast.simphony.util.ContextUtils;
 
 public class Patient {
 	
@@ -23,23 +18,60 @@ public class Patient {
 	protected static double incomeSesThreshold;
 
 	// INSTANCE VARIABLES
-	/** Capital (savings) of the individual */
-	private double 							capital;
+	// Capital, age, gender, income, tolerance, risk aversion, wtp, out-of-pocket and annual expenditures and the location are stored in
+	// the columns of Model.patients (see PatientTable), in the row of this patient
 	
-	/** Spatial Location*/
-	private ContinuousSpace <Object> 		location;
+	/** Row of the patient in {@link Model#patients}*/
+	int 									row;
 	
 	/**Identifier for Patients */
 	protected int 							ID;
 	
-	/** Age in weeks */
-	protected int 							age;
+	/** Version of the onsets scheduled for this patient (see {@link OnsetScheduler}). Events with an older version are ignored */
+	int 									onsetVersion;
 	
-	/** Gender: true: female, false: male*/
-	protected final boolean 				female;
+	/** Weekly probabilities of the illnesses for the age of the patient (row of {@link Model#incidenceRates}, not saved, refreshed on birthdays)*/
+	private transient double[] 				incidenceRow;
 	
-	/** Weekly income (=income per tick)*/
-	protected final double 					income;
+	/** Age in years of incidenceRow */
+	private transient int 					incidenceAge;
+	
+	/** Position of the patient in the lists of susceptible patients of its cohort by {@link Illness#index} (see {@link CohortIncidence}, -1: not in the list)*/
+	transient int[] 						cohortPos;
+	
+	/** Cohort of the patient in {@link CohortIncidence} (-1: none)*/
+	transient int 							cohortCell = -1;
+	
+	/** TRUE if the lists of the {@link CohortIncidence} must be updated for this patient */
+	transient boolean 						cohortDirty;
+	
+	/** Best affordable providers of the current tick, best first (see {@link #rankVisitProviders()}, not saved)*/
+	private transient Provider[] 			candidates;
+	
+	/** Visit cost, trust, rank (tie-break) and position in the {@link ProviderIndex} of the candidates */
+	private transient double[] 				candidateCost, candidateTrust;
+	private transient int[] 				candidateRank, candidatePosition;
+	
+	/** Number of candidates, and number of candidates (at the start) trusted at least as much as the family doctor */
+	private transient int 					numCandidates, numPreferred;
+	
+	/** TRUE if affordable providers were left out of the candidates (at most {@link #MAX_CANDIDATES})*/
+	private transient boolean 				candidatesTruncated;
+	
+	/** Family doctor if the patient visits him without looking for another provider (directVisit) or if no better candidate is available (fallback)*/
+	private transient Provider 				directVisit, fallback;
+	
+	/** Willingness to pay, limited by the capital, of the current tick */
+	private transient double 				realWTP;
+	
+	/** Visit costs of the current tick by provider (see {@link #getVisitCost(Provider)}, null until needed)*/
+	private transient VisitCostCache 		visitCosts;
+	
+	/** Plan selected in the open enrollment, until the contract is made (see {@link #stepContractInsurance()})*/
+	private transient HIPlan 				selectedPlan;
+	
+	/** Maximum number of candidates kept by {@link #rankVisitProviders()} */
+	private static final int 				MAX_CANDIDATES = 8;
 	
 	/** Insurance plans that an individual has currently*/
 	private ArrayList<HealthInsurance> 		insurance;
@@ -53,19 +85,10 @@ public class Patient {
 	/** List of diseases that patient has */
 	protected ArrayList<MedicalCondition> 	medConditions = new ArrayList<MedicalCondition>(); 
 	
-	/** Aversion to risk: 1 totally risk averse, 0 no risk aversion */
-	protected double 						riskAversion;
-	
-	/** Out of Pocket Expenditures*/
-	double 									OOPExp;
-	
 	/** List of Providers that patient has visited and rated at least once, and their scores (well diagnosed/ all diagnosed).<br><br>
 	 *  <b>HashMap</b>&lt;Provider,int[number of good diagnosis, total number of diagnosis]&gt;>*/
 	private LinkedHashMap<Provider,int[]> 		experience= new LinkedHashMap<Provider,int[]>();
 	
-	/** Patient's tolerance to health severity*/
-	double 							tolerance;
-
 	/** Array list with all the other individuals in the social network*/
 	//protected ArrayList<Patient> 			socialNetwork;
 	
@@ -75,9 +98,6 @@ public class Patient {
 	/** Perceived medical needs. This value is updated each tick by {@link #getPerceivedMedicalNeeds()} within the scheduled method {@link #stepGetMedicalCare()} */
 	protected double 						perceivedMedicalNeeds;
 	
-	/** Willingness to pay registered during the current tick*/
-	protected double 						wtp;
-	
 	/** Expected costs that patient facing in decision to visit provider*/
 	protected double 						expectedOOPExp;
 	
@@ -96,18 +116,20 @@ public class Patient {
 	
 	
 
-	protected double ytd_expenditures;
-	protected LinkedHashMap<Integer,Double> annualExpentitures;
 	/** Health status after getSick() before treat(), visible */
 	protected double visibleHealthStatusBeforeTreat;
 	
 	/** Health status after getSick() before treat(), all */
 	protected double healthStatusBeforeTreat;
 	
-	Parameters params = RunEnvironment.getInstance().getParameters();
 	
 	
 	// CONSTRUCTOR
+	/** Empty constructor, only used to restore a saved state (see {@link Checkpoint}) */
+	Patient(){
+		
+	}
+	
 	/** Constructor for the patient
 	 * @param income as double: put here the monthly income. It will automatically be converted to weekly (by tick) income. 
 	 * @param age as double
@@ -117,25 +139,23 @@ public class Patient {
 	 * @param location location as ContinuousSpace
 	 * */
 	public Patient (double income, int age, boolean female, double healthStatus, double tol, ContinuousSpace<Object> location){
-		this.location 	= location;
-		this.income 	= income * 12 / 52;  // Convert the monthly income to weekly income
-		this.age 		= age;
-		this.female 	= female;
 		this.HS				= healthStatus;
 		
-		this.riskAversion	= RandomHelper.createBeta(5, 1.5).nextDouble();
-		this.tolerance 		= tol; //FIXME: do all agents have the same tolerance? 
-		this.ID 			= Model.counterPatients++;
+		this.ID 			= Model.counterPatients.getAndIncrement();
+		double riskAversion	= RandomStreams.beta(5, 1.5, this.ID, RandomStreams.CREATION, RandomStreams.RISK_AVERSION, 0);
+		// Income: convert the monthly income to weekly income. Tolerance: //FIXME: do all agents have the same tolerance? 
+		this.row 			= Model.patients.add(this, age, female, income * 12 / 52, tol, riskAversion);
+		Model.patients.space = location;
 		this.perceivedMedicalNeeds	= 0.0;
 		this.insurance		= new ArrayList<HealthInsurance>();
 		
 		this.visits			= new ArrayList<Provider>();
 		//this.expenditureLog = initiateExpenditureLog();
-		this.annualExpentitures = initiateExpenditureLog(); //FIXME: verify this (new on october 31, 2019)
+		this.initiateExpenditureLog(); //FIXME: verify this (new on october 31, 2019)
 		//this.expenditureLog = new HashMap<Integer[], Double>(); //THIS LINE TO BE UNCOMMENTED FOR UNIT TESTING ONLY 
 		this.subjectiveExpectedExpen = 0.0;
 		this.numAppointments = 0;
-		this.changePlansCost = RandomHelper.createUniform(1, 1.3).nextDouble();
+		this.changePlansCost = RandomStreams.uniform(1, 1.3, this.ID, RandomStreams.CREATION, RandomStreams.CHANGE_PLANS_COST, 0);
 		this.selfMedCosts = 0.0;
 		
 		
@@ -154,28 +174,28 @@ public class Patient {
 	@ScheduledMethod(start=1,interval=1,priority=99,shuffle=true)
 	/** At the beginning of each tick, the individual's pertinent instance variables are reset */
 	public void stepResetPatient(){
-		@SuppressWarnings("unchecked")
-		Context<Object> context = ContextUtils.getContext(this);
+		Context<Object> context = Model.context;
 		
 		// 1 : resetting or adjusting values
+		PatientTable t	=	Model.patients;
 		expectedOOPExp	=	0.0;
 		visits 			= 	null;
-		OOPExp 			= 	0;
-		wtp				=	0;
+		t.oopExp[row]	= 	0;
+		t.wtp[row]		=	0;
 		HS				=	this.getHealthStatus();
 		numAppointments = -1;
 		
 		// In case the person has debt, the debt is increased by the interest
-		if(this.capital<0){
-			Parameters params   = RunEnvironment.getInstance().getParameters();
+		if(t.capital[row]<0){
+			Parameters params   = Model.getParameters();
 			double irate 		= params.getDouble("interestDebt"); 
-			this.capital  = (1+irate)*this.capital;
+			t.capital[row]  = (1+irate)*t.capital[row];
 		}
 		else {
-			this.capital = 0.1*capital; // FIXME: feb2020: is that ok? 
+			t.capital[row] = 0.1*t.capital[row]; // FIXME: feb2020: is that ok? 
 		}
 		// Add income;
-		capital+=income;			
+		t.capital[row]+=t.income[row];			
 		
 		
 		// Pay insurance
@@ -184,35 +204,46 @@ public class Patient {
 		}
 		
 		// Add one unit to the age of the patient (weeks)
-		age++;
+		t.age[row]++;
+		// Onset by cohort: the patient moves to the next cohort on birthdays
+		if(Model.cohorts!=null && t.age[row]%52==0) {
+			Model.cohorts.markDirty(this);
+		}
 	
 		
-		// 2: CHECK IF THE PATIENT DIES
+		// 2: CHECK IF THE PATIENT DIES (in parallel mode, the patient is replaced at the end of the phase)
 		if(this.checkIfDies()){
-			this.die();
+			if(Model.deferDeaths) {
+				Model.registerDeath(this);
+			}
+			else {
+				this.die();
+			}
 		}
 		
 		// 3: Remove cured medical conditions if the patient is not dead
 		else{ 
-			ArrayList<MedicalCondition> toDelete = new ArrayList<MedicalCondition>();
-			for(MedicalCondition mc:this.medConditions) {
+			for(int i = this.medConditions.size()-1; i >= 0; i--) {
+				MedicalCondition mc = this.medConditions.get(i);
 				if(mc.getCurrentSeverity()<=0.0000000001) { // hack to avoid keeping medical conditions due to precision issues
 					//System.out.printf("I remove medical condition ID=%s\n", mc.medConditionID);
-					mc.clear();		// Deletes all the links from the MC to other objects
+					// Event-driven onset: the patient may get the illness again
+					if(Model.onsets!=null) {
+						Model.onsets.scheduleIllness(this, mc.illness, Model.getCurrentTick());
+					}
+					if(Model.cohorts!=null) {
+						Model.cohorts.markDirty(this);
+					}
 					//System.out.printf("Context size before: %s ... ",context.size());
 					
-					context.remove(mc);
-					toDelete.add(mc);
+					// Remove the medical condition from the arraylist of the patient, then from the context (it is reused later)
+					this.medConditions.remove(i);
+					mc.release();
 					//System.out.printf("and after deleting the MC: %s\n",context.size());
 					
 				}
 			}
 			
-			// Now remove the medical condition from the arraylist of the patient. 
-			for(MedicalCondition mc:toDelete) {
-				this.medConditions.remove(mc);
-			}
-			
 		}
 	}
 	
@@ -225,36 +256,52 @@ public class Patient {
 	 * Process of insurance selection is waiting for discussion {@link Patient#selectInsurance()} */
 	@ScheduledMethod(start=1,interval=52,priority=90,shuffle=true)	//STEP 090: stepContractInsurance
 	public void stepContractInsurance(){
-		
+		this.prepareContractInsurance();
+		this.contractInsurance();
+	}
+	
+	/**
+	 * First part of {@link #stepContractInsurance()} (open enrollment): the patient scores all eligible plans and selects one 
+	 * ({@link #selectInsurance(ArrayList)}). It only changes the patient and reads the plans, hence it can be executed in parallel for all 
+	 * patients (see {@link TickEngine}).
+	 */
+	protected void prepareContractInsurance() {
 		//Create and fill AL with associated HIPlans IDs of Patient's current HealthInsurances --> this will be used in the process of contracting a new HealthInsurance: there will be a non-monetary cost associated to changing between HIPlans
 		ArrayList<Integer> oldHIPs = new ArrayList<Integer>();
 		
 		for(HealthInsurance hi : this.insurance) {
 			oldHIPs.add(hi.assocHIPlan.ID);
 		}
-			
+		
+		// (1) Find the best health insurance plan
+		this.selectedPlan = this.selectInsurance(oldHIPs);
+	}
+	
+	/**
+	 * Second part of {@link #stepContractInsurance()}: ends the old contracts and contracts the selected plan (or stops the run if the 
+	 * insurance is mandatory and no plan was found). Requires {@link #prepareContractInsurance()}. The contracts are created one patient
+	 * after the other, since they are registered at the companies and the plans.
+	 */
+	protected void contractInsurance() {
+		HIPlan selectedPlan = this.selectedPlan;
+		this.selectedPlan = null;
 		
 		// REMOVE OLD CONTRACTS
 		Iterator<HealthInsurance> iter = this.insurance.iterator();
 		while(iter.hasNext()) {
 			HealthInsurance i = iter.next();
-			int duration = (int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount()-i.startContract;
+			int duration = Model.getCurrentTick()-i.startContract;
 			if(duration>=0) { // here we kill all insurance contract because in the CH system all start the same day. 
-				Model.context.remove(i);
-				i.insuree=null;
-				i.insurer=null;
+				i.end();
 				iter.remove();
 			}
 		}
 		
 		
 		
-		// (1) Find the best health insurance plan
-		HIPlan selectedPlan= this.selectInsurance(oldHIPs);
-		
 		// (2) Contract the insurance plan
 		if(selectedPlan!=null){
-				HealthInsurance ins= new HealthInsurance(selectedPlan, this);
+				HealthInsurance ins= HealthInsurance.create(selectedPlan, this);
 
 				// Pay the insurance plan up-front
 				//payHealthInsurance(ins); // MOVED TO THE WEEKLY PAYMENTS
@@ -304,58 +351,46 @@ public class Patient {
 
 @ScheduledMethod(start=1,interval=1,priority=80,shuffle=true)	//STEP 080: stepGetSick()
 	public void stepGetSick() {
-	 
-	//declare variables
-
-	//create AL of Illnesses the Patient has in the current tick
-	ArrayList<Illness> patientsIllnesses = new ArrayList<Illness>();
-	
-	//Loop over this Patient's current MedicalConditions to fill patientsIllnesses
-	for(MedicalCondition mc: this.medConditions) {
-		patientsIllnesses.add(mc.illness);
+	// Event-driven onset or onset by cohort (parameter incidenceMode=event/cohort): the onsets are processed by Model.stepIllnessOnsets()
+	if(Model.onsets!=null || Model.cohorts!=null) {
+		return;
 	}
-	
-	
-	// GET THE HASHMAP WITH THE ILLNESS PROBABILITIES
-	LinkedHashMap<Illness,Double> myIllnessProbabilities = new LinkedHashMap<Illness,Double>();
-	int genderInt = this.genderToInteger();
-	int age = (int) Math.floor(this.age/52);
-	
-	for(Integer[] e:Model.illnessProbability.keySet()) {
-		if(e[0]==genderInt && e[1]<= age && e[2]>=age) {
-			myIllnessProbabilities = Model.illnessProbability.get(e);
-			break;
-		}
+	 
+	// GET THE WEEKLY ILLNESS PROBABILITIES (row of the age group, looked up again on birthdays)
+	int age = Model.patients.age[this.row]/52;
+	if(this.incidenceRow==null || this.incidenceAge!=age) {
+		this.incidenceRow = Model.incidenceRates.row(this.genderToInteger(), age);
+		this.incidenceAge = age;
 	}
+	double[] rates = this.incidenceRow;
 	
 	// CONTRACT ILLNESSES
-	for(Map.Entry<Illness,Double> e:myIllnessProbabilities.entrySet()) {
-		Illness illness = e.getKey();
+	for(int k = 0; k < rates.length; k++) {
+		// Illnesses without probability for this group are never contracted
+		if(rates[k]<=0) {continue;}
+		Illness illness = Model.incidenceRates.illness(k);
 		
 		// If this Patient already has this illness, continue to next illness
-				if(patientsIllnesses.contains(illness)) {continue;}
+				if(this.hasIllness(illness)) {continue;}
 				
-				double probOfContractingIllness = e.getValue()/52.0;
+				double probOfContractingIllness = rates[k];
 			
 				//Determine if this Patient contracts this Illness. If so, generate new MedicalCondition for this Patient
 				
-				double randomValue = RandomHelper.createUniform(0.0,1.0).nextDouble();
+				double randomValue = RandomStreams.uniform(this.ID, Model.getCurrentTick(), RandomStreams.ILLNESS, illness.id);
 				
 		
 				
 				if(randomValue<probOfContractingIllness) {
 					
 					
-					this.medConditions.add(new MedicalCondition(illness,illness.initialSeverity, this));
+					this.medConditions.add(MedicalCondition.create(illness,illness.initialSeverity, this));
 					
 					//print to console
 //						System.out.printf("\n\nPATIENT NO. %s CONTRACTED %s!!!", this.getID(), illness.name);
 //						System.out.printf("\nPatient no. %s is female = %s, is %s years old, HS = %s, poor=%s", this.getID(), this.getFemale(), this.getAgeYears(), this.getHealthStatus(), this.isPoor());
 //						System.out.printf("\nPatient no. %s\'s probability of contracting %s is %s", this.getID(), illness.name, probOfContractingIllness);
 //						System.out.printf("\nPatient no. %s now has %s medical conditions:", this.getID(), this.medConditions.size());
-						for(MedicalCondition mc1: this.medConditions) {
-							//System.out.printf(" %s,", mc1.illness.name);
-						}
 						
 				} // end if indeed getting the new medical condition
 						
@@ -378,7 +413,7 @@ public class Patient {
 		
 		//estimate probability of contracting illness for this Patient (Probit model)
 		probitArgument = illness.betas.get("constant") +
-						illness.betas.get("female")*(this.female == true ? 1 : 0) +
+						illness.betas.get("female")*(Model.patients.female[this.row] == true ? 1 : 0) +
 						illness.betas.get("age")*this.getAgeYears() +
 						illness.betas.get("age2")*Math.pow(getAgeYears(),2) + 
 						illness.betas.get("ses")*(isPoor()==true? 0 : 1)+ 	
@@ -390,7 +425,7 @@ public class Patient {
 		//Determine if this Patient contracts this Illness. If so, generate new MedicalCondition for this Patient
 		if(RandomHelper.nextDoubleFromTo(0, 1)<probOfContractingIllness) {
 			
-			this.medConditions.add(new MedicalCondition(illness,illness.initialSeverity, this));
+			this.medConditions.add(MedicalCondition.create(illness,illness.initialSeverity, this));
 			
 			//print to console
 				System.out.printf("\n\nPATIENT NO. %s CONTRACTED %s!!!", this.getID(), illness.name);
@@ -419,20 +454,49 @@ public class Patient {
  * */
 @ScheduledMethod(start=1,interval=1,priority=70,shuffle=true) //STEP 070: stepGetMedicalCare
 public void stepGetMedicalCare(){ 
-	
+	this.prepareMedicalCare();
+	this.getMedicalCare();
+}
+
+/**
+ * First part of {@link #stepGetMedicalCare()}: computes the perceived medical needs, the willingness-to-pay and the ranked list of the 
+ * providers the patient would visit ({@link #rankVisitProviders()}). It only changes the patient and reads the providers, hence it can be 
+ * executed in parallel for all patients (see {@link TickEngine}).
+ */
+protected void prepareMedicalCare() {
 	// [1] Patient decides whether or not to visit a provider and which
 		// Compute the perceived medical need
 		this.numAppointments = 0; // reset the value 
 		this.perceivedMedicalNeeds  = this.getPerceivedMedicalNeeds(); 
-		this.wtp 					= this.computeWillingnessToPay();
+		Model.patients.wtp[this.row] 					= this.computeWillingnessToPay();
 		
 		this.visibleHealthStatusBeforeTreat  = getHealthStatus(true);
 		this.healthStatusBeforeTreat			= getHealthStatus(false);
 		
-		//System.out.printf("Patient %s has perceived med needs of %s and a WTP of %s\n",this.ID,this.perceivedMedicalNeeds,this.wtp);
+		this.rankVisitProviders();
+}
+
+/**
+ * Second part of {@link #stepGetMedicalCare()}: choice of the provider among the ranked candidates ({@link #matchVisitProvider()}), consultations, 
+ * payments and treatments. Requires {@link #prepareMedicalCare()}. The patients are processed one by one in random order (see {@link TickEngine}), 
+ * since this part changes state shared with other patients:
+ * <ul>
+ * 	<li>the capacity of the providers: {@link Provider#appointment(Patient, double)} counts the appointments, and the providers that reach their 
+ * 		capacity are marked as full in the {@link ProviderIndex} ({@link ProviderIndex#updateFull(Provider)}), which {@link #matchVisitProvider()} checks. Hence the match of a patient depends on all patients before it in the order of the phase. The referral to a 
+ * 		specialist takes an appointment of a second provider, so the bookings of one provider also depend on the consultations of the others</li>
+ * 	<li>the income of the providers ({@link Provider#addIncometoNetIncome(double)} in {@link MedicalCondition#treat()})</li>
+ * 	<li>the capital and ledger of the insurers, the aggregates of the plans and the {@link ClaimsLog} ({@link HealthInsurance#getReimbursement(double, boolean, byte)}). 
+ * 		These are synchronized, but the sums would depend on the order of the threads, and so would the premiums of the next year</li>
+ * </ul>
+ * To run this part in parallel, the appointments would have to be booked per provider first (queues in the order of the phase, including 
+ * the referrals) and the payments posted to the insurers in that order afterwards.
+ */
+protected void getMedicalCare() {
+		
+		//System.out.printf("Patient %s has perceived med needs of %s and a WTP of %s\n",this.ID,this.perceivedMedicalNeeds,Model.patients.wtp[this.row]);
 		
 		// Find the provider (can return null if no provider is available at the WTP value)
-		Provider chosenProvider = this.decideVisitProvider();
+		Provider chosenProvider = this.matchVisitProvider();
 		
 		
 		
@@ -442,6 +506,7 @@ public void stepGetMedicalCare(){
 			// Get appointment with the GP
 			double budget = this.computeBudget();
 			MedicalConsultation consultationResult = chosenProvider.appointment(this,budget);
+			Model.providerIndex.updateFull(chosenProvider);
 			//System.out.printf("Consultation result: ppp: %s\n", consultationResult.priceToPatient);
 			//Update Patient's running budget (subtract priceToPatient = price of consultation + diagnosis investment)
 			//this.runningBudget -= consultationResult.priceToPatient;
@@ -453,6 +518,7 @@ public void stepGetMedicalCare(){
 				Provider specialist = consultationResult.referral;
 				budget = this.computeBudget();
 				MedicalConsultation consultSpecialist = specialist.appointment(this,budget);
+				Model.providerIndex.updateFull(specialist);
 				this.payConsultation(consultSpecialist);
 			}
 			
@@ -490,14 +556,14 @@ public void stepGetMedicalCare(){
 				}
 				
 				// If economically viable, the patient will take all these treatments. 
-				if(cost<=this.wtp){
+				if(cost<=Model.patients.wtp[this.row]){
 					for(Entry<MedicalCondition,Treatment> t:allPossibleTreatments.entrySet()){
 						t.getKey().treatment = t.getValue();
 					}
 				}
 				else { // wtp<cost => consume only up to wtp 					
 					// CURRENTLY JUST IN A RANDOM ORDER (not optimal. ToDiscuss: discuss in which order).
-					double remainingWTP = this.wtp;
+					double remainingWTP = Model.patients.wtp[this.row];
 					for(Entry<MedicalCondition,Treatment> t:allPossibleTreatments.entrySet()){
 						if(t.getValue().cost<= remainingWTP) { // Check if there is money left
 							t.getKey().treatment = t.getValue();	// Take the treatment
@@ -534,11 +600,10 @@ public void stepGetMedicalCare(){
  * if invoked later in the simulation
  * @author Florian Chavez
  * @version 14-Mar-2019 (unit testing pending)
- * @return Hash map with elements corresponding to 5 years (5 elements). 
+ * The log (6 years, newest year first) is stored in the columns of {@link Model#patients}.
  */
-private LinkedHashMap<Integer, Double> initiateExpenditureLog() {
-	LinkedHashMap<Integer, Double> log = new LinkedHashMap<Integer,Double>();
-	 int currentTick = (int) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+private void initiateExpenditureLog() {
+	 int currentTick = Model.getCurrentTick();
 	 //System.out.printf("current tick: %s\n", currentTick);
 	 
 	 // should be -1 instead of 0!!
@@ -553,25 +618,22 @@ private LinkedHashMap<Integer, Double> initiateExpenditureLog() {
 		 }
 		 
 		 // Compute the age of the agent today
-		 int ageInYears = (int)Math.floor((this.age)/52);
+		 int ageInYears = (int)Math.floor((Model.patients.age[this.row])/52);
 		
-		 // Loop backwards for the average cost they would have had (up to 6 years)
-		 for(int y=0;y>=-5;y--) {
+		 // Loop backwards for the average cost they would have had (up to 6 years, the oldest year is added first)
+		 for(int y=-5;y<=0;y++) {
 			 int ageBackThen = ageInYears - y;	// Get the age they would have had
 			 ageBackThen = Math.min(maxKey, Math.max(minKey, ageBackThen));	// Limit to the age range for which we have data
 			 
 			 Double[] data = Model.expHCE.get(ageInYears);	// Get the average cost for that age
-     		 Double hce = this.female ? data[0] : data[1]; // extract the correct gender
+     		 Double hce = Model.patients.female[this.row] ? data[0] : data[1]; // extract the correct gender
 			 
-     		log.put(y, hce);	// Store in the log
+     		Model.patients.addAnnualExpenditures(this.row, hce);	// Store in the log
 		 }
 		 
 		
 	 }
 	 
-	 // 
-	 return log; 
-	 
 }
 
 /**
@@ -583,11 +645,11 @@ protected double computeBudget() {
 	double maxBudget=0.0;
 	// If Patient has no HealthInsurance, her budget is simply her capital
 	if (this.insurance.isEmpty()) {
-		return this.capital;
+		return Model.patients.capital[this.row];
 	}
 	
 	for(HealthInsurance ins: this.insurance){
-		double budget = ins.getBudget(this.capital); 
+		double budget = ins.getBudget(Model.patients.capital[this.row]); 
 		if(budget>maxBudget){
 			maxBudget=budget;
 		}
@@ -630,18 +692,19 @@ private void payConsultation(MedicalConsultation consultationResult) {
 		
 		// STORE COST IN DATABASE
 		//this.saveHCELog((int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount(),0,consultationResult.priceToPatient);	
-		this.ytd_expenditures+=consultationResult.priceToPatient;
-		double refund = bestInsurance.getReimbursement(consultationResult.priceToPatient, true,"Consultation");
+		Model.patients.ytdExpenditures[this.row]+=consultationResult.priceToPatient;
+		double refund = bestInsurance.getReimbursement(consultationResult.priceToPatient, true, ClaimsLog.CONSULTATION);
+		this.clearVisitCosts();
 		
 		
 		// Make the payment to the provider
-		this.capital						-=(consultationResult.priceToPatient);	// Make payment (deduce from patient.capital)
-		this.OOPExp 						+=(consultationResult.priceToPatient-refund);   // Register the out-of-pocket expenditures
-		//System.out.printf("After reimbursement I have capital =%s\n",this.capital);
+		Model.patients.capital[this.row]						-=(consultationResult.priceToPatient);	// Make payment (deduce from patient.capital)
+		Model.patients.oopExp[this.row] 						+=(consultationResult.priceToPatient-refund);   // Register the out-of-pocket expenditures
+		//System.out.printf("After reimbursement I have capital =%s\n",Model.patients.capital[this.row]);
 	}
 	else{ // make the payment completely out-of-pocket
-		this.capital						-=consultationResult.priceToPatient;			// Make payment (deduce from patient.capital)
-		this.OOPExp 						+=consultationResult.priceToPatient;   			// Register the out-of-pocket expenditures
+		Model.patients.capital[this.row]						-=consultationResult.priceToPatient;			// Make payment (deduce from patient.capital)
+		Model.patients.oopExp[this.row] 						+=consultationResult.priceToPatient;   			// Register the out-of-pocket expenditures
 		
 	}
 	
@@ -664,7 +727,7 @@ private void payConsultation(MedicalConsultation consultationResult) {
  */
 public void payTreatment(double cost,TreatmentType type, String description) {
 	//[1] FIND THE BEST INSURANCE COMPANY
-		//System.out.printf("I am paying my treatment '%s' now (my capital before: %s):\n ",description,this.capital);
+		//System.out.printf("I am paying my treatment '%s' now (my capital before: %s):\n ",description,Model.patients.capital[this.row]);
 		double maxReimbursement=-1.0;
 		HealthInsurance bestInsurance=null;
 		if(type!=TreatmentType.SELF) {
@@ -684,24 +747,25 @@ public void payTreatment(double cost,TreatmentType type, String description) {
 			
 			// STORE COST IN DATABASE
 			//this.saveHCELog((int)RunEnvironment.getInstance().getCurrentSchedule().getTickCount(),0,cost);	
-			this.ytd_expenditures+=cost;
+			Model.patients.ytdExpenditures[this.row]+=cost;
 
-			double refund = bestInsurance.getReimbursement(cost, true,"Treatment: "+description);
+			double refund = bestInsurance.getReimbursement(cost, true, (byte) (ClaimsLog.TREATMENT + type.ordinal()));
+			this.clearVisitCosts();
 			
 			
 			// Make the payment to the provider
-			this.capital						-=(cost);			// Make payment (deduce from patient.capital) refund not considered, already in getReimbursement
-			this.OOPExp 						+=(cost-refund);   // Register the out-of-pocket expenditures
-			//System.out.printf("Cost:%s, Refund=%s,Capital after =%s\n",cost,refund,this.capital);
+			Model.patients.capital[this.row]						-=(cost);			// Make payment (deduce from patient.capital) refund not considered, already in getReimbursement
+			Model.patients.oopExp[this.row] 						+=(cost-refund);   // Register the out-of-pocket expenditures
+			//System.out.printf("Cost:%s, Refund=%s,Capital after =%s\n",cost,refund,Model.patients.capital[this.row]);
 		}
 		else{ // make the payment completely out-of-pocket
-			this.capital						-=cost;			// Make payment (deduce from patient.capital)
-			this.OOPExp 						+=cost;   			// Register the out-of-pocket expenditures
+			Model.patients.capital[this.row]						-=cost;			// Make payment (deduce from patient.capital)
+			Model.patients.oopExp[this.row] 						+=cost;   			// Register the out-of-pocket expenditures
 			this.selfMedCosts					+=cost;
 			
 		}
 		
-		//System.out.printf("---> I finished the payment, now my capital is %s\n",this.capital);
+		//System.out.printf("---> I finished the payment, now my capital is %s\n",Model.patients.capital[this.row]);
 		
 }
 
@@ -769,8 +833,8 @@ public double computeWillingnessToPay(){
 	
 	//System.out.printf("wtpParams: %s\n",Arrays.toString(Model.wtpParams));
 	double wtp = Model.wtpParams[2] 	// gamma
-			* Math.pow(Math.max(0,this.perceivedMedicalNeeds-this.tolerance),Model.wtpParams[0]) // n^alpha
-			* Math.pow(income,Model.wtpParams[1]); 	// y^beta
+			* Math.pow(Math.max(0,this.perceivedMedicalNeeds-Model.patients.tolerance[this.row]),Model.wtpParams[0]) // n^alpha
+			* Math.pow(Model.patients.income[this.row],Model.wtpParams[1]); 	// y^beta
 	return wtp;
 	
 }
@@ -816,8 +880,8 @@ public void export(){
 						"OOP_expenditures","number_insurances","medical_conditions");
 			}
 			
-			    output_pat.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n",runnum,tick,this.ID,this.age,this.female,this.getHealthStatus(),this.tolerance,this.capital,
-			    		this.income,this.OOPExp,this.getNumberInsurance(),Arrays.toString(conditions));
+			    output_pat.format("%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n",runnum,tick,this.ID,Model.patients.age[this.row],Model.patients.female[this.row],this.getHealthStatus(),Model.patients.tolerance[this.row],Model.patients.capital[this.row],
+			    		Model.patients.income[this.row],Model.patients.oopExp[this.row],this.getNumberInsurance(),Arrays.toString(conditions));
 			
 			output_pat.close();
 			
@@ -841,19 +905,20 @@ public void export(){
 	 */
 	public void setInsurance(HealthInsurance healthInsurance) {
 		this.insurance.add(healthInsurance);	
+		this.clearVisitCosts();
 	}
 	
 	/** Add reimbursement to the Patient's capital
 	 * @param reimbursement as double*/
 	public void getReimbursed(double reimbursement) {
-		this.capital +=reimbursement;	
+		Model.patients.capital[this.row] +=reimbursement;	
 		
 	}
 	
 	/** Returns the Patient's current capital
 	 * @return capital as double*/
 	public double getCapital(){
-		return Double.parseDouble(String.format("%.02f", this.capital)) ;
+		return Double.parseDouble(String.format("%.02f", Model.patients.capital[this.row])) ;
 	}
 	
 	/**
@@ -861,7 +926,7 @@ public void export(){
 	 * @param capital Capital to be set to patient
 	 */
 	public void setCapital(double capital){
-		this.capital = capital;
+		Model.patients.capital[this.row] = capital;
 	}
 	
 	/**
@@ -869,7 +934,7 @@ public void export(){
 	 * @param c
 	 */
 	public void reduceCapitalBy(double c) {
-		this.capital -=c;
+		Model.patients.capital[this.row] -=c;
 	}
 	
 	
@@ -877,16 +942,25 @@ public void export(){
 	
 	/**Remove patient from the context. For now, death probability is a function of current health status.*/
 	public void die(){
-		Context<Object> context = ContextUtils.getContext(this);		
+		Context<Object> context = Model.context;		
 		context.remove(this);
+		if(Model.onsets!=null) {
+			Model.onsets.cancel(this);
+		}
+		if(Model.cohorts!=null) {
+			Model.cohorts.remove(this);
+		}
 		if(this.medConditions!= null){
 			for(MedicalCondition condition: this.medConditions){
-				context.remove(condition);
+				condition.release();
 			}
 		}
 		if(this.insurance!= null){
 			for(HealthInsurance ins: this.insurance){
-				context.remove(ins);
+				ins.assocHIPlan.changeActiveContracts(ins, -1);	// no more premiums (the contract stays with the insurer)
+				if(Model.detailsInContext){
+					context.remove(ins);
+				}
 			}	
 		}
 		this.medConditions.clear();
@@ -894,9 +968,23 @@ public void export(){
 		this.familyDoctor=null;
 		
 	
-		// Replace this agent by a new one with the same characteristics
-		Patient newPatient = new Patient(this.income*52/12,18*52,this.female,1.0,this.tolerance,this.location);
+		// Replace this agent by a new one with the same characteristics (the new patient takes over the row of this patient)
+		PatientTable t = Model.patients;
+		double income = t.income[this.row];
+		boolean female = t.female[this.row];
+		double tolerance = t.tolerance[this.row];
+		t.remove(this.row);
+		Patient newPatient = new Patient(income*52/12,18*52,female,1.0,tolerance,t.space);
 		Model.context.add(newPatient);
+		if(Model.transportCosts!=null) {
+			Model.transportCosts.update(newPatient.row);
+		}
+		if(Model.onsets!=null) {
+			Model.onsets.schedule(newPatient, Model.getCurrentTick(), newPatient.getAge());
+		}
+		if(Model.cohorts!=null) {
+			Model.cohorts.add(newPatient);
+		}
 		newPatient.stepContractInsurance();
 		
 	}
@@ -911,11 +999,14 @@ public void export(){
 	public double getTransportCost(Provider prov){
 		double cost = -1;
 		double distance;
-		if(prov!=null){
+		if(prov!=null && Model.transportCosts!=null){
+			// Precomputed (patients and providers do not move)
+			cost = Model.transportCosts.get(this.row, prov);
+		}
+		else if(prov!=null){
 			NdPoint provLoc = prov.space.getLocation(prov);
-			NdPoint loc 	= this.location.getLocation(this);
-			distance		= location.getDistance(provLoc,loc);
-			cost			= distance * RunEnvironment.getInstance().getParameters().getDouble("transportCost");
+			distance		= Model.patients.distance(this.row, provLoc);
+			cost			= distance * Model.getParameters().getDouble("transportCost");
 			}
 		return cost;
 		}
@@ -932,21 +1023,9 @@ public void export(){
 	protected HIPlan selectInsurance(ArrayList<Integer> hipIDs){
 		HIPlan selectedPlan=null;
 		
-		Context<Object> context = ContextUtils.getContext(this);
-		
-		//Create AL and fill it with all the HealthInsurancePlans in the Context that are elegible to the patient
-		ArrayList<HIPlan> eligiblePlans= new ArrayList<HIPlan> ();
-		//System.out.printf("I am female (%s), %s yrs. looking for insurance\n", this.female, this.age/52.0);
-		for(Object o:context.getObjects(HIPlan.class)){
-			HIPlan cPlan = (HIPlan)o;
-			// only add plans that exist and that include the patients age and gender in their offer
-			//System.out.printf("I am a plan for: age [%s, %s], women: %s men: %s\n", cPlan.getMinAge(), cPlan.getMaxAge(), cPlan.womenAllowed, cPlan.menAllowed);
-			
-			if(cPlan.insurer!=null && (double)cPlan.getMinAge()<=this.getAgeYears() && (double)cPlan.getMaxAge()>=this.getAgeYears() && ((this.female == true & cPlan.womenAllowed == true) | (this.female == false & cPlan.menAllowed == true))) {
-				eligiblePlans.add(cPlan);
-				//System.out.printf("My eligible plan has [prime, ded., copay]: [%s, %s, %s]\n", cPlan.prime, cPlan.deductible, cPlan.copaymentRate);
-			}
-		}
+		// All plans that include the patients age and gender in their offer (see PlanIndex)
+		PlanIndex index = (Model.planIndex!=null) ? Model.planIndex : new PlanIndex(Model.context);
+		HIPlan[] eligiblePlans = index.getEligiblePlans(Model.patients.female[this.row], this.getAgeYears());
 		
 		// cost variable for comparing plans with no plan
 		// don't compare with no insurance because its not an option
@@ -971,30 +1050,48 @@ public void export(){
 		
 		HIPlan cheapestPlan = null;
 		
-		if(eligiblePlans.size()>0){
-			for(HIPlan plan: eligiblePlans){
-				
+		if(eligiblePlans.length>0){
+			// Cheapest plan from the lower envelope of the plan costs (see PlanEnvelope). If it cannot decide, or if the premium of the
+			// cheapest plan is above the income, all plans are scored.
+			PlanEnvelope envelope = index.getEnvelope(eligiblePlans);
+			int best = (envelope!=null) ? envelope.findBest(this.subjectiveExpectedExpen, this.changePlansCost, hipIDs) : -1;
+			if(best>=0 && eligiblePlans[best].premium<= Model.patients.income[this.row]*52) {
+				HIPlan plan = eligiblePlans[best];
 				double planCost = this.subjectiveExpectedExpen - plan.computeReimbursement(this.subjectiveExpectedExpen) + plan.premium;
-				
-				//if evaluated plan is not contained in Patients AL of HIPlans for last year, multiply cost by a transaction cost factor
 				if(!hipIDs.contains(plan.ID)) {
 					planCost = planCost*this.changePlansCost;
 				}
-				
-				// if the prime is less than their annual income and the cost is lower than the previous optimum, choose
-				if(plan.premium<= this.income*52 && planCost < bestCost){
+				if(planCost < bestCost){
 					selectedPlan=plan;
 					bestCost = planCost;
 				}
+				cheapestPlan = plan;
+			}
+			else {
+				for(HIPlan plan: eligiblePlans){
+				
+					double planCost = this.subjectiveExpectedExpen - plan.computeReimbursement(this.subjectiveExpectedExpen) + plan.premium;
+				
+					//if evaluated plan is not contained in Patients AL of HIPlans for last year, multiply cost by a transaction cost factor
+					if(!hipIDs.contains(plan.ID)) {
+						planCost = planCost*this.changePlansCost;
+					}
 				
-				// Just find the cheapest (independent of willingness to contract)
-				if(planCost < lowestCost) {
-					lowestCost = planCost;
-					cheapestPlan = plan;
+					// if the prime is less than their annual income and the cost is lower than the previous optimum, choose
+					if(plan.premium<= Model.patients.income[this.row]*52 && planCost < bestCost){
+						selectedPlan=plan;
+						bestCost = planCost;
+					}
+				
+					// Just find the cheapest (independent of willingness to contract)
+					if(planCost < lowestCost) {
+						lowestCost = planCost;
+						cheapestPlan = plan;
+					}
 				}
 			}
 			if(selectedPlan != null){
-				//System.out.printf("I chose plan [ID: %s, ded: %s, prime: %s] with cost %s. I had expected expen. %s, Income =%s\n\n",selectedPlan.ID,selectedPlan.deductible,selectedPlan.premium ,bestCost, this.getPersonalExpenCalcTotal(),this.income);			
+				//System.out.printf("I chose plan [ID: %s, ded: %s, prime: %s] with cost %s. I had expected expen. %s, Income =%s\n\n",selectedPlan.ID,selectedPlan.deductible,selectedPlan.premium ,bestCost, this.getPersonalExpenCalcTotal(),Model.patients.income[this.row]);			
 			}
 			else{
 				if(Model.mandatoryInsurance) {
@@ -1005,10 +1102,10 @@ public void export(){
 					
 				}
 				else {
-					//System.out.printf("I chose NO plan [ID: %s, ded: %s, prime: %s] with cost %s. I had expected expen. %s, Income =%s\n\n",selectedPlan.ID,selectedPlan.deductible,selectedPlan.premium ,bestCost, this.getPersonalExpenCalcTotal(),this.income);			
-					//System.out.printf("I did not buy insurance:I had expected expen. %s, Income =%s\n\n" , this.subjectiveExpectedExpen,this.income);
+					//System.out.printf("I chose NO plan [ID: %s, ded: %s, prime: %s] with cost %s. I had expected expen. %s, Income =%s\n\n",selectedPlan.ID,selectedPlan.deductible,selectedPlan.premium ,bestCost, this.getPersonalExpenCalcTotal(),Model.patients.income[this.row]);			
+					//System.out.printf("I did not buy insurance:I had expected expen. %s, Income =%s\n\n" , this.subjectiveExpectedExpen,Model.patients.income[this.row]);
 				}
-				// System.out.printf("I chose not to contract insurance (expected expen: %s, capital: %s)\n\n",this.subjectiveExpectedExpen,this.capital);						
+				// System.out.printf("I chose not to contract insurance (expected expen: %s, capital: %s)\n\n",this.subjectiveExpectedExpen,Model.patients.capital[this.row]);						
 			}
 			
 			
@@ -1016,7 +1113,7 @@ public void export(){
 		}
 		else{
 			System.err.println("There are no available plans for the following person:");
-			System.out.printf("ID: %s, Age: %s, Female:%s\n",this.ID,this.getAgeYears(),this.female);
+			System.out.printf("ID: %s, Age: %s, Female:%s\n",this.ID,this.getAgeYears(),Model.patients.female[this.row]);
 			
 			System.exit(2);
 		}	
@@ -1035,7 +1132,7 @@ public void export(){
 //		for(Object o:plans){
 //			HIPlan cPlan = (HIPlan)o;
 //			// only add plans that exist and that include the patients age and gender in their offer
-//			if(cPlan.insurer!=null && cPlan.getMinAge()<=this.age && cPlan.getMaxAge()>=this.age && (this.female == cPlan.womenAllowed | (this.female == false & cPlan.menAllowed == true))) {
+//			if(cPlan.insurer!=null && cPlan.getMinAge()<=Model.patients.age[this.row] && cPlan.getMaxAge()>=Model.patients.age[this.row] && (Model.patients.female[this.row] == cPlan.womenAllowed | (Model.patients.female[this.row] == false & cPlan.menAllowed == true))) {
 //				elegiblePlans.add(cPlan);				
 //			}
 //		}
@@ -1048,7 +1145,7 @@ public void export(){
 //					double planCost = this.getPersonalExpenCalcTotal() - plan.computeReimbursement(this.getPersonalExpenCalcTotal()) + plan.prime;
 //					System.out.printf("Estimated cost: %s\n", planCost);
 //					// if the prime is less than their annual income and the cost is lower than the previous optimum, choose
-//					if(plan.prime<= this.income && planCost < lowestCost){
+//					if(plan.prime<= Model.patients.income[this.row] && planCost < lowestCost){
 //						selectedPlan=plan;
 //						lowestCost = planCost;
 //						System.out.printf("selectedPlan & cost: %s %s\n", selectedPlan.ID, lowestCost);
@@ -1076,14 +1173,14 @@ public void export(){
 		Provider selection = null;
 		
 		// Define real-WTP as the minimum of willingness-to-pay and the financial capability (e.g. income)
-		double realWTP = (this.wtp<=this.capital) ? this.wtp : this.capital;  
+		double realWTP = (Model.patients.wtp[this.row]<=Model.patients.capital[this.row]) ? Model.patients.wtp[this.row] : Model.patients.capital[this.row];  
 		
 		
 		
 		// Check if family doctor
 		if(this.familyDoctor!=null && this.getTrust(familyDoctor)>0){
 			// Now check if patient can afford and is willing to pay this
-			double expectedCost = this.getVisitCost(familyDoctor, this.bestInsurance(familyDoctor));
+			double expectedCost = this.getVisitCost(familyDoctor);
 			if(expectedCost <= realWTP && realWTP>0.001){
 				selection = this.familyDoctor; // Select the family doctor
 				//System.out.printf("He/she chose their family doctor: Provider %s with exp. cost %s", selection.ID,expectedCost);
@@ -1096,7 +1193,7 @@ public void export(){
 		
 		if(selection==null){
 			Provider bestCandidate = this.getNetworkAdvise(realWTP, referenceTrust);
-			double expectedCost = this.getVisitCost(bestCandidate, this.bestInsurance(bestCandidate));
+			double expectedCost = this.getVisitCost(bestCandidate);
 			if(bestCandidate == null) {
 				//System.out.printf("The expected cost of the best candidate (Provider %s) is: %s\n",bestCandidate,expectedCost);				
 			}else {
@@ -1121,6 +1218,130 @@ public void export(){
 	}
 	
 
+	/**
+	 * Ranks the providers the patient would visit in this tick, as {@link #decideVisitProvider()} but without the capacity of the providers: 
+	 * the family doctor if the patient trusts him and can pay, otherwise the affordable providers by trust, cost and rank (see 
+	 * {@link #getNetworkAdvise(double, double)}), of which only the best {@link #MAX_CANDIDATES} are kept. It only reads the providers, hence 
+	 * it runs in the parallel part of {@link #stepGetMedicalCare()}; the capacity is checked by {@link #matchVisitProvider()}.
+	 */
+	private void rankVisitProviders() {
+		this.numCandidates 			= 0;
+		this.numPreferred 			= 0;
+		this.candidatesTruncated 	= false;
+		this.directVisit 			= null;
+		this.fallback 				= null;
+		this.realWTP = (Model.patients.wtp[this.row]<=Model.patients.capital[this.row]) ? Model.patients.wtp[this.row] : Model.patients.capital[this.row];
+		
+		// Family doctor first (as in decideVisitProvider, his capacity is not checked)
+		if(this.familyDoctor!=null && this.getTrust(familyDoctor)>0){
+			double expectedCost = this.getVisitCost(familyDoctor);
+			if(expectedCost <= this.realWTP && this.realWTP>0.001){
+				this.directVisit = this.familyDoctor;
+				return;
+			}
+		}
+		double minTrust = (this.familyDoctor!=null) ? this.getTrust(familyDoctor) : Double.NEGATIVE_INFINITY;
+		if(minTrust>Double.NEGATIVE_INFINITY && this.getVisitCost(familyDoctor)<this.realWTP){
+			this.fallback = this.familyDoctor;
+		}
+		
+		if(this.candidates==null) {
+			this.candidates 	= new Provider[MAX_CANDIDATES];
+			this.candidateCost 	= new double[MAX_CANDIDATES];
+			this.candidateTrust = new double[MAX_CANDIDATES];
+			this.candidateRank 	= new int[MAX_CANDIDATES];
+			this.candidatePosition = new int[MAX_CANDIDATES];
+		}
+		
+		// Same search as getNetworkAdvise (consideration set, early stop), keeping the best candidates sorted
+		ProviderIndex index = Model.providerIndex;
+		ProviderIndex.ConsiderationSet set = index.getConsiderationSet(this.row);
+		Provider[] providers = index.getProviders();
+		double transportCost = Model.getParameters().getDouble("transportCost");
+		double floor = this.minVisitCostWithoutTransport(index);
+		boolean stopEarly = transportCost>=0 && floor>Double.NEGATIVE_INFINITY;
+		double maxCost = this.realWTP + 1e-9*(1+Math.abs(this.realWTP));
+		
+		for(int k = 0; k < set.providers.length; k++) {
+			if(stopEarly && set.minDistance[k]*transportCost + floor > maxCost) {
+				break;
+			}
+			int i = set.providers[k];
+			Provider p = providers[i];
+			double cost = this.getVisitCost(p);
+			if(cost<= this.realWTP) {
+				double trust = this.getTrust(p);
+				int rank = Model.patients.distance(this.row, index.getLocation(i))<index.getRadius() ? i : providers.length + i;
+				
+				// Insertion into the sorted candidates
+				int pos = this.numCandidates;
+				while(pos>0 && this.isBetterCandidate(trust, cost, rank, pos-1)) {
+					pos--;
+				}
+				if(pos==MAX_CANDIDATES) {
+					this.candidatesTruncated = true;
+					continue;
+				}
+				if(this.numCandidates==MAX_CANDIDATES) {
+					this.candidatesTruncated = true;
+				}
+				else {
+					this.numCandidates++;
+				}
+				for(int j = this.numCandidates-1; j > pos; j--) {
+					this.candidates[j] 		= this.candidates[j-1];
+					this.candidateCost[j] 	= this.candidateCost[j-1];
+					this.candidateTrust[j] 	= this.candidateTrust[j-1];
+					this.candidateRank[j] 	= this.candidateRank[j-1];
+					this.candidatePosition[j] = this.candidatePosition[j-1];
+				}
+				this.candidates[pos] 		= p;
+				this.candidateCost[pos] 	= cost;
+				this.candidateTrust[pos] 	= trust;
+				this.candidateRank[pos] 	= rank;
+				this.candidatePosition[pos] = i;
+			}
+		}
+		while(this.numPreferred<this.numCandidates && this.candidateTrust[this.numPreferred]>=minTrust) {
+			this.numPreferred++;
+		}
+	}
+	
+	/** @return TRUE if a provider with the given trust, cost and rank is preferred to the candidate at position pos (see {@link #getNetworkAdvise(double, double)})*/
+	private boolean isBetterCandidate(double trust, double cost, int rank, int pos) {
+		return trust>this.candidateTrust[pos] 
+				|| (trust==this.candidateTrust[pos] && cost<this.candidateCost[pos]) 
+				|| (trust==this.candidateTrust[pos] && cost==this.candidateCost[pos] && rank<this.candidateRank[pos]);
+	}
+	
+	/**
+	 * Matches the patient with a provider: the first candidate of {@link #rankVisitProviders()} that still has capacity, i.e. the provider 
+	 * {@link #decideVisitProvider()} would return. The patients are matched one by one in the (seeded) random order of the phase, so that 
+	 * a provider takes patients until his capacity is reached (capacity-constrained greedy). If all candidates are full but other 
+	 * affordable providers were left out, the patient searches again ({@link #decideVisitProvider()}).
+	 * @return the provider, <b>null</b> if the patient does not visit a provider
+	 */
+	private Provider matchVisitProvider() {
+		if(this.directVisit!=null) {
+			return this.directVisit;
+		}
+		ProviderIndex index = Model.providerIndex;
+		int k = 0;
+		while(k<this.numCandidates && index.isFull(this.candidatePosition[k])) {
+			k++;	// only providers WITH availability are considered
+		}
+		if(k==this.numCandidates && this.candidatesTruncated) {
+			return this.decideVisitProvider();
+		}
+		
+		// The family doctor is preferred to less trusted providers
+		Provider bestOption = (k<this.numCandidates && (k<this.numPreferred || this.fallback==null)) ? this.candidates[k] : this.fallback;
+		if(bestOption!=null) {
+			expectedOOPExp = (bestOption==this.fallback) ? this.getVisitCost(bestOption) : this.candidateCost[k];
+		}
+		return this.realWTP>0.001 ? bestOption : null;
+	}
+	
 	/** Return the expected cost of a medical visit. The amount of money include non monetary costs, transportation and consult. 
 	 * Patients consider consult cost with their current HI status (potential reimbursement). 
 	 * @param prov Potential provider
@@ -1137,7 +1358,7 @@ public void export(){
 			expectedCost = 987654321.00;;  //Hack 
 		}else{
 			
-			double visitCosts=prov.NMCost*income+ this.getTransportCost(prov);
+			double visitCosts=prov.NMCost*Model.patients.income[this.row]+ this.getTransportCost(prov);
 			
 			// Case 0: HI does not affect expectedCost	
 			if (ins==null || (ins.assocHIPlan.allowedProviders.size()>0 && !ins.assocHIPlan.allowedProviders.contains(prov)) ||  (ins!=null && !insurance.isEmpty() && !insurance.contains(ins))){
@@ -1200,82 +1421,118 @@ public void export(){
 	
 
 	
-	/** Loops over all Providers visible to patient {@link #getListOfProviders()} and returns the provider 
-	 * with best average trust affordable to patient and with a minimum level of average trust specified by 
+	/** Loops over the Providers of the consideration set of the patient (all providers, sorted by distance, see {@link ProviderIndex}) 
+	 * and returns the provider with best average trust affordable to patient and with a minimum level of average trust specified by 
 	 * minTrust (current trust on family doctor). When all advises are worse than minTrust, the method 
-	 * returns the family doctor.   
+	 * returns the family doctor.<br>
+	 * The providers within the visibility radius (parameter visibilityAgents) are preferred in case of a tie (same trust and cost), then the order 
+	 * of the context. The search stops at the first provider whose transport cost alone (plus the lowest possible rest of the visit cost, 
+	 * see {@link #minVisitCostWithoutTransport(ProviderIndex)}) is above the willingness to pay, since all further providers are more expensive.   
+	 * Provider suggestions from the insurance company are not implemented (FIXME PP Appl. 01).
 	 * @param willingnessToPay Willingness to pay of patient (given current visible needs, tolerance and income of patient)  
 	 * @param minTrust Target of trust that evaluated providers should reach to be selected
 	 * @author USim, Florian Chavez
 	 * @version 10-Jan-2019 (verified, but unit testing not possible outside RePast)
 	 * @return Provider with best average trust among all providers  */
 	protected Provider getNetworkAdvise(double willingnessToPay, double minTrust) {
-		// Get all possible candidates (various sources)
-		LinkedHashSet<Provider> allProviders = getListOfProviders();
+		// Consideration set of the patient (shared by all patients of the same cell of the grid)
+		ProviderIndex index = Model.providerIndex;
+		ProviderIndex.ConsiderationSet set = index.getConsiderationSet(this.row);
+		Provider[] providers = index.getProviders();
+		
+		// Lower bound of the visit cost of a provider at distance d: d*transportCost + floor
+		double transportCost = Model.getParameters().getDouble("transportCost");
+		double floor = this.minVisitCostWithoutTransport(index);
+		boolean stopEarly = transportCost>=0 && floor>Double.NEGATIVE_INFINITY;
+		double maxCost = willingnessToPay + 1e-9*(1+Math.abs(willingnessToPay));	// tolerance for rounding
 		
 		Provider 	bestOption  = null;
 		double 		bestTrust   = Double.NEGATIVE_INFINITY;
 		double 		minCost		= Double.POSITIVE_INFINITY; 
+		int 		bestRank 	= Integer.MAX_VALUE;
 		
 		// Search the provider with the highest level of trust and price<WTP
-		for(Provider p:allProviders) {
-			Double cost = this.getVisitCost(p, this.bestInsurance(p));
-			if(cost<= willingnessToPay && p.capacity>p.appointments) { // only sufficiently cheap providers WITH availability are considered
+		for(int k = 0; k < set.providers.length; k++) {
+			if(stopEarly && set.minDistance[k]*transportCost + floor > maxCost) {
+				break;		// this and all further providers cost more than the WTP
+			}
+			int i = set.providers[k];
+			Provider p = providers[i];
+			if(index.isFull(i)) {
+				continue;	// only providers WITH availability are considered
+			}
+			double cost = this.getVisitCost(p);
+			if(cost<= willingnessToPay) { // only sufficiently cheap providers are considered
 				
 				// GET TRUST INFORMATION
 				double trust = this.getTrust(p);  
+				// Rank in case of a tie: visible providers first, then the order of the context
+				int rank = Model.patients.distance(this.row, index.getLocation(i))<index.getRadius() ? i : providers.length + i;
 				
-				if(trust>bestTrust) { // IF higher than previously best => replace
+				if(trust>bestTrust 										// IF higher than previously best => replace
+						|| (trust==bestTrust && cost<minCost) 			// in case of a tie regarding trust, the cheaper option is preferred
+						|| (trust==bestTrust && cost==minCost && rank<bestRank)) {
 					bestTrust 	= trust;
-					bestOption = p;
-					minCost 	= cost;
-				}
-				else if(trust==bestTrust && cost<minCost) { // in case of a tie regarding trust, the cheaper option is preferred
 					bestOption 	= p;
 					minCost 	= cost;
+					bestRank 	= rank;
 				}
 			} // end if cost<wtp
 		}
 		
-		if(minTrust>bestTrust && this.getVisitCost(familyDoctor, this.bestInsurance(familyDoctor))<willingnessToPay){
+		if(minTrust>bestTrust && this.getVisitCost(familyDoctor)<willingnessToPay){
 			bestOption= familyDoctor;
 		}
 		
 		/* Updating expectedOOPExp*/
 		if(bestOption!=null) {
-			expectedOOPExp= this.getVisitCost(bestOption, this.bestInsurance(bestOption));
+			expectedOOPExp= this.getVisitCost(bestOption);
 		}
 		
 		return bestOption;
 	}
 	
-	
-	/** Finds all Providers visible to patient through three sources: 
-	 * <ul>
-	 * <li>geographical distance: patients can 'see' providers located near their location</li>
-	 * <li>insurance network availability [NOT YET IMPLEMENTED]</li><ul>. 
-	 * If the social network is deactivated, add all providers  
-	 * @author USim, Florian Chavez 
-	 * @version 10-Jan-2019 (verified)
-	 * @return List containing all visible providers to patient
-	 * */
-	private LinkedHashSet<Provider> getListOfProviders() { 
-		
-		// Define the HashSet to be returned at the end
-		LinkedHashSet<Provider> allProviders = new LinkedHashSet<Provider>();
-
-		/* [2] Geographical neighbourhood */ 
-		allProviders.addAll(this.nearProviders());
-		
-		/* [3] Add provider suggestions from the insurance company */
-		//FIXME PP Appl. 01: To be implemented
-		Context<Object> context = ContextUtils.getContext(this);
-			for(Object p: context.getObjects(Provider.class)) {
-				allProviders.add((Provider)p);
+	/**
+	 * Returns a lower bound of the visit cost without the transport cost ({@link #getVisitCost(Provider, HealthInsurance)}) for all providers
+	 * and the insurances of the patient. The cost of a consultation can be negative once the stop-loss is reached, hence the bound is not 
+	 * always 0.
+	 * @param index Provider index (minimum price and non-monetary costs of all providers)
+	 * @return lower bound, NEGATIVE_INFINITY if there is none
+	 */
+	private double minVisitCostWithoutTransport(ProviderIndex index) {
+		double income = Model.patients.income[this.row];
+		double nonMonetary = income>=0 ? index.minNMCost*income : index.maxNMCost*income;
+		
+		// Consultation without insurance (case 0), below the deductible or stop-loss (cases 1, 1A, 2A): at least min(0, price)
+		double consultation = Math.min(0.0, index.minPrice);
+		if(this.insurance==null) {
+			return consultation + nonMonetary;
+		}
+		for(HealthInsurance ins: this.insurance) {
+			if(ins.copaymentRate<0 || ins.copaymentRate>1) {
+				return Double.NEGATIVE_INFINITY;
 			}
-		
-		
-		return allProviders;
+			int limit=-1;
+			if(ins.stopLoss!=0 && ins.stopClaim==0){
+				limit= ins.stopLoss;
+			}
+			if(ins.stopLoss==0 && ins.stopClaim!=0){
+				limit= ins.stopClaim;
+			}
+			if(ins.claimsYTD<ins.deductible) {
+				// Case 1B (the additional cost with stop-claim is not negative)
+				consultation = Math.min(consultation, (limit-ins.deductible)*(1-ins.copaymentRate));
+			}
+			else {
+				// Case 2B (with stop-claim, price+claimsYTD>=stopClaim)
+				double c = (limit-ins.claimsYTD)*ins.copaymentRate;
+				if(ins.stopLoss==0 && ins.stopClaim!=0) {
+					c -= 2*ins.claimsYTD;
+				}
+				consultation = Math.min(consultation, c);
+			}
+		}
+		return consultation + nonMonetary;
 	}
 
 		
@@ -1284,7 +1541,7 @@ public void export(){
 	 * @return income as double
 	 */
 	public double getIncome() {
-		return 	 Double.parseDouble(String.format("%.02f", this.income)) ;
+		return 	 Double.parseDouble(String.format("%.02f", Model.patients.income[this.row])) ;
 
 	}
 	
@@ -1306,7 +1563,7 @@ public void export(){
 		
 		if(this.experience.containsKey(provider)) { // The estimation of trust is based on the own experience only. 
 			//Parameters params = RunEnvironment.getInstance().getParameters();
-			double eta = params.getDouble("eta_trustReduction"); 
+			double eta = Model.getParameters().getDouble("eta_trustReduction"); 
 			
 			int nSuccess 	= this.experience.get(provider)[0];
 			int nTotal 		= this.experience.get(provider)[1];
@@ -1328,7 +1585,7 @@ public void export(){
 	 * @version 01-Apr-2019
 	 */
 	private void payHealthInsurance(HealthInsurance plan){ 
-		this.capital -=plan.premium/52;
+		Model.patients.capital[this.row] -=plan.premium/52;
 	}
 	
 	
@@ -1384,19 +1641,32 @@ public void export(){
 	 * @return Returns age in weeks
 	 */
 	public int getAge() {
-		return this.age; //(int) Math.floor(this.age/52);
+		return Model.patients.age[this.row]; //(int) Math.floor(Model.patients.age[this.row]/52);
 	}
 	
 	/*
 	 * @return age in years
 	 */
 	public int getAgeYears() {
-		return (int) Math.floor(this.age/52); //(int) Math.floor(this.age/52);
+		return (int) Math.floor(Model.patients.age[this.row]/52); //(int) Math.floor(Model.patients.age[this.row]/52);
 	}
 	
 	
 
 	
+	/**
+	 * @param illness Illness
+	 * @return TRUE if the patient currently has a medical condition of this illness
+	 */
+	private boolean hasIllness(Illness illness) {
+		for(MedicalCondition mc: this.medConditions) {
+			if(mc.illness==illness) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * This method computes the current health status by deducing from unity all the current severities of all medical conditions. 
 	 * @return health status on a scale from 1.0 (perfect health) up to negative values, where the value of 0.0 is the threshold of death. 
@@ -1410,7 +1680,7 @@ public void export(){
 	}
 	
 	public int getFemale() {
-		if(this.female) {
+		if(Model.patients.female[this.row]) {
 			return 1;
 		}
 		else {
@@ -1419,11 +1689,39 @@ public void export(){
 	}
 	
 	public double getTolerance() {
-		return this.tolerance;
+		return Model.patients.tolerance[this.row];
+	}
+	
+	public double getRiskAversion() {
+		return Model.patients.riskAversion[this.row];
 	}
 	
 	public double getOOPExpenditure() {
-		return this.OOPExp;
+		return Model.patients.oopExp[this.row];
+	}
+	
+	/** @return TRUE for women (the former field female, see {@link #getFemale()} for the value as int)*/
+	public boolean isFemale() {
+		return Model.patients.female[this.row];
+	}
+	
+	/** @return expenditures of the current year (the former field ytd_expenditures)*/
+	public double getYtdExpenditures() {
+		return Model.patients.ytdExpenditures[this.row];
+	}
+	
+	/** @return number of years in the log of annual expenditures (the former map annualExpentitures)*/
+	public int getNumberAnnualExpenditures() {
+		return Model.patients.annualCount[this.row];
+	}
+	
+	/**
+	 * Returns the expenditures of a year from the log of annual expenditures (the former map annualExpentitures)
+	 * @param yearsBack 0: newest year, 1: the year before, etc. (less than {@link #getNumberAnnualExpenditures()})
+	 * @return expenditures of the year
+	 */
+	public double getAnnualExpenditures(int yearsBack) {
+		return Model.patients.getAnnualExpenditures(this.row, yearsBack);
 	}
 	
 	public int getNumberMedicalConditions() {
@@ -1443,14 +1741,14 @@ public void export(){
 		if(this.visits!=null){
 			for(Provider prov:visits){
 				visitsID.add(prov.ID);
-				if(prov.priceMedicalConsultation > Model.wtpParams[2]*Math.pow((this.getVisNeeds()-tolerance),Model.wtpParams[0])*Math.pow(income,Model.wtpParams[1])){
-//					System.out.printf("Patient %s decided to visit Provider %s with price %s and wtp %s\n", this.ID, prov.ID, prov.price, Model.wtpParams[2]*Math.pow((this.getVisNeeds()-tolerance),Model.wtpParams[0])*Math.pow(income,Model.wtpParams[1]));
+				if(prov.priceMedicalConsultation > Model.wtpParams[2]*Math.pow((this.getVisNeeds()-Model.patients.tolerance[this.row]),Model.wtpParams[0])*Math.pow(Model.patients.income[this.row],Model.wtpParams[1])){
+//					System.out.printf("Patient %s decided to visit Provider %s with price %s and wtp %s\n", this.ID, prov.ID, prov.price, Model.wtpParams[2]*Math.pow((this.getVisNeeds()-Model.patients.tolerance[this.row]),Model.wtpParams[0])*Math.pow(Model.patients.income[this.row],Model.wtpParams[1]));
 				}
-				if(prov.priceMedicalConsultation > this.income){
-//					System.out.printf("Patient %s decided to visit Provider %s with price %s and income %s\n", this.ID, prov.ID, prov.price, this.income);
+				if(prov.priceMedicalConsultation > Model.patients.income[this.row]){
+//					System.out.printf("Patient %s decided to visit Provider %s with price %s and income %s\n", this.ID, prov.ID, prov.price, Model.patients.income[this.row]);
 				}
-				if(RunEnvironment.getInstance().getCurrentSchedule().getTickCount()==14 && this.ID==11){
-					//System.out.printf("Patient %s decided to visit Provider %s with price %s (params %s) and income %s on tick %s\n", this.ID, prov.ID, prov.price, costProvider, this.income,RunEnvironment.getInstance().getCurrentSchedule().getTickCount());
+				if(Model.getCurrentTick()==14 && this.ID==11){
+					//System.out.printf("Patient %s decided to visit Provider %s with price %s (params %s) and income %s on tick %s\n", this.ID, prov.ID, prov.price, costProvider, Model.patients.income[this.row],RunEnvironment.getInstance().getCurrentSchedule().getTickCount());
 				}if(prov.priceMedicalConsultation!=prov.priceMedicalConsultation){
 					//System.out.printf("(In Patient.getVisits) Provider %s has different prices %s (params %s) on tick %s\n", prov.ID, prov.price, costProvider,RunEnvironment.getInstance().getCurrentSchedule().getTickCount());
 				}
@@ -1480,14 +1778,14 @@ public void export(){
 	}
 	
 	public double getwtp(){
-		return this.wtp;
+		return Model.patients.wtp[this.row];
 	}
 	/**
 	 * This method should only be used to export data (repast) and not during the simulation itself. 
 	 * @return Formatted version of visible needs (only 4 digits)
 	 */
 	public double getwtpExport(){
-		return Double.parseDouble(String.format("%.04f",this.wtp));
+		return Double.parseDouble(String.format("%.04f",Model.patients.wtp[this.row]));
 	}
 	
 
@@ -1496,50 +1794,54 @@ public void export(){
 
 	
 	
-	/**In case provider is covered for more than one insurances of patient, this method returns the best option for visit specified provider*/
-	private HealthInsurance bestInsurance(Provider prov){
+	/**
+	 * Returns the expected cost of a visit with the best insurance of the patient for this provider (in case the provider is covered by more than
+	 * one insurance, the lowest {@link #getVisitCost(Provider, HealthInsurance)}). The cost is computed once per tick and provider 
+	 * ({@link VisitCostCache}), and again after the patient paid a claim ({@link #payConsultation(MedicalConsultation)}, 
+	 * {@link #payTreatment(double, TreatmentType, String)}) or got a new insurance.
+	 * @param prov Potential provider
+	 * @return Amount of money: cost of a visit with the specified provider
+	 */
+	private double getVisitCost(Provider prov){
+		int key = (prov!=null && Model.providerIndex!=null) ? Model.providerIndex.getPosition(prov) : -1;
+		if(key>=0) {
+			if(this.visitCosts==null) {
+				this.visitCosts = new VisitCostCache();
+			}
+			int slot = this.visitCosts.find(key, Model.getCurrentTick());
+			if(slot>=0) {
+				return this.visitCosts.cost(slot);
+			}
+		}
+		
 		HealthInsurance selectedInsurance=null;
 		double cost=Double.POSITIVE_INFINITY;
 		if(this.insurance!=null){
 			for(HealthInsurance ins: this.insurance){
-				if(this.getVisitCost(prov, ins)<cost){
+				double insCost = this.getVisitCost(prov, ins);
+				if(insCost<cost){
 					selectedInsurance=ins;
-					cost= this.getVisitCost(prov, ins);
+					cost= insCost;
 				}
 			}
-
 		}
-		return selectedInsurance;		
+		if(selectedInsurance==null) {
+			cost = this.getVisitCost(prov, null);
+		}
+		
+		if(key>=0) {
+			this.visitCosts.put(key, cost);
+		}
+		return cost;
 	}
 	
-	/**
-	 * This method searches all providers within a certain radius (defined by the model parameter <b>visibilityAgents</b>
-	 * @author Usim, Florian Chavez
-	 * @version 10-Jan-2019 (verified)
-	 * @return HashSet of type Provider with all the eligible provider
-	 */
-	private LinkedHashSet<Provider> nearProviders(){ 
-		// Define a hash set into which we put all the eligible providers
-		LinkedHashSet<Provider> allProviders = new LinkedHashSet<Provider>();
-		
-		//Get the location of this agent
-		NdPoint loc = this.location.getLocation(this);
-		Context<Object> context = ContextUtils.getContext(this);
-		
-		// Loop over all providers in the context and check if they are within the visibility range
-		int visibility = RunEnvironment.getInstance().getParameters().getInteger("visibilityAgents");
-		for(Object o:context.getObjects(Provider.class)){
-			Provider provider = (Provider)o;
-			NdPoint provLoc = provider.space.getLocation(provider);
-			double distance= location.getDistance(provLoc,loc);
-			if(distance<visibility){
-				allProviders.add(provider);
-			}
+	/** Drops the cached visit costs (the claims or the insurances of the patient changed) */
+	private void clearVisitCosts() {
+		if(this.visitCosts!=null) {
+			this.visitCosts.clear();
 		}
-		
-		
-		return allProviders;
 	}
+	
 	 
 	
 	
@@ -1586,7 +1888,7 @@ public void export(){
 	 * @return dummy variables for women
 	 */
 	protected int genderToInteger() {
-		if(this.female) {
+		if(Model.patients.female[this.row]) {
 			return 1;
 		}else {
 			return 0;
@@ -1607,20 +1909,13 @@ public void export(){
 		int memory = Model.memory/52; // here we need it in years
 		
 		
-		// get the newst key
-		int newestKey = -999;
-		for(int key:this.annualExpentitures.keySet()) {
-			if(key>newestKey) {
-				newestKey=key;
-			}
-		}
-		//System.out.printf("Size of annualexpenditures=%s, newestKey=%s\n",this.annualExpentitures.size(),newestKey);
-		int periods = Math.min(memory, this.annualExpentitures.size());
+		// the log starts with the newest year
+		int periods = Math.min(memory, Model.patients.annualCount[this.row]);
 		
 		double weight = periods;
-		for(int year=newestKey;year>newestKey-periods;year--) {
-			numerator += weight*this.annualExpentitures.get(year);
-			//System.out.printf("Year=%s,Weight%s=>Cost%s\n", year,weight,this.annualExpentitures.get(year));
+		for(int year=0;year<periods;year++) {
+			numerator += weight*Model.patients.getAnnualExpenditures(this.row, year);
+			//System.out.printf("Year=%s,Weight%s=>Cost%s\n", year,weight,Model.patients.getAnnualExpenditures(this.row, year));
 			weight --;	
 		}
 		
@@ -1684,12 +1979,12 @@ public void export(){
 	 */
 	public double getPersonalExpenCalcTotal() { 
 				
-		if(Model.getP95ExpenPop(this.genderToInteger(), this.age)!=0.0) {
-			return this.riskAversion*Math.max(Model.getP95ExpenPop(this.genderToInteger(), (int)Math.floor(this.age)), this.movingAverageTotal()) + (1-this.riskAversion)*this.movingAverageTotal();	
+		if(Model.getP95ExpenPop(this.genderToInteger(), Model.patients.age[this.row])!=0.0) {
+			return Model.patients.riskAversion[this.row]*Math.max(Model.getP95ExpenPop(this.genderToInteger(), (int)Math.floor(Model.patients.age[this.row])), this.movingAverageTotal()) + (1-Model.patients.riskAversion[this.row])*this.movingAverageTotal();	
 		}else {
 			//FIXME: (from Alejandro) --> the next warning is activated
 			//System.err.println("Warning: 95th percentile not found!");
-			return this.riskAversion*this.movingAverageTotal() + (1-this.riskAversion)*this.movingAverageTotal();	
+			return Model.patients.riskAversion[this.row]*this.movingAverageTotal() + (1-Model.patients.riskAversion[this.row])*this.movingAverageTotal();	
 		}
 	}
 	
@@ -0,0 +1,247 @@
+package healthABM;
+
+import java.util.Arrays;
+
+import repast.simphony.space.continuous.ContinuousSpace;
+import repast.simphony.space.continuous.NdPoint;
+
+/**
+ * Columnar store of the primitive variables of all {@link Patient}s. Each patient is a view on one row (see {@link Patient#row}); the
+ * columns are primitive arrays, so a loop over all patients (e.g. {@link Model#updateGlobalLogExpenditures()}) reads contiguous memory
+ * instead of one object graph per patient.<br>
+ * The row of a patient who dies is taken over by the new patient who replaces it (see {@link Patient#die()}). The columns are
+ * only changed by the patient of the row, hence the patients may be processed in parallel; rows are only added or released on one thread.<br>
+ * The references of a patient (medical conditions, insurances, providers, experience) stay in the {@link Patient} object.
+ */
+public class PatientTable {
+
+	/** Number of years kept in the log of annual expenditures */
+	public static final int YEARS = 6;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// COLUMNS
+	/** Patient of each row (null: free row)*/
+	Patient[] agent;
+	/** Age in weeks */
+	int[] age;
+	/** Gender: true: female, false: male*/
+	boolean[] female;
+	/** Weekly income (=income per tick)*/
+	double[] income;
+	/** Capital (savings)*/
+	double[] capital;
+	/** Tolerance to health severity */
+	double[] tolerance;
+	/** Aversion to risk: 1 totally risk averse, 0 no risk aversion */
+	double[] riskAversion;
+	/** Willingness to pay registered during the current tick */
+	double[] wtp;
+	/** Out of pocket expenditures of the current tick */
+	double[] oopExp;
+	/** Expenditures year to date */
+	double[] ytdExpenditures;
+	/** Location in the space (NaN until it is first needed, the patients do not move)*/
+	double[] x;
+	double[] y;
+	/** Annual expenditures, {@link #YEARS} values per row: newest year first */
+	double[] annual;
+	/** Number of years in the log of annual expenditures */
+	int[] annualCount;
+
+	/** Number of rows in use or free */
+	private int size = 0;
+
+	/** Free rows (stack) */
+	private int[] free = new int[16];
+	private int numFree = 0;
+
+	/** Space in which the patients are located */
+	ContinuousSpace<Object> space;
+
+
+	public PatientTable() {
+		this.allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Assigns a row to a new patient (a free row if there is one)
+	 * @return row of the patient
+	 */
+	int add(Patient p, int age, boolean female, double income, double tolerance, double riskAversion) {
+		int row;
+		if(this.numFree>0) {
+			row = this.free[--this.numFree];
+		}
+		else {
+			if(this.size==this.agent.length) {
+				this.allocate(2*this.size);
+			}
+			row = this.size++;
+		}
+		this.agent[row] 		= p;
+		this.age[row] 			= age;
+		this.female[row] 		= female;
+		this.income[row] 		= income;
+		this.capital[row] 		= 0.0;
+		this.tolerance[row] 	= tolerance;
+		this.riskAversion[row] 	= riskAversion;
+		this.wtp[row] 			= 0.0;
+		this.oopExp[row] 		= 0.0;
+		this.ytdExpenditures[row] = 0.0;
+		this.x[row] 			= Double.NaN;
+		this.y[row] 			= Double.NaN;
+		this.annualCount[row] 	= 0;
+		return row;
+	}
+
+	/**
+	 * Releases the row of a patient who died. The row is reused by the next new patient.
+	 * @param row row of the patient
+	 */
+	void remove(int row) {
+		this.agent[row] = null;
+		if(this.numFree==this.free.length) {
+			this.free = Arrays.copyOf(this.free, 2*this.numFree);
+		}
+		this.free[this.numFree++] = row;
+	}
+
+	/** @return number of rows (including free rows), i.e. the upper bound for a loop over all rows */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param row row
+	 * @return TRUE if the row belongs to a patient
+	 */
+	public boolean isUsed(int row) {
+		return this.agent[row]!=null;
+	}
+
+	/**
+	 * Adds the expenditures of a year to the log of annual expenditures (the oldest year is dropped if the log is full)
+	 * @param row row of the patient
+	 * @param expenditures expenditures of the year
+	 */
+	void addAnnualExpenditures(int row, double expenditures) {
+		int base = row*YEARS;
+		System.arraycopy(this.annual, base, this.annual, base+1, YEARS-1);
+		this.annual[base] = expenditures;
+		this.annualCount[row] = Math.min(YEARS, this.annualCount[row]+1);
+	}
+
+	/**
+	 * Returns the expenditures of a year from the log of annual expenditures
+	 * @param row row of the patient
+	 * @param yearsBack 0: newest year, 1: the year before, etc. (must be less than {@link #annualCount})
+	 * @return expenditures of the year
+	 */
+	double getAnnualExpenditures(int row, int yearsBack) {
+		return this.annual[row*YEARS+yearsBack];
+	}
+
+	/**
+	 * Returns the distance between the patient and a point. The space has strict borders (see {@link Initialiser}), hence the distance is Euclidean.
+	 * @param row row of the patient
+	 * @param p point (e.g. location of a provider)
+	 * @return distance
+	 */
+	double distance(int row, NdPoint p) {
+		this.locate(row);
+		double dx = p.getX()-this.x[row];
+		double dy = p.getY()-this.y[row];
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	/**
+	 * Makes sure that the location of the patient is in the columns x and y
+	 * @param row row of the patient
+	 */
+	void locate(int row) {
+		if(Double.isNaN(this.x[row])) {
+			NdPoint loc = this.space.getLocation(this.agent[row]);
+			this.x[row] = loc.getX();
+			this.y[row] = loc.getY();
+		}
+	}
+
+	/**
+	 * Returns the columns (for the {@link Checkpoint})
+	 * @return size, free rows and the columns (the patients themselves are saved as entities)
+	 */
+	Object[] save() {
+		return new Object[] {this.size, Arrays.copyOf(this.free, this.numFree), Arrays.copyOf(this.agent, this.size),
+				Arrays.copyOf(this.age, this.size), Arrays.copyOf(this.female, this.size), Arrays.copyOf(this.income, this.size),
+				Arrays.copyOf(this.capital, this.size), Arrays.copyOf(this.tolerance, this.size), Arrays.copyOf(this.riskAversion, this.size),
+				Arrays.copyOf(this.wtp, this.size), Arrays.copyOf(this.oopExp, this.size), Arrays.copyOf(this.ytdExpenditures, this.size),
+				Arrays.copyOf(this.x, this.size), Arrays.copyOf(this.y, this.size), Arrays.copyOf(this.annual, this.size*YEARS),
+				Arrays.copyOf(this.annualCount, this.size)};
+	}
+
+	/**
+	 * Replaces the columns by the ones saved by {@link #save()}
+	 * @param saved saved columns
+	 */
+	void load(Object[] saved) {
+		int n = (Integer) saved[0];
+		this.allocate(Math.max(INITIAL_CAPACITY, n));
+		this.size = n;
+		int[] f = (int[]) saved[1];
+		this.free = Arrays.copyOf(f, Math.max(16, f.length));
+		this.numFree = f.length;
+		Object[] agents = (Object[]) saved[2];
+		for(int i = 0; i < n; i++) {
+			this.agent[i] = (Patient) agents[i];
+		}
+		System.arraycopy(saved[3], 0, this.age, 0, n);
+		System.arraycopy(saved[4], 0, this.female, 0, n);
+		System.arraycopy(saved[5], 0, this.income, 0, n);
+		System.arraycopy(saved[6], 0, this.capital, 0, n);
+		System.arraycopy(saved[7], 0, this.tolerance, 0, n);
+		System.arraycopy(saved[8], 0, this.riskAversion, 0, n);
+		System.arraycopy(saved[9], 0, this.wtp, 0, n);
+		System.arraycopy(saved[10], 0, this.oopExp, 0, n);
+		System.arraycopy(saved[11], 0, this.ytdExpenditures, 0, n);
+		System.arraycopy(saved[12], 0, this.x, 0, n);
+		System.arraycopy(saved[13], 0, this.y, 0, n);
+		System.arraycopy(saved[14], 0, this.annual, 0, n*YEARS);
+		System.arraycopy(saved[15], 0, this.annualCount, 0, n);
+	}
+
+	/** Allocates (or enlarges) all columns */
+	private void allocate(int capacity) {
+		if(this.agent==null) {
+			this.agent = new Patient[capacity];
+			this.age = new int[capacity];
+			this.female = new boolean[capacity];
+			this.income = new double[capacity];
+			this.capital = new double[capacity];
+			this.tolerance = new double[capacity];
+			this.riskAversion = new double[capacity];
+			this.wtp = new double[capacity];
+			this.oopExp = new double[capacity];
+			this.ytdExpenditures = new double[capacity];
+			this.x = new double[capacity];
+			this.y = new double[capacity];
+			this.annual = new double[capacity*YEARS];
+			this.annualCount = new int[capacity];
+			return;
+		}
+		this.agent = Arrays.copyOf(this.agent, capacity);
+		this.age = Arrays.copyOf(this.age, capacity);
+		this.female = Arrays.copyOf(this.female, capacity);
+		this.income = Arrays.copyOf(this.income, capacity);
+		this.capital = Arrays.copyOf(this.capital, capacity);
+		this.tolerance = Arrays.copyOf(this.tolerance, capacity);
+		this.riskAversion = Arrays.copyOf(this.riskAversion, capacity);
+		this.wtp = Arrays.copyOf(this.wtp, capacity);
+		this.oopExp = Arrays.copyOf(this.oopExp, capacity);
+		this.ytdExpenditures = Arrays.copyOf(this.ytdExpenditures, capacity);
+		this.x = Arrays.copyOf(this.x, capacity);
+		this.y = Arrays.copyOf(this.y, capacity);
+		this.annual = Arrays.copyOf(this.annual, capacity*YEARS);
+		this.annualCount = Arrays.copyOf(this.annualCount, capacity);
+	}
+}
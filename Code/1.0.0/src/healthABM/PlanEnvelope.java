@@ -0,0 +1,167 @@
+package healthABM;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Lower envelope of the costs of a list of eligible plans ({@link PlanIndex}) as a function of the expected expenditures E of a patient:
+ * cost = E - reimbursement + premium, a piecewise-linear function for each plan ({@link CostSharingSchedule}). The envelope is split into
+ * segments of E with the same cheapest plan, so that {@link Patient#selectInsurance(ArrayList)} finds the best plan by binary search
+ * instead of scoring all plans.<br>
+ * The cost of changing plans multiplies the cost of the plans the patient did not have (factor &gt;= 1, all costs &gt;= 0), hence the
+ * cheapest plan is either the cheapest plan of the envelope or one of the current plans of the patient, which are evaluated directly.
+ * The envelopes are compiled when they are first needed in a contracting year and dropped when the offer changes ({@link PlanIndex#offerChanged()}).
+ */
+public class PlanEnvelope {
+
+	/** Plans, in the order of the context */
+	private final HIPlan[] plans;
+
+	/** Start of each segment (the first segment starts at 0) and position of its cheapest plan */
+	private final double[] starts;
+	private final int[] cheapest;
+
+	/** Positions of the plans by ID */
+	private final HashMap<Integer, int[]> positions = new HashMap<Integer, int[]>();
+
+	/** FALSE if the costs can be negative (then the plans are scored one by one)*/
+	private final boolean valid;
+
+
+	/**
+	 * @param plans eligible plans
+	 */
+	PlanEnvelope(HIPlan[] plans) {
+		this.plans = plans;
+		int n = plans.length;
+		CostSharingSchedule[] schedules = new CostSharingSchedule[n];
+		boolean valid = n>0;
+		for(int p = 0; p < n; p++) {
+			schedules[p] = plans[p].getSchedule();
+			valid &= plans[p].premium>=0 && !Double.isInfinite(plans[p].premium) && plans[p].copaymentRate>=0 && plans[p].copaymentRate<=1;
+			int[] pos = this.positions.get(plans[p].ID);
+			pos = (pos==null) ? new int[] {p} : append(pos, p);
+			this.positions.put(plans[p].ID, pos);
+		}
+		this.valid = valid;
+		if(!valid) {
+			this.starts = new double[0];
+			this.cheapest = new int[0];
+			return;
+		}
+
+		// Breakpoints of all plans: between two breakpoints, all costs are linear
+		double[] bps = new double[2*n+1];
+		int numBps = 1;
+		for(CostSharingSchedule s: schedules) {
+			for(double bp: s.getBreakpoints()) {
+				if(bp>0 && !Double.isInfinite(bp)) {
+					bps[numBps++] = bp;
+				}
+			}
+		}
+		Arrays.sort(bps, 0, numBps);
+
+		double[] starts = new double[16];
+		int[] cheapest = new int[16];
+		int numSegments = 0;
+		double[] value = new double[n];
+		double[] slope = new double[n];
+		for(int i = 0; i < numBps; i++) {
+			double a = bps[i];
+			double b = (i+1<numBps) ? bps[i+1] : Double.POSITIVE_INFINITY;
+			if(b<=a) {
+				continue;	// same breakpoint
+			}
+			// Lines of all plans on [a, b): cheapest at a, then the lines with a lower slope take over at their crossing
+			int w = 0;
+			for(int p = 0; p < n; p++) {
+				value[p] = plans[p].premium + schedules[p].getOutOfPocket(a);
+				slope[p] = schedules[p].getOutOfPocketSlope(a);
+				if(value[p]<value[w] || (value[p]==value[w] && slope[p]<slope[w])) {
+					w = p;
+				}
+			}
+			double x = a;
+			while(true) {
+				if(numSegments==0 || cheapest[numSegments-1]!=w) {
+					if(numSegments==starts.length) {
+						starts = Arrays.copyOf(starts, 2*numSegments);
+						cheapest = Arrays.copyOf(cheapest, 2*numSegments);
+					}
+					starts[numSegments] = x;
+					cheapest[numSegments++] = w;
+				}
+				double next = b;
+				int q = -1;
+				double vw = value[w] + slope[w]*(x-a);
+				for(int p = 0; p < n; p++) {
+					if(slope[p]<slope[w]) {
+						double cross = x + Math.max(0.0, value[p] + slope[p]*(x-a) - vw) / (slope[w]-slope[p]);
+						if(cross<next || (cross==next && q>=0 && (slope[p]<slope[q] || (slope[p]==slope[q] && p<q)))) {
+							next = cross;
+							q = p;
+						}
+					}
+				}
+				if(q<0 || next>=b) {
+					break;
+				}
+				x = next;
+				w = q;
+			}
+		}
+		this.starts = Arrays.copyOf(starts, numSegments);
+		this.cheapest = Arrays.copyOf(cheapest, numSegments);
+	}
+
+	/**
+	 * Returns the plan with the lowest cost for a patient (as {@link Patient#selectInsurance(ArrayList)}: the cost of the plans the
+	 * patient did not have is multiplied by the cost of changing plans)
+	 * @param expen expected expenditures of the patient
+	 * @param changePlansCost factor of the cost of changing plans
+	 * @param hipIDs IDs of the current plans of the patient
+	 * @return position of the plan in the list, -1 if the envelope cannot decide (e.g. tie at the border of two segments): all plans must be scored
+	 */
+	int findBest(double expen, double changePlansCost, ArrayList<Integer> hipIDs) {
+		if(!this.valid || !(expen>0) || Double.isInfinite(expen) || !(changePlansCost>=1)) {
+			return -1;
+		}
+		int k = Arrays.binarySearch(this.starts, expen);
+		if(k>=0) {
+			return -1;	// at the border of two segments, the order of the plans decides
+		}
+		int best = this.cheapest[-k-2];
+		double bestCost = cost(this.plans[best], expen);
+		if(!hipIDs.contains(this.plans[best].ID)) {
+			bestCost = bestCost*changePlansCost;
+		}
+
+		// Current plans of the patient (no cost of changing)
+		for(Integer id: hipIDs) {
+			int[] pos = this.positions.get(id);
+			if(pos!=null) {
+				for(int p: pos) {
+					double c = cost(this.plans[p], expen);
+					if(c<bestCost || (c==bestCost && p<best)) {
+						best = p;
+						bestCost = c;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/** Cost of a plan, as in {@link Patient#selectInsurance(ArrayList)} */
+	static double cost(HIPlan plan, double expen) {
+		return expen - plan.computeReimbursement(expen) + plan.premium;
+	}
+
+	private static int[] append(int[] a, int x) {
+		int[] b = Arrays.copyOf(a, a.length+1);
+		b[a.length] = x;
+		return b;
+	}
+}
@@ -0,0 +1,118 @@
+package healthABM;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import repast.simphony.context.Context;
+
+/**
+ * Health insurance plans ({@link HIPlan}) that a patient can contract, by gender and age in years: plans with an insurer, whose age limits
+ * include the age and that accept the gender. The lists keep the order of the context, which decides between plans of the same cost in
+ * {@link Patient#selectInsurance(ArrayList)}.<br>
+ * The index is built by the {@link Initialiser} and built again by {@link InsuranceCompany#stepAdaptHIOffer()} when the offer of a company
+ * changes ({@link Model#planIndex}). Patients older than {@link IllnessRates#MAX_AGE} are looked up in all plans.<br>
+ * Each list has a lower envelope of the costs of its plans ({@link PlanEnvelope}), compiled when it is first needed and dropped when the
+ * premiums change ({@link #offerChanged()}).
+ */
+public class PlanIndex {
+
+	/** All plans, in the order of the context */
+	private final HIPlan[] plans;
+
+	/** Eligible plans: [gender (0: male, 1: female)][age in years] (lists with the same plans are shared)*/
+	private final HIPlan[][][] eligible;
+
+	/** Envelopes of the lists of {@link #eligible} (null until needed)*/
+	private final IdentityHashMap<HIPlan[], PlanEnvelope> envelopes = new IdentityHashMap<HIPlan[], PlanEnvelope>();
+
+
+	/**
+	 * @param context Context with all plans
+	 */
+	public PlanIndex(Context<Object> context) {
+		ArrayList<HIPlan> all = new ArrayList<HIPlan>();
+		for(Object o: context.getObjects(HIPlan.class)) {
+			all.add((HIPlan) o);
+		}
+		this.plans = all.toArray(new HIPlan[all.size()]);
+
+		this.eligible = new HIPlan[2][IllnessRates.MAX_AGE][];
+		for(int gender = 0; gender < 2; gender++) {
+			HIPlan[] previous = null;
+			for(int age = 0; age < IllnessRates.MAX_AGE; age++) {
+				HIPlan[] list = this.filter(gender==1, age);
+				if(previous!=null && sameList(previous, list)) {
+					list = previous;
+				}
+				this.eligible[gender][age] = list;
+				this.envelopes.put(list, null);
+				previous = list;
+			}
+		}
+	}
+
+	/**
+	 * Returns the plans a patient can contract
+	 * @param female gender of the patient
+	 * @param ageYears age in years
+	 * @return eligible plans, in the order of the context (not to be changed)
+	 */
+	public HIPlan[] getEligiblePlans(boolean female, int ageYears) {
+		if(ageYears<0 || ageYears>=IllnessRates.MAX_AGE) {
+			return this.filter(female, ageYears);
+		}
+		return this.eligible[female ? 1 : 0][ageYears];
+	}
+
+	/**
+	 * Returns the lower envelope of the costs of a list of eligible plans
+	 * @param list list returned by {@link #getEligiblePlans(boolean, int)}
+	 * @return envelope, null if the list is not in the index (patients older than {@link IllnessRates#MAX_AGE})
+	 */
+	public synchronized PlanEnvelope getEnvelope(HIPlan[] list) {
+		if(!this.envelopes.containsKey(list)) {
+			return null;
+		}
+		PlanEnvelope envelope = this.envelopes.get(list);
+		if(envelope==null) {
+			envelope = new PlanEnvelope(list);
+			this.envelopes.put(list, envelope);
+		}
+		return envelope;
+	}
+
+	/** Drops the envelopes (to be called when the premiums or the cost sharing of plans change)*/
+	public synchronized void offerChanged() {
+		for(HIPlan[] list: this.envelopes.keySet()) {
+			this.envelopes.put(list, null);
+		}
+	}
+
+	/** @return all plans, in the order of the context (not to be changed)*/
+	public HIPlan[] getPlans() {
+		return this.plans;
+	}
+
+	/** Eligibility test of {@link Patient#selectInsurance(ArrayList)} */
+	private HIPlan[] filter(boolean female, int ageYears) {
+		ArrayList<HIPlan> list = new ArrayList<HIPlan>();
+		for(HIPlan cPlan: this.plans) {
+			if(cPlan.insurer!=null && cPlan.getMinAge()<=ageYears && cPlan.getMaxAge()>=ageYears && ((female & cPlan.womenAllowed) | (!female & cPlan.menAllowed))) {
+				list.add(cPlan);
+			}
+		}
+		return list.toArray(new HIPlan[list.size()]);
+	}
+
+	private static boolean sameList(HIPlan[] a, HIPlan[] b) {
+		if(a.length!=b.length) {
+			return false;
+		}
+		for(int i = 0; i < a.length; i++) {
+			if(a[i]!=b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,251 @@
+package healthABM;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+import repast.simphony.context.Context;
+import repast.simphony.space.continuous.NdPoint;
+
+/**
+ * Uniform grid over the locations of all {@link Provider}s, with cells of the size of the visibility radius (parameter <i>visibilityAgents</i>).
+ * For the choice of a provider ({@link Patient#getNetworkAdvise(double, double)}), all patients of a cell share a consideration set: all
+ * providers sorted by their minimum distance to the cell, built once per cell when it is first needed. The search of a patient can thus
+ * stop as soon as the transport cost exceeds the willingness to pay.<br>
+ * The providers do not move, hence the index is built once by the {@link Initialiser} (after the providers are created or restored).
+ * If providers are added or moved, the index must be built again ({@link Model#providerIndex}), which also drops the consideration sets.<br>
+ * The index also keeps the providers that have no capacity left in the current tick ({@link #isFull(int)}), so that the search of a provider
+ * tests one bit per provider instead of reading the provider.
+ */
+public class ProviderIndex {
+
+	/** Maximum number of cells in each direction (for very small radii) */
+	private static final int MAX_CELLS = 1024;
+
+	/** All providers, in the order of the context */
+	private final Provider[] providers;
+
+	/** Position of each provider in {@link #providers} */
+	private final IdentityHashMap<Provider, Integer> positions = new IdentityHashMap<Provider, Integer>();
+
+	/** Location of each provider */
+	private final NdPoint[] locations;
+
+	/** Visibility radius */
+	private final double radius;
+
+	// GRID
+	private final double minX, minY, cellSize;
+	private final int nx, ny;
+	/** Providers of each cell (positions in {@link #providers}, ascending) */
+	private final int[][] cells;
+
+	/** Consideration set of each cell (null until it is needed) */
+	private final ConsiderationSet[] sets;
+
+	/** Providers whose appointments reached their capacity (positions in {@link #providers}), see {@link #refreshFull()} and {@link #updateFull(Provider)}*/
+	private final BitSet full = new BitSet();
+
+	/** Minimum price of a consultation and minimum/maximum non-monetary cost of all providers */
+	final double minPrice, minNMCost, maxNMCost;
+
+
+	/**
+	 * @param context Context with all providers
+	 * @param radius visibility radius (parameter visibilityAgents)
+	 */
+	public ProviderIndex(Context<Object> context, double radius) {
+		int n = 0;
+		Provider[] all = new Provider[16];
+		for(Object o: context.getObjects(Provider.class)) {
+			if(n==all.length) {
+				all = Arrays.copyOf(all, 2*n);
+			}
+			all[n++] = (Provider) o;
+		}
+		this.providers = Arrays.copyOf(all, n);
+		for(int i = 0; i < n; i++) {
+			this.positions.put(this.providers[i], i);
+		}
+		this.locations = new NdPoint[n];
+		this.radius = radius;
+
+		double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+		for(int i = 0; i < n; i++) {
+			NdPoint loc = this.providers[i].space.getLocation(this.providers[i]);
+			this.locations[i] = loc;
+			x0 = Math.min(x0, loc.getX());
+			y0 = Math.min(y0, loc.getY());
+			x1 = Math.max(x1, loc.getX());
+			y1 = Math.max(y1, loc.getY());
+		}
+		if(n==0) {
+			x0 = y0 = x1 = y1 = 0;
+		}
+		this.minX = x0;
+		this.minY = y0;
+		this.cellSize = Math.max(radius, 1e-9);
+		// (the last cell of a row/column also holds all providers beyond the grid)
+		this.nx = Math.max(1, Math.min(MAX_CELLS, (int) Math.floor((x1-x0)/this.cellSize)+1));
+		this.ny = Math.max(1, Math.min(MAX_CELLS, (int) Math.floor((y1-y0)/this.cellSize)+1));
+
+		// Count, then fill the cells (in the order of the providers)
+		int[] counts = new int[this.nx*this.ny];
+		int[] cellOf = new int[n];
+		for(int i = 0; i < n; i++) {
+			cellOf[i] = this.cellX(this.locations[i].getX()) + this.nx*this.cellY(this.locations[i].getY());
+			counts[cellOf[i]]++;
+		}
+		this.cells = new int[counts.length][];
+		for(int c = 0; c < counts.length; c++) {
+			this.cells[c] = new int[counts[c]];
+			counts[c] = 0;
+		}
+		for(int i = 0; i < n; i++) {
+			this.cells[cellOf[i]][counts[cellOf[i]]++] = i;
+		}
+		this.sets = new ConsiderationSet[this.cells.length];
+
+		double price = 0.0, nm0 = 0.0, nm1 = 0.0;
+		for(int i = 0; i < n; i++) {
+			price = i==0 ? this.providers[i].priceMedicalConsultation : Math.min(price, this.providers[i].priceMedicalConsultation);
+			nm0 = i==0 ? this.providers[i].NMCost : Math.min(nm0, this.providers[i].NMCost);
+			nm1 = i==0 ? this.providers[i].NMCost : Math.max(nm1, this.providers[i].NMCost);
+		}
+		this.minPrice = price;
+		this.minNMCost = nm0;
+		this.maxNMCost = nm1;
+	}
+
+	/** @return visibility radius */
+	public double getRadius() {
+		return this.radius;
+	}
+
+	/**
+	 * Returns the position of a provider
+	 * @param prov Provider
+	 * @return position in {@link #getProviders()}, -1 if the provider is not in the index
+	 */
+	public int getPosition(Provider prov) {
+		Integer i = this.positions.get(prov);
+		return i==null ? -1 : i;
+	}
+
+	/**
+	 * Returns the location of a provider
+	 * @param i position of the provider in {@link #getProviders()}
+	 * @return location
+	 */
+	public NdPoint getLocation(int i) {
+		return this.locations[i];
+	}
+
+	/**
+	 * Returns the consideration set of the cell of a patient: all providers, sorted by their minimum distance to the cell (the distance
+	 * to the patient is at least this distance)
+	 * @param row row of the patient in {@link Model#patients}
+	 * @return consideration set (shared, not to be changed)
+	 */
+	public ConsiderationSet getConsiderationSet(int row) {
+		PatientTable t = Model.patients;
+		t.locate(row);
+		int c = this.cellX(t.x[row]) + this.nx*this.cellY(t.y[row]);
+		ConsiderationSet set = this.sets[c];
+		if(set==null) {
+			set = this.buildConsiderationSet(c);
+		}
+		return set;
+	}
+
+	private synchronized ConsiderationSet buildConsiderationSet(int c) {
+		if(this.sets[c]!=null) {
+			return this.sets[c];
+		}
+		// Bounds of the cell (the cells at the border extend to infinity)
+		int cx = c%this.nx, cy = c/this.nx;
+		double x0 = cx==0 ? Double.NEGATIVE_INFINITY : this.minX + cx*this.cellSize;
+		double x1 = cx==this.nx-1 ? Double.POSITIVE_INFINITY : this.minX + (cx+1)*this.cellSize;
+		double y0 = cy==0 ? Double.NEGATIVE_INFINITY : this.minY + cy*this.cellSize;
+		double y1 = cy==this.ny-1 ? Double.POSITIVE_INFINITY : this.minY + (cy+1)*this.cellSize;
+
+		int n = this.providers.length;
+		double[] d = new double[n];
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++) {
+			double dx = Math.max(0, Math.max(x0-this.locations[i].getX(), this.locations[i].getX()-x1));
+			double dy = Math.max(0, Math.max(y0-this.locations[i].getY(), this.locations[i].getY()-y1));
+			d[i] = Math.sqrt(dx*dx + dy*dy);
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> d[a]!=d[b] ? Double.compare(d[a], d[b]) : Integer.compare(a, b));
+		int[] positions = new int[n];
+		double[] distances = new double[n];
+		for(int k = 0; k < n; k++) {
+			positions[k] = order[k];
+			distances[k] = d[order[k]];
+		}
+		ConsiderationSet set = new ConsiderationSet(positions, distances);
+		this.sets[c] = set;
+		return set;
+	}
+
+	/**
+	 * @param i position of the provider in {@link #getProviders()}
+	 * @return TRUE if the provider has no capacity left in this tick
+	 */
+	public boolean isFull(int i) {
+		return this.full.get(i);
+	}
+
+	/** Marks all providers whose appointments reached their capacity (before the patients get medical care, see {@link Model#stepRefreshProviderCapacity()})*/
+	void refreshFull() {
+		for(int i = 0; i < this.providers.length; i++) {
+			this.full.set(i, this.providers[i].capacity<=this.providers[i].appointments);
+		}
+	}
+
+	/**
+	 * Marks a provider as full if his appointments reached his capacity. To be called after each appointment (serial part of
+	 * {@link Patient#getMedicalCare()}).
+	 * @param prov Provider
+	 */
+	void updateFull(Provider prov) {
+		int i = this.getPosition(prov);
+		if(i>=0 && prov.capacity<=prov.appointments) {
+			this.full.set(i);
+		}
+	}
+
+	/** @return all providers, in the order of the context (not to be changed)*/
+	public Provider[] getProviders() {
+		return this.providers;
+	}
+
+	/** Providers sorted by their minimum distance to a cell of the grid */
+	public static class ConsiderationSet {
+		/** Positions of the providers in {@link ProviderIndex#getProviders()} */
+		final int[] providers;
+		/** Minimum distance of each provider to the cell (ascending) */
+		final double[] minDistance;
+		/** Place of each provider in {@link #providers} (by position in {@link ProviderIndex#getProviders()}) */
+		final int[] place;
+
+		ConsiderationSet(int[] providers, double[] minDistance) {
+			this.providers = providers;
+			this.minDistance = minDistance;
+			this.place = new int[providers.length];
+			for(int k = 0; k < providers.length; k++) {
+				this.place[providers[k]] = k;
+			}
+		}
+	}
+
+	private int cellX(double x) {
+		return Math.max(0, Math.min(this.nx-1, (int) Math.floor((x-this.minX)/this.cellSize)));
+	}
+
+	private int cellY(double y) {
+		return Math.max(0, Math.min(this.ny-1, (int) Math.floor((y-this.minY)/this.cellSize)));
+	}
+}
@@ -0,0 +1,170 @@
+package healthABM;
+
+/**
+ * Counter-based random numbers. Each draw is a hash (SplitMix64 finalizer) of the seed of the run, the agent ID, the tick, the purpose
+ * of the draw and an index (e.g. the illness ID). Hence a draw does not depend on how many draws were made before, by which thread or in which
+ * order the agents were processed: a run gives the same results on 1 or on many threads (see {@link TickEngine}).<br>
+ * All methods are static, without state other than the seed, and do not allocate objects.<br>
+ * Draws that are not made by the model classes (e.g. the {@link Provider} or the random placement in the space) still use the Repast
+ * {@link repast.simphony.random.RandomHelper}.
+ */
+public class RandomStreams {
+
+	// PURPOSES
+	/** Contracting an illness in {@link Patient#stepGetSick()} (index: illness ID)*/
+	public static final int ILLNESS 			= 1;
+	/** Risk aversion of a new patient */
+	public static final int RISK_AVERSION 		= 2;
+	/** Cost of changing plans of a new patient */
+	public static final int CHANGE_PLANS_COST 	= 3;
+	/** Gender of the initial population */
+	public static final int INIT_GENDER 		= 4;
+	/** Income of the initial population */
+	public static final int INIT_INCOME 		= 5;
+	/** Age of the initial population */
+	public static final int INIT_AGE 			= 6;
+	/** Initial prevalence of the illnesses (index: illness ID)*/
+	public static final int INIT_PREVALENCE 	= 7;
+	/** Quality of the providers */
+	public static final int INIT_PROVIDER_QUALITY = 8;
+	/** Order of the agents in a phase of the {@link TickEngine} (agent: phase)*/
+	public static final int SHUFFLE 			= 9;
+	/** Weeks until the next onset of an illness in the {@link OnsetScheduler} (index: illness ID)*/
+	public static final int ONSET 				= 10;
+	/** Number of new cases and patients who get sick in the {@link CohortIncidence} (agent: cohort, index: illness index and draw)*/
+	public static final int COHORT 				= 11;
+	/** Seed of the Repast RandomHelper at the start of a tick of the {@link TickEngine} (see {@link #repastSeed(int)})*/
+	public static final int REPAST_SEED 		= 12;
+
+	/** Tick used for draws made when an agent is created (e.g. in the constructor) */
+	public static final int CREATION = -1;
+
+	private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+	/** Hashed seed of the run */
+	private static long seedHash = mix(GOLDEN);
+
+
+	/**
+	 * Sets the seed of the run (called by the constructor of the {@link Model} with the parameter randomSeed)
+	 * @param seed seed of the run
+	 */
+	public static void setSeed(long seed) {
+		seedHash = mix(seed + GOLDEN);
+	}
+
+	/**
+	 * Returns a uniformly distributed number in [0,1)
+	 * @param agent ID of the agent
+	 * @param tick current tick (or {@link #CREATION})
+	 * @param purpose purpose of the draw (see constants)
+	 * @param index index of the draw, if the agent makes several draws with the same purpose in the same tick
+	 * @return random number
+	 */
+	public static double uniform(long agent, int tick, int purpose, long index) {
+		return toDouble(mix(key(agent, tick, purpose) + GOLDEN*(index+1)));
+	}
+
+	/**
+	 * Returns a uniformly distributed number in [min,max)
+	 * @see #uniform(long, int, int, long)
+	 */
+	public static double uniform(double min, double max, long agent, int tick, int purpose, long index) {
+		return min + (max-min)*uniform(agent, tick, purpose, index);
+	}
+
+	/**
+	 * Returns a uniformly distributed integer in [min,max] (both included)
+	 * @see #uniform(long, int, int, long)
+	 */
+	public static int uniformInt(int min, int max, long agent, int tick, int purpose, long index) {
+		return min + (int) Math.floor(uniform(agent, tick, purpose, index)*(max-min+1.0));
+	}
+
+	/**
+	 * Returns the seed of the Repast RandomHelper for a tick. The {@link TickEngine} sets it at the start of each tick, hence the draws of the
+	 * {@link Provider} in a tick only depend on the seed of the run and the tick, also in a run restored from a {@link Checkpoint}.
+	 * @param tick current tick
+	 * @return seed (not negative)
+	 */
+	public static int repastSeed(int tick) {
+		return (int) (mix(key(0, tick, REPAST_SEED)) >>> 33);
+	}
+
+	/**
+	 * Returns a normally distributed number (Box-Muller)
+	 * @param mean mean
+	 * @param sd standard deviation
+	 * @see #uniform(long, int, int, long)
+	 */
+	public static double normal(double mean, double sd, long agent, int tick, int purpose, long index) {
+		long key = mix(key(agent, tick, purpose) + GOLDEN*(index+1));
+		return mean + sd*standardNormal(key, 0);
+	}
+
+	/**
+	 * Returns a beta distributed number, as X/(X+Y) with X~Gamma(alpha) and Y~Gamma(beta)
+	 * @param alpha first shape parameter
+	 * @param beta second shape parameter
+	 * @see #uniform(long, int, int, long)
+	 */
+	public static double beta(double alpha, double beta, long agent, int tick, int purpose, long index) {
+		long key = mix(key(agent, tick, purpose) + GOLDEN*(index+1));
+		double x = gamma(alpha, mix(key+1));
+		double y = gamma(beta, mix(key+2));
+		return x/(x+y);
+	}
+
+
+	// INTERNAL METHODS
+	private static long key(long agent, int tick, int purpose) {
+		long h = mix(seedHash + GOLDEN*agent);
+		return mix(h + GOLDEN*(((long) tick << 32) | (purpose & 0xffffffffL)));
+	}
+
+	/** SplitMix64 finalizer */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/** Converts the 53 highest bits to a double in [0,1)*/
+	private static double toDouble(long h) {
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	/** i-th uniform number of the sub-stream <i>key</i>*/
+	private static double uniformAt(long key, long i) {
+		return toDouble(mix(key + GOLDEN*(i+1)));
+	}
+
+	/** Standard normal number made of the uniforms 2i and 2i+1 of the sub-stream <i>key</i>*/
+	private static double standardNormal(long key, long i) {
+		double u1 = uniformAt(key, 2*i);
+		double u2 = uniformAt(key, 2*i+1);
+		return Math.sqrt(-2.0*Math.log(1.0-u1)) * Math.cos(2.0*Math.PI*u2);
+	}
+
+	/** Gamma(shape,1) distributed number (Marsaglia and Tsang), each attempt uses its own uniforms of the sub-stream <i>key</i>*/
+	private static double gamma(double shape, long key) {
+		if(shape<1.0) {
+			// Gamma(a) = Gamma(a+1)*U^(1/a)
+			return gamma(shape+1.0, mix(key+1)) * Math.pow(uniformAt(key, 0), 1.0/shape);
+		}
+		double d = shape - 1.0/3.0;
+		double c = 1.0/Math.sqrt(9.0*d);
+		for(long attempt = 0; ; attempt++) {
+			double x = standardNormal(key, 2*attempt);
+			double v = 1.0 + c*x;
+			if(v<=0) {
+				continue;
+			}
+			v = v*v*v;
+			double u = uniformAt(key, 4*attempt+2);
+			if(Math.log(u) < 0.5*x*x + d - d*v + d*Math.log(v)) {
+				return d*v;
+			}
+		}
+	}
+}
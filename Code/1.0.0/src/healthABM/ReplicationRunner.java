@@ -0,0 +1,157 @@
+package healthABM;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.concurrent.ForkJoinPool;
+
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Runs several replications and/or sweep points in one JVM with the headless {@link TickEngine}. The input files are imported only once
+ * ({@link Catalogue}), and the JVM start and JIT warm-up are paid once for all runs.<br>
+ * The state of the model is kept in static variables (see {@link Model}), hence the runs are executed one after the other. Each run uses
+ * all <i>numThreads</i> threads for its patient phases, sharing one fork/join pool.<br>
+ * Usage: <code>java healthABM.ReplicationRunner [parameters.xml] [replications=N] [output=folder] [name=value ...] [name=v1,v2,...]</code><br>
+ * A parameter with several values (separated by commas) defines the sweep points (all combinations). Replication r of a point uses
+ * randomSeed+r. The output of run i is written to <i>folder</i>/HICompany_i.txt and HIPlans_data_i.txt (see {@link RunOutput}), and
+ * <i>folder</i>/runs.txt lists the seed and parameter values of each run.
+ */
+public class ReplicationRunner {
+
+	/** Base parameters */
+	private final Parameters params;
+
+	/** Number of replications per sweep point */
+	private final int replications;
+
+	/** Output folder */
+	private final String output;
+
+	/** Names of the swept parameters */
+	private final ArrayList<String> sweepNames = new ArrayList<String>();
+
+	/** Values of the swept parameters */
+	private final ArrayList<String[]> sweepValues = new ArrayList<String[]>();
+
+
+	/**
+	 * @param params Base parameters (not changed by the runner)
+	 * @param replications number of replications per sweep point
+	 * @param output output folder (created if it does not exist)
+	 */
+	public ReplicationRunner(Parameters params, int replications, String output) {
+		this.params = params;
+		this.replications = Math.max(1, replications);
+		this.output = output;
+		new File(output).mkdirs();
+	}
+
+	/**
+	 * Adds a swept parameter
+	 * @param name name of the parameter
+	 * @param values values of the parameter (as strings, converted as in {@link TickEngine#setParameter(Parameters, String)})
+	 */
+	public void addSweep(String name, String[] values) {
+		this.sweepNames.add(name);
+		this.sweepValues.add(values);
+	}
+
+	/** Runs all sweep points and replications */
+	public void runAll() {
+		int numPoints = 1;
+		for(String[] v: this.sweepValues) {
+			numPoints *= v.length;
+		}
+		int baseSeed = this.params.getInteger("randomSeed");
+		int threads = TickEngine.getNumThreads(this.params);
+		ForkJoinPool pool = threads>1 ? new ForkJoinPool(threads) : null;
+
+		Formatter runs = null;
+		try {
+			runs = new Formatter(new FileOutputStream(this.output+"/runs.txt"));
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("FileNotFound Exception: could not create [%s/runs.txt]\n", this.output);
+			System.exit(1);
+		}
+		runs.format("run,point,replication,randomSeed,parameters\n");
+
+		int run = 1;
+		for(int point = 0; point < numPoints; point++) {
+			for(int r = 0; r < this.replications; r++) {
+				Parameters runParams = (Parameters) this.params.clone();
+				String assignments = this.applyPoint(runParams, point);
+				runParams.setValue("randomSeed", baseSeed+r);
+				ClaimsLog.setRun(runParams, run);
+
+				System.out.printf("Run %s: point %s [%s], replication %s\n", run, point, assignments, r);
+				TickEngine engine = new TickEngine(runParams, pool);
+				engine.build();
+				RunOutput out = new RunOutput(this.output, run);
+				engine.addObserver(out);
+				engine.run(TickEngine.getStopTick(runParams));
+				engine.finish();
+				out.close();
+
+				runs.format("%s,%s,%s,%s,\"%s\"\n", run, point, r, baseSeed+r, assignments);
+				runs.flush();
+				run++;
+			}
+		}
+		runs.close();
+		if(pool!=null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Sets the values of a sweep point (the last swept parameter changes fastest)
+	 * @param p Parameters of the run
+	 * @param point number of the sweep point
+	 * @return the assignments as string (name=value;...)
+	 */
+	private String applyPoint(Parameters p, int point) {
+		String result = "";
+		for(int i = this.sweepNames.size()-1; i >= 0; i--) {
+			String[] values = this.sweepValues.get(i);
+			String assignment = this.sweepNames.get(i)+"="+values[point % values.length];
+			point /= values.length;
+			TickEngine.setParameter(p, assignment);
+			result = assignment + (result.isEmpty() ? "" : ";"+result);
+		}
+		return result;
+	}
+
+	public static void main(String[] args) {
+		String file = args.length>0 ? args[0] : "HealthABM.rs/parameters.xml";
+		Parameters params = TickEngine.loadParameters(file);
+		int replications = 1;
+		String output = "outputdata";
+		ArrayList<String[]> sweeps = new ArrayList<String[]>();
+
+		for(int i = 1; i < args.length; i++) {
+			String[] kv = args[i].split("=", 2);
+			if(kv.length==2 && kv[0].equals("replications")) {
+				replications = Integer.parseInt(kv[1]);
+			}
+			else if(kv.length==2 && kv[0].equals("output")) {
+				output = kv[1];
+			}
+			else if(kv.length==2 && kv[1].contains(",")) {
+				sweeps.add(new String[] {kv[0], kv[1]});
+			}
+			else {
+				TickEngine.setParameter(params, args[i]);
+			}
+		}
+
+		ReplicationRunner runner = new ReplicationRunner(params, replications, output);
+		for(String[] s: sweeps) {
+			runner.addSweep(s[0], s[1].split(","));
+		}
+		runner.runAll();
+	}
+}
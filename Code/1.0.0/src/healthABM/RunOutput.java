@@ -0,0 +1,58 @@
+package healthABM;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.Formatter;
+
+/**
+ * Output of a headless run ({@link TickEngine}). It writes the same columns as the file sinks HICompany.txt and HIPlans_data.txt of the
+ * Repast GUI/batch mode, one file per run: <i>folder</i>/HICompany_<i>run</i>.txt and <i>folder</i>/HIPlans_data_<i>run</i>.txt.
+ */
+public class RunOutput implements TickEngine.TickObserver {
+
+	/** Number of the run (column run)*/
+	private final int run;
+
+	private Formatter companies;
+	private Formatter plans;
+
+	/**
+	 * Creates the output files of a run
+	 * @param folder output folder (must exist)
+	 * @param run number of the run
+	 */
+	public RunOutput(String folder, int run) {
+		this.run = run;
+		try {
+			this.companies 	= new Formatter(new FileOutputStream(folder+"/HICompany_"+run+".txt"));
+			this.plans 		= new Formatter(new FileOutputStream(folder+"/HIPlans_data_"+run+".txt"));
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("FileNotFound Exception: could not create the output files in [%s]\n", folder);
+			System.exit(1);
+		}
+		this.companies.format("run,tick,ID,Capital,Revenue,TotalReimbursements\n");
+		this.plans.format("run,tick,ID,Deductible,CopaymentRate,Prime,YearsCumulativeReimbursements,YearsCumulativeInsurees,"
+				+ "YearsClaims,YearsInsureeWeeks,YearsPremiumsCollected\n");
+	}
+
+	@Override
+	public void tickDone(TickEngine engine, int tick) {
+		for(Object o: engine.getContext().getObjects(InsuranceCompany.class)) {
+			InsuranceCompany c = (InsuranceCompany) o;
+			this.companies.format("%s,%s,%s,%s,%s,%s\n", this.run, tick, c.getID(), c.getCapital(), c.getRevenue(), c.getTotalReimbursements());
+		}
+		for(Object o: engine.getContext().getObjects(HIPlan.class)) {
+			HIPlan p = (HIPlan) o;
+			this.plans.format("%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s\n", this.run, tick, p.getID(), p.getDeductible(), p.getCopaymentRate(), p.getPrime(),
+					p.getYearsCumulativeReimbursements(), p.getYearsCumulativeInsurees(), p.getYearsClaims(), p.getYearsInsureeWeeks(),
+					p.getYearsPremiumsCollected());
+		}
+	}
+
+	/** Closes the output files */
+	public void close() {
+		this.companies.close();
+		this.plans.close();
+	}
+}
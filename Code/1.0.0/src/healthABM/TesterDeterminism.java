@@ -0,0 +1,194 @@
+package healthABM;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Checks of the headless runs and of the cost sharing:
+ * <ol>
+ * 	<li>runs a short simulation ({@link TickEngine}) with numThreads=1 and numThreads=N and compares the outputs HICompany and HIPlans_data
+ * 	(see {@link RunOutput}), which must be identical</li>
+ * 	<li>compares the reimbursements of {@link CostSharingSchedule} with the case-by-case formula of HealthInsurance before the schedule
+ * 	existed, for random contracts and claims</li>
+ * </ol>
+ * Usage: <code>java healthABM.TesterDeterminism [parameters.xml] [threads=N] [ticks=T] [output=folder] [name=value ...]</code>
+ */
+public class TesterDeterminism {
+
+	public static void main(String[] args) {
+		String file = args.length>0 ? args[0] : "HealthABM.rs/parameters.xml";
+		Parameters params = TickEngine.loadParameters(file);
+		int threads = Runtime.getRuntime().availableProcessors();
+		int ticks = 104;
+		String output = "outputdata/determinism";
+		for(int i = 1; i < args.length; i++) {
+			String[] kv = args[i].split("=", 2);
+			if(kv.length==2 && kv[0].equals("threads")) {
+				threads = Integer.parseInt(kv[1]);
+			}
+			else if(kv.length==2 && kv[0].equals("ticks")) {
+				ticks = Integer.parseInt(kv[1]);
+			}
+			else if(kv.length==2 && kv[0].equals("output")) {
+				output = kv[1];
+			}
+			else {
+				TickEngine.setParameter(params, args[i]);
+			}
+		}
+		new File(output).mkdirs();
+
+		boolean ok = true;
+
+		// 1: numThreads=1 (run 1) vs numThreads=N (run 2)
+		run(params, 1, ticks, output, 1);
+		run(params, Math.max(2, threads), ticks, output, 2);
+		ok &= compare(output+"/HICompany_1.txt", output+"/HICompany_2.txt");
+		ok &= compare(output+"/HIPlans_data_1.txt", output+"/HIPlans_data_2.txt");
+
+		// 2: reimbursement of the schedule vs the old formula
+		ok &= checkReimbursement(1000000, 1e-6);
+
+		System.out.println(ok ? "All checks passed" : "ERROR: at least one check failed");
+		if(!ok) {
+			System.exit(1);
+		}
+	}
+
+	/** Runs the model headless for some ticks and writes the output of the run */
+	private static void run(Parameters params, int threads, int ticks, String output, int run) {
+		Parameters p = (Parameters) params.clone();
+		TickEngine.setParameter(p, "numThreads="+threads);
+		TickEngine.setParameter(p, "stopBatch="+ticks);
+		ClaimsLog.setRun(p, run);
+
+		System.out.printf("Run %s: numThreads=%s, %s ticks\n", run, threads, ticks);
+		TickEngine engine = new TickEngine(p);
+		engine.build();
+		RunOutput out = new RunOutput(output, run);
+		engine.addObserver(out);
+		engine.run(ticks);
+		engine.finish();
+		out.close();
+	}
+
+	/**
+	 * Compares two output files without the column run (the lines of a tick are sorted, the order of the context does not matter)
+	 * @return true if they are identical
+	 */
+	private static boolean compare(String file1, String file2) {
+		List<String> lines1 = readWithoutRun(file1);
+		List<String> lines2 = readWithoutRun(file2);
+		if(lines1.size()!=lines2.size()) {
+			System.out.printf("ERROR: [%s] has %s lines, [%s] has %s\n", file1, lines1.size(), file2, lines2.size());
+			return false;
+		}
+		for(int i = 0; i < lines1.size(); i++) {
+			if(!lines1.get(i).equals(lines2.get(i))) {
+				System.out.printf("ERROR: [%s] and [%s] differ:\n\t%s\n\t%s\n", file1, file2, lines1.get(i), lines2.get(i));
+				return false;
+			}
+		}
+		System.out.printf("[%s] and [%s] are identical (%s lines)\n", file1, file2, lines1.size());
+		return true;
+	}
+
+	private static List<String> readWithoutRun(String file) {
+		List<String> result = new ArrayList<String>();
+		try {
+			for(String line: Files.readAllLines(new File(file).toPath())) {
+				result.add(line.substring(line.indexOf(',')+1));
+			}
+		}
+		catch (IOException e) {
+			System.out.printf("Sorry, I could not read [%s]\n", file);
+			System.exit(1);
+		}
+		Collections.sort(result.subList(1, result.size()));
+		return result;
+	}
+
+	/**
+	 * Compares {@link CostSharingSchedule#getReimbursement(double, double)} (contracts: no limit {@link CostSharingSchedule#UNLIMITED})
+	 * with {@link #oldReimbursement(double, double, double, int, int, double)} for random contracts and claims
+	 * @return true if the largest difference is at most the tolerance
+	 */
+	private static boolean checkReimbursement(int cases, double tolerance) {
+		Random r = new Random(1);
+		double[] deductibles 	= {0, 300, 500, 1000, 1500, 2000, 2500};
+		double[] rates 			= {0.0, 0.1, 0.2, 0.5};
+		double maxDiff = 0;
+		for(int i = 0; i < cases; i++) {
+			double deductible 	= deductibles[r.nextInt(deductibles.length)];
+			double rate 		= rates[1+r.nextInt(rates.length-1)];
+			int stopLoss 		= 0;
+			int stopClaim 		= 0;
+			switch(r.nextInt(3)) {
+				case 1: stopLoss 	= (int) deductible + 100 + r.nextInt(2000); break;
+				case 2: stopClaim 	= 1000 + r.nextInt(50000); break;
+			}
+			double claimsYTD 	= r.nextInt(4)==0 ? 0.0 : r.nextDouble()*20000;
+			double claim 		= r.nextDouble()*(r.nextBoolean() ? 500 : 50000);
+
+			double expected = oldReimbursement(claimsYTD, claim, deductible, stopLoss, stopClaim, rate);
+			double actual 	= new CostSharingSchedule(deductible, rate, stopLoss, stopClaim, CostSharingSchedule.UNLIMITED).getReimbursement(claimsYTD, claim);
+			double diff = Math.abs(expected-actual);
+			if(diff>maxDiff) {
+				maxDiff = diff;
+			}
+			if(diff>tolerance) {
+				System.out.printf("ERROR: reimbursement %s instead of %s (claimsYTD: %s; claim: %s; ded: %s; rate: %s; stopLoss: %s; stopClaim: %s)\n",
+						actual, expected, claimsYTD, claim, deductible, rate, stopLoss, stopClaim);
+				return false;
+			}
+		}
+		System.out.printf("Reimbursement: %s cases, largest difference to the old formula %s\n", cases, maxDiff);
+		return true;
+	}
+
+	/** Reimbursement of a claim as computed by HealthInsurance.getReimbursement before the {@link CostSharingSchedule} */
+	private static double oldReimbursement(double claimsYTD, double claim, double deductible, int stopLoss, int stopClaim, double copaymentRate) {
+		double bp1 = deductible;
+		double bp2;
+		if (stopLoss != 0) {
+			bp2 = bp1 + (stopLoss - bp1) / (copaymentRate);
+		} else if (stopClaim != 0) {
+			bp2 = bp1 + (stopClaim) / (1 - copaymentRate);
+		} else {
+			bp2 = 999999999;
+		}
+
+		double reimbursement = -1.0;
+		if (claimsYTD < bp1 && claimsYTD + claim <= bp1) {
+			reimbursement = 0.0;
+		} else if (claimsYTD < bp1 && claimsYTD + claim > bp1 && claimsYTD + claim < bp2) {
+			reimbursement = (1 - copaymentRate) * (claim - (deductible - claimsYTD));
+		} else if (claimsYTD < bp1 && claimsYTD + claim >= bp2) {
+			reimbursement = (bp2 - bp1) * (1 - copaymentRate);
+			if (stopLoss != 0) {
+				reimbursement += claim - (deductible - claimsYTD) - (bp2 - bp1);
+			}
+		} else if (claimsYTD >= bp1 && claimsYTD < bp2 && claimsYTD + claim <= bp2) {
+			reimbursement = claim * (1 - copaymentRate);
+		} else if (claimsYTD >= bp1 && claimsYTD < bp2 && claimsYTD + claim > bp2) {
+			reimbursement = (bp2 - claimsYTD) * (1 - copaymentRate);
+			if (stopLoss != 0) {
+				reimbursement += claim - (bp2 - claimsYTD);
+			}
+		} else if (claimsYTD >= bp2) {
+			if (stopLoss != 0) {
+				reimbursement = claim;
+			} else {
+				reimbursement = 0.0;
+			}
+		}
+		return reimbursement;
+	}
+}
@@ -77,7 +77,7 @@ public class TesterLucy {
 		//System.out.printf("Moving average of events above deduct: %s\n", patient1.movingAverageAux(noAboveDeduc));
 		//System.out.printf("Moving average of events below deduct: %s\n", patient1.movingAverageAux(totalBelowDeduc));
 		
-		System.out.printf("Risk aversion: %s\n", patient1.riskAversion);
+		System.out.printf("Risk aversion: %s\n", patient1.getRiskAversion());
 		System.out.printf("Personal assessment: %s\n", patient1.getPersonalExpenCalcTotal());
 
 		
@@ -0,0 +1,536 @@
+package healthABM;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import repast.simphony.context.Context;
+import repast.simphony.context.DefaultContext;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ISchedule;
+import repast.simphony.engine.schedule.Schedule;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.parameter.ParametersParser;
+import repast.simphony.random.RandomHelper;
+
+/**
+ * Plain-Java driver of the model (headless mode). It executes the same scheduled methods as the Repast scheduler, in the same order
+ * (by priority, with start and interval taken from the {@link ScheduledMethod} annotations), but as loops over typed arrays of agents
+ * instead of one reflective call per agent. The context is built by the usual {@link Initialiser}.<br>
+ * A Repast schedule is still created and advanced once per tick, only to keep RunEnvironment consistent for code that reads the
+ * parameters or the tick from there (e.g. {@link Provider}). All other classes use {@link Model#getParameters()} and {@link Model#getCurrentTick()}.<br>
+ * With the parameter <i>numThreads</i> &gt; 1, the patient phases that only touch one patient (reset, getting sick, the choice of the
+ * health insurance plan and the first part of the medical care, including the ranking of the providers) are split across a fork/join pool. The providers are then matched with the
+ * patients on one thread, in the random order of the phase, together with the consultations, payments and treatments, which change the providers and insurers (see {@link Patient#getMedicalCare()}). All threads finish a phase before the next phase starts (phase barrier). Patients
+ * who die in these phases are replaced after the barrier, by increasing ID (see {@link Model#processDeaths()}), also on one thread. The medical
+ * conditions created in these phases get their IDs after the barrier as well (see {@link Model#assignConditionIDs()}).
+ * Together with the {@link RandomStreams}, a run gives the same results for any number of threads. The Repast RandomHelper is seeded again at the
+ * start of each tick ({@link RandomStreams#repastSeed(int)}), hence a run restored from a {@link Checkpoint} continues with the same draws.<br>
+ * Usage: <code>java healthABM.TickEngine [parameters.xml] [name=value ...]</code>
+ */
+public class TickEngine {
+
+	/** Parameters of the run */
+	protected final Parameters params;
+
+	/** Repast schedule, only used to provide the current tick to RunEnvironment */
+	private final ISchedule schedule;
+
+	/** All phases of a tick, ordered by priority (highest first) */
+	private final ArrayList<Phase<?>> phases = new ArrayList<Phase<?>>();
+
+	/** Minimum number of agents processed by one task of the fork/join pool */
+	static final int CHUNK_SIZE = 512;
+
+	/** Fork/join pool for the parallel phases (null if the model runs on one thread) */
+	private final ForkJoinPool pool;
+
+	/** TRUE if the pool was created by this engine (and is shut down by {@link #finish()}) */
+	private final boolean ownPool;
+
+	/** Observers called at the end of each tick */
+	private final ArrayList<TickObserver> observers = new ArrayList<TickObserver>();
+
+	/** Context built by the {@link Initialiser}*/
+	protected Context<Object> context;
+
+	/** The model agent */
+	private Model model;
+
+	/** All insurance companies (they are created once by the {@link Initialiser})*/
+	private InsuranceCompany[] insurers;
+
+	/** Buffer with the agents of the current phase */
+	private Object[] agents = new Object[1];
+
+	/** Number of valid entries in {@link #agents}*/
+	private int numAgents;
+
+	/** Last tick executed by the engine */
+	protected int tick = -1;
+
+
+	/**
+	 * Creates the engine and switches the model to headless mode. Call {@link #build()} before running the model.
+	 * @param params Parameters of the run (e.g. loaded with {@link #loadParameters(String)})
+	 */
+	public TickEngine(Parameters params) {
+		this(params, null);
+	}
+
+	/**
+	 * Creates the engine using an existing fork/join pool (e.g. shared by the runs of the {@link ReplicationRunner}).
+	 * @param params Parameters of the run
+	 * @param pool pool for the parallel phases (if null, a pool with <i>numThreads</i> threads is created if numThreads &gt; 1)
+	 */
+	public TickEngine(Parameters params, ForkJoinPool pool) {
+		this.params = params;
+		Model.setHeadless(params);
+
+		this.schedule = new Schedule();
+		RunEnvironment.init(this.schedule, null, params, true);
+
+		int seed = params.getInteger("randomSeed");
+		RandomHelper.setSeed(seed);
+
+		if(pool!=null) {
+			this.pool = pool;
+			this.ownPool = false;
+		}
+		else {
+			int threads = TickEngine.getNumThreads(params);
+			this.pool = threads>1 ? new ForkJoinPool(threads) : null;
+			this.ownPool = this.pool!=null;
+		}
+
+		this.definePhases();
+	}
+
+	/**
+	 * Builds the context with the {@link Initialiser}. If the Initialiser restores a saved state (parameter initialState), the run
+	 * continues with the tick after the saved state.
+	 * @return the context of the model
+	 */
+	public Context<Object> build() {
+		this.context = new DefaultContext<Object>("healthABM");
+		new Initialiser().build(this.context);
+		this.collectAgents();
+		if(Model.onsets!=null || Model.cohorts!=null) {
+			// Event-driven onset of illnesses or onset by cohort: the weekly trials of the patients are not needed
+			this.phases.removeIf(p -> p.type==Patient.class && p.name.equals("stepGetSick"));
+		}
+
+		this.tick = Model.firstTick-1;
+		this.schedule.schedule(ScheduleParameters.createRepeating(Model.firstTick, 1, ScheduleParameters.FIRST_PRIORITY), () -> this.executeTick());
+		return this.context;
+	}
+
+	/**
+	 * Runs the model until the given tick (included). The run can be continued with further calls (e.g. run(520), then run(1560)),
+	 * call {@link #finish()} at the end of the run.
+	 * @param endTick last tick to be executed
+	 */
+	public void run(int endTick) {
+		while(this.tick < endTick) {
+			this.schedule.execute();	// calls executeTick()
+		}
+	}
+
+	/**
+	 * Ends the run: writes the rest of the claims log and closes it ({@link ClaimsLog}), and shuts down the pool if it was created by
+	 * this engine. The engine cannot run any more ticks afterwards.
+	 */
+	public void finish() {
+		Model.closeClaimsLog();
+		if(this.ownPool) {
+			this.pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return the last executed tick (-1 if the model did not start yet)
+	 */
+	public int getTick() {
+		return this.tick;
+	}
+
+	/** @return the context of the model (null before {@link #build()})*/
+	public Context<Object> getContext() {
+		return this.context;
+	}
+
+	/**
+	 * Adds an observer, called at the end of each tick (after all phases)
+	 * @param observer TickObserver
+	 */
+	public void addObserver(TickObserver observer) {
+		this.observers.add(observer);
+	}
+
+	/**
+	 * Defines the phases. The steps of the model are called directly (no reflection), all other scheduled methods
+	 * (e.g. the timers of {@link Model} or the steps of {@link Provider}) are invoked by reflection.
+	 */
+	private void definePhases() {
+		this.phases.add(new Phase<Model>(Model.class, "stepResetModel", Model::stepResetModel));
+		this.phases.add(new Phase<Patient>(Patient.class, "stepResetPatient", Patient::stepResetPatient).parallel(Patient::stepResetPatient, null));
+		this.phases.add(new Phase<InsuranceCompany>(InsuranceCompany.class, "stepAdaptHIOffer", InsuranceCompany::stepAdaptHIOffer));
+		this.phases.add(new Phase<Model>(Model.class, "updateGlobalLogExpenditures", Model::updateGlobalLogExpenditures));
+		this.phases.add(new Phase<Model>(Model.class, "updateHCEexp", Model::updateHCEexp));
+		this.phases.add(new Phase<Patient>(Patient.class, "stepContractInsurance", Patient::stepContractInsurance).parallel(Patient::prepareContractInsurance, Patient::contractInsurance));
+		this.phases.add(new Phase<Patient>(Patient.class, "stepGetSick", Patient::stepGetSick).parallel(Patient::stepGetSick, null));
+		this.phases.add(new Phase<Model>(Model.class, "stepIllnessOnsets", Model::stepIllnessOnsets));
+		this.phases.add(new Phase<Patient>(Patient.class, "stepGetMedicalCare", Patient::stepGetMedicalCare).parallel(Patient::prepareMedicalCare, Patient::getMedicalCare));
+		this.phases.add(new Phase<Model>(Model.class, "resetYearStart", Model::resetYearStart));
+
+		// All remaining scheduled methods
+		Class<?>[] agentClasses = {Model.class, Patient.class, InsuranceCompany.class, Provider.class, HIPlan.class, HealthInsurance.class, MedicalCondition.class, Illness.class};
+		for(Class<?> c: agentClasses) {
+			for(Method m: c.getMethods()) {
+				if(m.getAnnotation(ScheduledMethod.class)!=null && !this.hasPhase(c, m.getName())) {
+					this.phases.add(Phase.reflective(c, m));
+				}
+			}
+		}
+
+		// Sort by priority (stable: phases with the same priority keep the order above)
+		Collections.sort(this.phases, (a, b) -> Double.compare(b.priority, a.priority));
+		for(int i = 0; i < this.phases.size(); i++) {
+			this.phases.get(i).id = i;
+		}
+	}
+
+	private boolean hasPhase(Class<?> type, String method) {
+		for(Phase<?> p: this.phases) {
+			if(p.type==type && p.name.equals(method)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Collects the agents that do not change during the run */
+	private void collectAgents() {
+		for(Object o: this.context.getObjects(Model.class)) {
+			this.model = (Model) o;
+		}
+		ArrayList<InsuranceCompany> list = new ArrayList<InsuranceCompany>();
+		for(Object o: this.context.getObjects(InsuranceCompany.class)) {
+			list.add((InsuranceCompany) o);
+		}
+		this.insurers = list.toArray(new InsuranceCompany[list.size()]);
+	}
+
+	/** Executes all phases that are due in the next tick. This is the only action of the Repast schedule */
+	private void executeTick() {
+		this.tick = (int) this.schedule.getTickCount();
+		Model.headlessTick = this.tick;
+		// The Repast generator (e.g. used by the providers) starts each tick from a seed of the tick, as after a restored checkpoint
+		RandomHelper.setSeed(RandomStreams.repastSeed(this.tick));
+
+		for(Phase<?> phase: this.phases) {
+			if(phase.isDue(this.tick)) {
+				this.runPhase(phase);
+			}
+		}
+		for(TickObserver o: this.observers) {
+			o.tickDone(this, this.tick);
+		}
+	}
+
+	/**
+	 * Runs one phase over all agents of its class. If the phase has a parallel part, it is executed first (on the pool, if available)
+	 * with deferred deaths, followed by the serial part (if any) on the current thread.
+	 * @param phase Phase to be executed
+	 */
+	protected <T> void runPhase(Phase<T> phase) {
+		this.selectAgents(phase.type);
+		if(phase.shuffle) {
+			this.shuffleAgents(phase.id);
+		}
+		if(phase.parallelStep==null) {
+			this.runSerial(phase.step);
+			return;
+		}
+
+		Model.deferDeaths = true;
+		if(this.pool==null) {
+			this.runSerial(phase.parallelStep);
+		}
+		else {
+			this.pool.invoke(new ChunkTask<T>(phase.parallelStep, this.agents, 0, this.numAgents));
+		}
+		Model.deferDeaths = false;
+		Model.assignConditionIDs();
+		Model.processDeaths();
+
+		if(phase.serialStep!=null) {
+			this.runSerial(phase.serialStep);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> void runSerial(Step<T> step) {
+		Object[] list = this.agents;
+		for(int i = 0; i < this.numAgents; i++) {
+			step.run((T) list[i]);
+		}
+	}
+
+	/**
+	 * Fills {@link #agents} with all agents of the given class. Patients are collected again for each phase, since patients
+	 * are replaced when they die.
+	 * @param type Class of the agents
+	 */
+	protected void selectAgents(Class<?> type) {
+		this.numAgents = 0;
+		if(type==Model.class) {
+			this.addAgent(this.model);
+		}
+		else if(type==InsuranceCompany.class) {
+			for(InsuranceCompany c: this.insurers) {
+				this.addAgent(c);
+			}
+		}
+		else {
+			for(Object o: this.context.getObjects(type)) {
+				this.addAgent(o);
+			}
+		}
+	}
+
+	private void addAgent(Object o) {
+		if(this.numAgents==this.agents.length) {
+			Object[] larger = new Object[this.agents.length*2];
+			System.arraycopy(this.agents, 0, larger, 0, this.numAgents);
+			this.agents = larger;
+		}
+		this.agents[this.numAgents++] = o;
+	}
+
+	/**
+	 * Random permutation (Fisher-Yates) of the selected agents
+	 * @param phase ID of the phase (used as agent ID of the {@link RandomStreams})
+	 */
+	private void shuffleAgents(int phase) {
+		for(int i = this.numAgents-1; i > 0; i--) {
+			int j = RandomStreams.uniformInt(0, i, phase, this.tick, RandomStreams.SHUFFLE, i);
+			Object tmp = this.agents[i];
+			this.agents[i] = this.agents[j];
+			this.agents[j] = tmp;
+		}
+	}
+
+
+	/** Called at the end of each tick (e.g. to write output, see {@link RunOutput})*/
+	public interface TickObserver {
+		void tickDone(TickEngine engine, int tick);
+	}
+
+	/** Body of a phase (called once per agent)*/
+	interface Step<T> {
+		void run(T agent);
+	}
+
+	/** Task of the fork/join pool: runs a step over a range of agents, split in halves until the range is smaller than {@link #CHUNK_SIZE}*/
+	@SuppressWarnings("serial")
+	static class ChunkTask<T> extends RecursiveAction {
+		final Step<T> step;
+		final Object[] list;
+		final int from;
+		final int to;
+
+		ChunkTask(Step<T> step, Object[] list, int from, int to) {
+			this.step = step;
+			this.list = list;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		protected void compute() {
+			if(this.to-this.from <= CHUNK_SIZE) {
+				for(int i = this.from; i < this.to; i++) {
+					this.step.run((T) this.list[i]);
+				}
+				return;
+			}
+			int mid = (this.from+this.to) >>> 1;
+			RecursiveAction.invokeAll(new ChunkTask<T>(this.step, this.list, this.from, mid), new ChunkTask<T>(this.step, this.list, mid, this.to));
+		}
+	}
+
+	/**
+	 * A scheduled method of an agent class. The timing (start, interval, priority, shuffle) is read from its {@link ScheduledMethod}
+	 * annotation, hence the engine follows any change of the annotations.
+	 */
+	static class Phase<T> {
+		final Class<T> type;
+		final String name;
+		final double start;
+		final double interval;
+		final double priority;
+		final boolean shuffle;
+		final Step<T> step;
+		/** Position of the phase in the tick */
+		int id;
+		/** Part of the step that may run in parallel (null if the phase is always serial) */
+		Step<T> parallelStep;
+		/** Part of the step that runs serially after {@link #parallelStep} (null if nothing is left) */
+		Step<T> serialStep;
+
+		Phase(Class<T> type, String name, Step<T> step) {
+			ScheduledMethod annotation = null;
+			try {
+				annotation = type.getMethod(name).getAnnotation(ScheduledMethod.class);
+			} catch (NoSuchMethodException e) {
+
+			}
+			if(annotation==null) {
+				System.out.printf("ERROR: %s.%s() is not a scheduled method\n", type.getSimpleName(), name);
+				System.exit(1);
+			}
+			this.type 		= type;
+			this.name 		= name;
+			this.start 		= annotation.start();
+			this.interval 	= annotation.interval();
+			this.priority 	= annotation.priority();
+			this.shuffle 	= annotation.shuffle();
+			this.step 		= step;
+		}
+
+		/**
+		 * Declares the phase as (partly) parallel. Running <i>parallel</i> and then <i>serial</i> on all agents must be equivalent to running the step.
+		 * @param parallel part that only touches the agent itself (or shared data through the synchronized helpers of {@link Model})
+		 * @param serial remaining part, executed on one thread (may be null)
+		 * @return this phase
+		 */
+		Phase<T> parallel(Step<T> parallel, Step<T> serial) {
+			this.parallelStep = parallel;
+			this.serialStep = serial;
+			return this;
+		}
+
+		/** Creates a phase invoking the method by reflection */
+		static <T> Phase<T> reflective(Class<T> type, Method method) {
+			return new Phase<T>(type, method.getName(), agent -> {
+				try {
+					method.invoke(agent);
+				} catch (IllegalAccessException | InvocationTargetException e) {
+					throw new RuntimeException("Error in scheduled method "+type.getSimpleName()+"."+method.getName(), e);
+				}
+			});
+		}
+
+		/**
+		 * @param tick current tick
+		 * @return TRUE if the phase must be executed in the given tick
+		 */
+		boolean isDue(int tick) {
+			if(tick<this.start) {
+				return false;
+			}
+			if(this.interval<=0) {
+				return tick==this.start;
+			}
+			return (tick-this.start) % this.interval == 0;
+		}
+	}
+
+
+	// STATIC HELPERS
+	/**
+	 * Loads the parameters from a Repast parameter file (e.g. HealthABM.rs/parameters.xml), using the default values.
+	 * @param file path of the parameter file
+	 * @return Parameters
+	 */
+	public static Parameters loadParameters(String file) {
+		try {
+			return new ParametersParser(new File(file)).getParameters();
+		} catch (Exception e) {
+			System.out.printf("Sorry, I could not read the parameter file you specified [%s]\n", file);
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * Changes the value of a parameter given as a string of the form <i>name=value</i>. The value is converted to the type of the current value.
+	 * @param params Parameters to be changed
+	 * @param assignment String of the form name=value
+	 */
+	public static void setParameter(Parameters params, String assignment) {
+		String[] kv = assignment.split("=", 2);
+		if(kv.length!=2) {
+			System.out.printf("ERROR: '%s' is not of the form name=value\n", assignment);
+			System.exit(1);
+		}
+		Object current = params.getValue(kv[0]);
+		Object value = kv[1];
+		if(current instanceof Integer) {
+			value = Integer.valueOf(kv[1]);
+		} else if(current instanceof Double) {
+			value = Double.valueOf(kv[1]);
+		} else if(current instanceof Long) {
+			value = Long.valueOf(kv[1]);
+		} else if(current instanceof Boolean) {
+			value = Boolean.valueOf(kv[1]);
+		}
+		params.setValue(kv[0], value);
+	}
+
+	/**
+	 * Returns the last tick of a run (parameter stopBatch, 1560 if not defined), as in the batch mode of the {@link Initialiser}
+	 * @param params Parameters of the run
+	 * @return last tick
+	 */
+	public static int getStopTick(Parameters params) {
+		int endAt = 1560;
+		try {
+			endAt = params.getInteger("stopBatch");
+		}
+		catch(IllegalParameterException e) {
+
+		}
+		return endAt;
+	}
+
+	/**
+	 * Returns the number of threads for the patient phases (parameter numThreads, 1 if not defined)
+	 * @param params Parameters of the run
+	 * @return number of threads
+	 */
+	public static int getNumThreads(Parameters params) {
+		int threads = 1;
+		try {
+			threads = params.getInteger("numThreads");
+		}
+		catch(IllegalParameterException e) {
+
+		}
+		return Math.max(1, threads);
+	}
+
+	public static void main(String[] args) {
+		String file = args.length>0 ? args[0] : "HealthABM.rs/parameters.xml";
+		Parameters params = TickEngine.loadParameters(file);
+		for(int i = 1; i < args.length; i++) {
+			TickEngine.setParameter(params, args[i]);
+		}
+
+		TickEngine engine = new TickEngine(params);
+		engine.build();
+		engine.run(TickEngine.getStopTick(params));
+		engine.finish();
+		System.out.printf("Headless run finished after tick %s\n", engine.getTick());
+	}
+}
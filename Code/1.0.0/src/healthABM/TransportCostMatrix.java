@@ -0,0 +1,177 @@
+package healthABM;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.stream.IntStream;
+
+import repast.simphony.parameter.IllegalParameterException;
+import repast.simphony.parameter.Parameters;
+
+/**
+ * Transport costs of the patients (rows of {@link Model#patients}) to their nearest providers, i.e. distance*transportCost as computed by
+ * {@link Patient#getTransportCost(Provider)}. Each row holds the costs (as float) to the first K providers of the consideration set of the
+ * patient's cell ({@link ProviderIndex#getConsiderationSet(int)}, parameter <i>transportCostK</i>, default {@link #DEFAULT_K}); the cost to
+ * any other provider is computed when it is needed. Since the search of a provider goes through the consideration set and usually stops early,
+ * almost all costs read by the patients are in the table, while its size is K floats per patient instead of one double per provider
+ * (e.g. 256 MB instead of 17.6 GB for 1 million patients and 2200 providers).<br>
+ * Patients and providers do not move, hence the costs are computed once by the {@link Initialiser} (in parallel) and only the row of a new
+ * patient is computed again ({@link Patient#die()}).<br>
+ * The costs are kept in memory, or in a memory-mapped file for very large populations (parameter <i>transportCostFile</i>, default: empty
+ * = in memory). The file is a temporary file, it is deleted when the JVM exits.<br>
+ * Rows that were not in the table when the matrix was built are computed when they are needed.
+ */
+public class TransportCostMatrix {
+
+	/** Number of providers per row if the parameter transportCostK is not defined */
+	public static final int DEFAULT_K = 64;
+
+	/** Maximum number of bytes of one block of rows (one array or one mapped region) */
+	private static final long MAX_BLOCK = Integer.MAX_VALUE;
+
+	private final ProviderIndex index;
+	private final double transportCost;
+
+	/** Number of rows, and number of providers per row */
+	private final int rows, k;
+	/** Rows per block */
+	private final int blockRows;
+	/** Blocks of rows */
+	private final FloatBuffer[] blocks;
+
+
+	/**
+	 * Computes the transport costs of all patients of {@link Model#patients}
+	 * @param index Provider index (consideration sets)
+	 * @param transportCost cost per unit of distance (parameter transportCost)
+	 * @param k number of providers per row (parameter transportCostK)
+	 * @param file memory-mapped file for the costs (null or empty: in memory)
+	 */
+	public TransportCostMatrix(ProviderIndex index, double transportCost, int k, String file) {
+		this.index = index;
+		this.transportCost = transportCost;
+		this.rows = Model.patients.size();
+		this.k = Math.max(0, Math.min(k, index.getProviders().length));
+		this.blockRows = (int) Math.max(1, Math.min(this.rows, MAX_BLOCK/4/Math.max(1, this.k)));
+		int numBlocks = this.rows==0 ? 0 : (this.rows-1)/this.blockRows + 1;
+		this.blocks = new FloatBuffer[numBlocks];
+
+		if(file==null || file.trim().isEmpty()) {
+			for(int b = 0; b < numBlocks; b++) {
+				this.blocks[b] = FloatBuffer.wrap(new float[this.rowsOfBlock(b)*this.k]);
+			}
+		}
+		else {
+			File f = new File(file.trim());
+			f.deleteOnExit();
+			try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+				FileChannel channel = raf.getChannel();
+				long position = 0;
+				for(int b = 0; b < numBlocks; b++) {
+					long bytes = 4L*this.rowsOfBlock(b)*this.k;
+					this.blocks[b] = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+					position += bytes;
+				}
+			}
+			catch (IOException e) {
+				System.out.printf("Sorry, I could not create the file for the transport costs [%s]\n", file);
+				System.exit(1);
+			}
+		}
+
+		IntStream.range(0, this.rows).parallel().forEach(row -> this.update(row));
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return file for the transport costs (parameter transportCostFile), null: in memory
+	 */
+	public static String getFile(Parameters params) {
+		try {
+			String file = params.getString("transportCostFile");
+			return file==null || file.trim().isEmpty() ? null : file;
+		}
+		catch(IllegalParameterException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param params Parameters of the run
+	 * @return number of providers per row (parameter transportCostK, default {@link #DEFAULT_K})
+	 */
+	public static int getK(Parameters params) {
+		int k = DEFAULT_K;
+		try {
+			k = params.getInteger("transportCostK");
+		}
+		catch(IllegalParameterException e) {
+
+		}
+		return Math.max(0, k);
+	}
+
+	/**
+	 * Computes the costs of a row again (e.g. when a new patient takes over the row of a patient who died)
+	 * @param row row of the patient
+	 */
+	public void update(int row) {
+		if(row>=this.rows || !Model.patients.isUsed(row)) {
+			return;
+		}
+		int[] providers = this.index.getConsiderationSet(row).providers;
+		FloatBuffer block = this.blocks[row/this.blockRows];
+		int base = (row%this.blockRows)*this.k;
+		for(int j = 0; j < this.k; j++) {
+			block.put(base+j, TransportCostMatrix.roundUp(this.compute(row, providers[j])));
+		}
+	}
+
+	/**
+	 * Returns the transport cost of a patient to a provider
+	 * @param row row of the patient
+	 * @param provider position of the provider in {@link ProviderIndex#getProviders()}
+	 * @return transport cost
+	 */
+	public double get(int row, int provider) {
+		if(row>=this.rows) {
+			return this.compute(row, provider);
+		}
+		int j = this.index.getConsiderationSet(row).place[provider];
+		if(j>=this.k) {
+			return this.compute(row, provider);
+		}
+		return this.blocks[row/this.blockRows].get((row%this.blockRows)*this.k + j);
+	}
+
+	/**
+	 * Returns the transport cost of a patient to a provider
+	 * @param row row of the patient
+	 * @param prov provider (if it is not in the index, the cost is computed)
+	 * @return transport cost
+	 */
+	public double get(int row, Provider prov) {
+		int i = this.index.getPosition(prov);
+		if(i<0) {
+			return Model.patients.distance(row, prov.space.getLocation(prov)) * this.transportCost;
+		}
+		return this.get(row, i);
+	}
+
+	/** Float not below the cost, hence the lower bounds of the search of a provider (see {@link Patient#getNetworkAdvise(double, double)}) remain valid */
+	private static float roundUp(double cost) {
+		float f = (float) cost;
+		return f<cost ? Math.nextUp(f) : f;
+	}
+
+	private double compute(int row, int provider) {
+		return Model.patients.distance(row, this.index.getLocation(provider)) * this.transportCost;
+	}
+
+	private int rowsOfBlock(int b) {
+		return Math.min(this.blockRows, this.rows - b*this.blockRows);
+	}
+}
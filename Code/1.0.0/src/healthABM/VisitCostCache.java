@@ -0,0 +1,94 @@
+package healthABM;
+
+import java.util.Arrays;
+
+/**
+ * Expected visit costs of one patient by provider ({@link Patient#getVisitCost(Provider)}), for the current tick. The cost of a visit only
+ * changes when the patient pays a claim (claimsYTD of the insurances) or changes the insurance, or in the next tick, hence the choice of a
+ * provider ({@link Patient#getNetworkAdvise(double, double)}, {@link Patient#decideVisitProvider()}) computes the cost of each provider once.<br>
+ * Open addressing (linear probing) with the position of the provider in {@link ProviderIndex#getProviders()} as key.
+ */
+class VisitCostCache {
+
+	/** Keys (position of the provider + 1, 0: empty slot) */
+	private int[] keys = new int[16];
+	private double[] costs = new double[16];
+	private int size;
+
+	/** Tick of the cached costs */
+	private int tick = Integer.MIN_VALUE;
+
+
+	/**
+	 * Looks for the cost of a provider
+	 * @param key position of the provider in {@link ProviderIndex#getProviders()}
+	 * @param tick current tick (the costs of previous ticks are dropped)
+	 * @return slot of the cost ({@link #cost(int)}), -1 if the cost is not cached
+	 */
+	int find(int key, int tick) {
+		if(tick!=this.tick) {
+			this.clear();
+			this.tick = tick;
+		}
+		int mask = this.keys.length-1;
+		for(int i = hash(key) & mask; this.keys[i]!=0; i = (i+1) & mask) {
+			if(this.keys[i]==key+1) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param slot slot returned by {@link #find(int, int)}
+	 * @return cached cost
+	 */
+	double cost(int slot) {
+		return this.costs[slot];
+	}
+
+	/**
+	 * Stores the cost of a provider (that is not cached yet, see {@link #find(int, int)})
+	 * @param key position of the provider in {@link ProviderIndex#getProviders()}
+	 * @param cost expected cost of the visit
+	 */
+	void put(int key, double cost) {
+		if(2*(this.size+1)>this.keys.length) {
+			this.grow();
+		}
+		int mask = this.keys.length-1;
+		int i = hash(key) & mask;
+		while(this.keys[i]!=0) {
+			i = (i+1) & mask;
+		}
+		this.keys[i] = key+1;
+		this.costs[i] = cost;
+		this.size++;
+	}
+
+	/** Drops all costs (e.g. when the patient pays a claim) */
+	void clear() {
+		if(this.size>0) {
+			Arrays.fill(this.keys, 0);
+			this.size = 0;
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = this.keys;
+		double[] oldCosts = this.costs;
+		this.keys = new int[2*oldKeys.length];
+		this.costs = new double[2*oldKeys.length];
+		this.size = 0;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i]!=0) {
+				this.put(oldKeys[i]-1, oldCosts[i]);
+			}
+		}
+	}
+
+	private static int hash(int key) {
+		int h = key*0x9E3779B9;
+		return h ^ (h>>>16);
+	}
+}